@@ -22,6 +22,8 @@ export const ChatPanel = ({ channelId, channelType, isCollapsed, onToggle }: Cha
   const messagesEndRef = useRef<HTMLDivElement>(null);
   const messagesContainerRef = useRef<HTMLDivElement>(null);
   const inputRef = useRef<HTMLTextAreaElement>(null);
+  // A retraction can arrive before the broadcast it withdraws
+  const retractedIdsRef = useRef<Set<string>>(new Set());
 
   const { isConnected, sendMessage, subscribe } = useWebSocket();
 
@@ -49,6 +51,15 @@ export const ChatPanel = ({ channelId, channelType, isCollapsed, onToggle }: Cha
       const destination = `/topic/chat/${channelType}/${channelId}`;
 
       const sub = subscribe(destination, (message) => {
+        // The server could not store this message after broadcasting it
+        if (message.retracted) {
+          retractedIdsRef.current.add(message.id);
+          setMessages((prev) => prev.filter((m) => m.id !== message.id));
+          return;
+        }
+        if (message.id && retractedIdsRef.current.has(message.id)) {
+          return;
+        }
         // Map backend response to ChatMessage format
         const newMessage: ChatMessage = {
           id: message.id || Date.now().toString(),
@@ -1,7 +1,14 @@
 import { useState, useEffect, useRef, useLayoutEffect } from 'react';
 import { createPortal } from 'react-dom';
 import { useNavigate } from 'react-router-dom';
-import { notificationService, type Notification } from '../services/notification.service';
+import {
+  notificationService,
+  NOTIFICATION_PUSH_DESTINATION,
+  NOTIFICATION_RESUME_DESTINATION,
+  type Notification,
+  type NotificationPush,
+} from '../services/notification.service';
+import { useWebSocket } from '../hooks/useWebSocket';
 
 export const NotificationDropdown = () => {
   const navigate = useNavigate();
@@ -13,15 +20,55 @@ export const NotificationDropdown = () => {
   const buttonRef = useRef<HTMLButtonElement>(null);
   const [pos, setPos] = useState<{ top: number; right: number } | null>(null);
   const portalRef = useRef<HTMLDivElement | null>(null);
+  // Id of the newest notification we have seen; sent on reconnect so the server replays only the gap
+  const resumeTokenRef = useRef<string | undefined>(undefined);
+  const { isConnected, subscribe, sendMessage } = useWebSocket({ handleErrors: false });
 
   useEffect(() => {
     loadUnreadCount();
-    
-    // Poll for new notifications every 30 seconds
-    const interval = setInterval(loadUnreadCount, 30000);
-    return () => clearInterval(interval);
   }, []);
 
+  // New notifications and unread counts are pushed over the WebSocket; no polling needed
+  useEffect(() => {
+    if (!isConnected) return;
+
+    const sub = subscribe(NOTIFICATION_PUSH_DESTINATION, (frame: NotificationPush) => {
+      // Tokens are notification ids; only ever move forward
+      if (frame.resumeToken && Number(frame.resumeToken) > Number(resumeTokenRef.current ?? 0)) {
+        resumeTokenRef.current = frame.resumeToken;
+      }
+      if (typeof frame.unreadCount === 'number') {
+        setUnreadCount(frame.unreadCount);
+      }
+      if (frame.type === 'notification' && frame.notification) {
+        const incoming = frame.notification;
+        setNotifications(prev => [incoming, ...prev.filter(n => n.id !== incoming.id)].slice(0, 10));
+      } else if (frame.type === 'resume') {
+        if (frame.resync) {
+          loadNotifications();
+        } else if (frame.notifications && frame.notifications.length > 0) {
+          const missed = [...frame.notifications].reverse();
+          setNotifications(prev => {
+            const missedIds = new Set(missed.map(n => n.id));
+            return [...missed, ...prev.filter(n => !missedIds.has(n.id))].slice(0, 10);
+          });
+        }
+      }
+    });
+
+    sendMessage(NOTIFICATION_RESUME_DESTINATION, { resumeToken: resumeTokenRef.current }).catch(err =>
+      console.error('Failed to resume notifications:', err)
+    );
+
+    return () => {
+      try {
+        sub?.unsubscribe?.();
+      } catch {
+        // ignore
+      }
+    };
+  }, [isConnected, subscribe, sendMessage]);
+
   useEffect(() => {
     if (isOpen) {
       loadNotifications();
@@ -2,7 +2,12 @@ import { useEffect, useState, useCallback } from 'react';
 import { wsService } from '../services/websocket.service';
 import { useAuthStore } from '../store/authStore';
 
-export const useWebSocket = () => {
+interface UseWebSocketOptions {
+  // Show chat error toasts from /user/topic/errors; only one mounted consumer should do this
+  handleErrors?: boolean;
+}
+
+export const useWebSocket = ({ handleErrors = true }: UseWebSocketOptions = {}) => {
   const { token } = useAuthStore();
   // Initialize with actual connection state
   const [isConnected, setIsConnected] = useState(() => wsService.isConnected());
@@ -28,7 +33,7 @@ export const useWebSocket = () => {
       } catch (err) {
         console.error('WebSocket connection failed:', err);
         const toastStore = (window as any).__toastStore;
-        if (toastStore) {
+        if (handleErrors && toastStore) {
           toastStore.getState().addToast(
             'Chat connection failed. Please refresh and try again.',
             'error',
@@ -55,10 +60,10 @@ export const useWebSocket = () => {
       window.clearInterval(interval);
       // Don't disconnect on unmount as other components might be using it
     };
-  }, [token]);
+  }, [token, handleErrors]);
 
   useEffect(() => {
-    if (!token || !isConnected) return;
+    if (!handleErrors || !token || !isConnected) return;
 
     const destination = '/user/topic/errors';
     try {
@@ -81,7 +86,7 @@ export const useWebSocket = () => {
     } catch {
       // ignore subscribe errors while reconnecting
     }
-  }, [token, isConnected]);
+  }, [handleErrors, token, isConnected]);
 
   const subscribe = useCallback((destination: string, callback: (message: any) => void) => {
     if (wsService.isConnected()) {
@@ -20,6 +20,19 @@ export interface NotificationPage {
   size: number;
 }
 
+// Frame pushed to /user/queue/notifications
+export interface NotificationPush {
+  type: 'notification' | 'unread-count' | 'resume';
+  notification?: Notification;
+  notifications?: Notification[];
+  unreadCount?: number;
+  resumeToken?: string;
+  resync?: boolean;
+}
+
+export const NOTIFICATION_PUSH_DESTINATION = '/user/queue/notifications';
+export const NOTIFICATION_RESUME_DESTINATION = '/app/notifications.resume';
+
 export const notificationService = {
   getNotifications: async (page = 0, size = 20): Promise<NotificationPage> => {
     const response = await api.get(`/notifications?page=${page}&size=${size}`);
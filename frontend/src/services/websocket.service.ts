@@ -37,6 +37,7 @@ export interface ChatMessage {
   senderName: string;
   text: string;
   createdAt?: string;
+  retracted?: boolean;
 }
 
 export class WebSocketService {
@@ -0,0 +1,102 @@
+package com.example.webapp.config;
+
+import com.example.webapp.dto.MessageResponse;
+import com.example.webapp.service.ChatAuthorizationService;
+import com.example.webapp.service.PresenceService;
+import com.example.webapp.service.TypingService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.ChannelInterceptor;
+import org.springframework.messaging.support.MessageHeaderAccessor;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+/**
+ * Checks SUBSCRIBE frames for channel-scoped topics (chat, presence, typing).
+ * The destination must name a channel as {type}/{id} and the user must have access to it;
+ * the grant is cached on the session, so a later chat.join needs no permission queries.
+ * Pattern subscriptions are refused on every destination, since the simple broker would
+ * match them against any channel's topic. A refused SUBSCRIBE is dropped and the user gets
+ * an error on /user/topic/errors; the rest of the STOMP session stays open.
+ */
+@Component
+@Slf4j
+public class ChatSubscriptionGuard implements ChannelInterceptor {
+
+    private static final List<String> CHANNEL_TOPIC_PREFIXES = List.of(
+            PresenceService.CHAT_TOPIC_PREFIX,
+            PresenceService.PRESENCE_TOPIC_PREFIX,
+            TypingService.TYPING_TOPIC_PREFIX);
+
+    @Autowired
+    private ChatAuthorizationService chatAuthorizationService;
+
+    @Autowired
+    private SimpMessagingTemplate messagingTemplate;
+
+    @Override
+    public Message<?> preSend(Message<?> message, MessageChannel channel) {
+        StompHeaderAccessor accessor = MessageHeaderAccessor.getAccessor(message, StompHeaderAccessor.class);
+        if (accessor == null || !StompCommand.SUBSCRIBE.equals(accessor.getCommand())) {
+            return message;
+        }
+        String destination = accessor.getDestination();
+        if (destination == null || isPattern(destination)) {
+            log.warn("SUBSCRIBE rejected for session {}: invalid destination {}", accessor.getSessionId(), destination);
+            return reject(accessor, "Invalid subscription destination");
+        }
+        for (String prefix : CHANNEL_TOPIC_PREFIXES) {
+            if (destination.startsWith(prefix)) {
+                return authorize(accessor, destination.substring(prefix.length())) ? message : null;
+            }
+        }
+        return message;
+    }
+
+    /**
+     * @return whether the subscription may go ahead (a refusal has been reported to the user)
+     */
+    private boolean authorize(StompHeaderAccessor accessor, String channelPath) {
+        ChatAuthorizationService.Channel target = ChatAuthorizationService.parseChannel(channelPath);
+        if (target == null || accessor.getUser() == null) {
+            log.warn("SUBSCRIBE rejected for session {}: {} is not a channel", accessor.getSessionId(), channelPath);
+            reject(accessor, "Invalid subscription destination");
+            return false;
+        }
+        try {
+            chatAuthorizationService.authorize(accessor.getSessionId(), accessor.getSessionAttributes(),
+                    target.type(), target.id(), accessor.getUser().getName());
+            return true;
+        } catch (IllegalArgumentException e) {
+            log.warn("SUBSCRIBE to {} denied for {}: {}", channelPath, accessor.getUser().getName(), e.getMessage());
+            reject(accessor, "Access denied: " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Tell the user why the subscription was refused; the frame itself is dropped
+     * @return null, for preSend to return
+     */
+    private Message<?> reject(StompHeaderAccessor accessor, String text) {
+        if (accessor.getUser() != null) {
+            MessageResponse errorMsg = MessageResponse.builder()
+                    .senderId("SYSTEM")
+                    .senderName("System")
+                    .text(text)
+                    .build();
+            messagingTemplate.convertAndSendToUser(accessor.getUser().getName(), "/topic/errors", errorMsg);
+        }
+        return null;
+    }
+
+    private static boolean isPattern(String destination) {
+        return destination.indexOf('*') >= 0 || destination.indexOf('?') >= 0 || destination.indexOf('{') >= 0;
+    }
+}
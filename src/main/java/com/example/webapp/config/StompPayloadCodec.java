@@ -0,0 +1,202 @@
+package com.example.webapp.config;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.cbor.CBORGenerator;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.converter.MappingJackson2MessageConverter;
+import org.springframework.messaging.converter.MessageConverter;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.support.ChannelInterceptor;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.stereotype.Component;
+import org.springframework.util.MimeType;
+import org.springframework.util.MimeTypeUtils;
+import org.springframework.web.socket.messaging.SessionDisconnectEvent;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Binary (CBOR) payloads for STOMP sessions on the native WebSocket endpoint.
+ * A client asks for it with a "payload-codec: cbor" header on CONNECT; JSON frames
+ * sent to that session are then transcoded to CBOR, with numeric string ids
+ * written as integers, and go out as binary WebSocket frames (content-type
+ * application/octet-stream); text frames to the session still carry JSON.
+ * A broadcast is transcoded once, not once per subscriber. The client may send CBOR too (content-type application/cbor).
+ * SockJS sessions cannot carry binary frames and always get JSON.
+ */
+@Component
+@Slf4j
+public class StompPayloadCodec implements ChannelInterceptor {
+
+    public static final String CODEC_HEADER = "payload-codec";
+
+    public static final String CBOR = "cbor";
+
+    /**
+     * Session attribute set on handshakes through the native endpoint
+     */
+    public static final String BINARY_CAPABLE_ATTRIBUTE = "binaryCapable";
+
+    public static final MimeType CBOR_CONTENT_TYPE = new MimeType("application", "cbor");
+
+    /**
+     * Recently transcoded payloads, looked up by identity; subscribers of a broadcast share one payload
+     */
+    private static final int CACHE_SLOTS = 256;
+
+    /**
+     * Longer digit strings do not fit a long
+     */
+    private static final int MAX_ID_DIGITS = 18;
+
+    @Autowired
+    private Jackson2ObjectMapperBuilder objectMapperBuilder;
+
+    @Value("${app.websocket.cbor.enabled:true}")
+    private boolean enabled;
+
+    private final JsonFactory jsonFactory = new JsonFactory();
+    private final CBORFactory cborFactory = new CBORFactory();
+
+    private final Set<String> cborSessions = ConcurrentHashMap.newKeySet();
+
+    private final AtomicReferenceArray<Transcoded> cache = new AtomicReferenceArray<>(CACHE_SLOTS);
+
+    /**
+     * Converter for CBOR payloads sent by clients; only applies to content-type application/cbor
+     */
+    public MessageConverter inboundConverter() {
+        ObjectMapper cborMapper = objectMapperBuilder.factory(new CBORFactory()).build();
+        MappingJackson2MessageConverter converter = new MappingJackson2MessageConverter(CBOR_CONTENT_TYPE);
+        converter.setObjectMapper(cborMapper);
+        converter.setStrictContentTypeMatch(true);
+        return converter;
+    }
+
+    @Override
+    public Message<?> preSend(Message<?> message, MessageChannel channel) {
+        SimpMessageType type = SimpMessageHeaderAccessor.getMessageType(message.getHeaders());
+        if (type == SimpMessageType.CONNECT) {
+            negotiate(message);
+            return message;
+        }
+        if (type != SimpMessageType.MESSAGE || cborSessions.isEmpty()) {
+            return message;
+        }
+        String sessionId = SimpMessageHeaderAccessor.getSessionId(message.getHeaders());
+        if (sessionId == null || !cborSessions.contains(sessionId)
+                || !(message.getPayload() instanceof byte[] json) || json.length == 0
+                || !isJson(contentTypeOf(message))) {
+            return message;
+        }
+
+        byte[] cbor;
+        try {
+            cbor = transcode(json);
+        } catch (IOException e) {
+            log.warn("Could not transcode frame for session {} to CBOR, sending JSON: {}", sessionId, e.getMessage());
+            return message;
+        }
+        SimpMessageHeaderAccessor headers = SimpMessageHeaderAccessor.wrap(message);
+        // Spring writes a binary WebSocket frame only for octet-stream payloads
+        headers.setContentType(MimeTypeUtils.APPLICATION_OCTET_STREAM);
+        return MessageBuilder.createMessage(cbor, headers.getMessageHeaders());
+    }
+
+    @EventListener
+    public void onDisconnect(SessionDisconnectEvent event) {
+        cborSessions.remove(event.getSessionId());
+    }
+
+    private void negotiate(Message<?> message) {
+        SimpMessageHeaderAccessor headers = SimpMessageHeaderAccessor.wrap(message);
+        String codec = headers.getFirstNativeHeader(CODEC_HEADER);
+        if (!enabled || !CBOR.equalsIgnoreCase(codec) || headers.getSessionId() == null) {
+            return;
+        }
+        Map<String, Object> attributes = headers.getSessionAttributes();
+        if (attributes == null || !Boolean.TRUE.equals(attributes.get(BINARY_CAPABLE_ATTRIBUTE))) {
+            log.debug("Session {} asked for CBOR over a transport without binary frames, using JSON", headers.getSessionId());
+            return;
+        }
+        cborSessions.add(headers.getSessionId());
+    }
+
+    private byte[] transcode(byte[] json) throws IOException {
+        int slot = (System.identityHashCode(json) & 0x7fffffff) % CACHE_SLOTS;
+        Transcoded cached = cache.get(slot);
+        if (cached != null && cached.json() == json) {
+            return cached.cbor();
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(json.length);
+        try (JsonParser parser = jsonFactory.createParser(json);
+             CBORGenerator generator = cborFactory.createGenerator(out)) {
+            String field = null;
+            JsonToken token;
+            while ((token = parser.nextToken()) != null) {
+                if (token == JsonToken.FIELD_NAME) {
+                    field = parser.currentName();
+                    generator.writeFieldName(field);
+                } else if (token == JsonToken.VALUE_STRING && isIdField(field) && isLong(parser.getText())) {
+                    generator.writeNumber(Long.parseLong(parser.getText()));
+                } else {
+                    generator.copyCurrentEvent(parser);
+                }
+            }
+        }
+        byte[] cbor = out.toByteArray();
+        cache.set(slot, new Transcoded(json, cbor));
+        return cbor;
+    }
+
+    private static boolean isIdField(String field) {
+        return field != null && (field.equals("id") || field.endsWith("Id"));
+    }
+
+    private static boolean isLong(String value) {
+        int length = value.length();
+        if (length == 0 || length > MAX_ID_DIGITS || (length > 1 && value.charAt(0) == '0')) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c < '0' || c > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isJson(MimeType contentType) {
+        return contentType != null && MimeTypeUtils.APPLICATION_JSON.isCompatibleWith(contentType);
+    }
+
+    private static MimeType contentTypeOf(Message<?> message) {
+        Object value = message.getHeaders().get(MessageHeaders.CONTENT_TYPE);
+        if (value instanceof MimeType mimeType) {
+            return mimeType;
+        }
+        return value != null ? MimeType.valueOf(value.toString()) : null;
+    }
+
+    private record Transcoded(byte[] json, byte[] cbor) {
+    }
+}
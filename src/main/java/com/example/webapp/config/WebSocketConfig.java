@@ -1,10 +1,17 @@
 package com.example.webapp.config;
 
 import com.example.webapp.security.JwtUtil;
+import com.example.webapp.service.PostgresMessageBus;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.http.server.ServerHttpRequest;
+import org.springframework.http.server.ServerHttpResponse;
 import org.springframework.messaging.Message;
 import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.converter.MessageConverter;
 import org.springframework.messaging.simp.config.ChannelRegistration;
 import org.springframework.messaging.simp.config.MessageBrokerRegistry;
 import org.springframework.messaging.simp.stomp.StompCommand;
@@ -15,12 +22,25 @@ import org.springframework.security.authentication.UsernamePasswordAuthenticatio
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.security.core.userdetails.UserDetailsService;
+import org.springframework.web.socket.WebSocketHandler;
 import org.springframework.web.socket.config.annotation.EnableWebSocketMessageBroker;
 import org.springframework.web.socket.config.annotation.StompEndpointRegistry;
 import org.springframework.web.socket.config.annotation.WebSocketMessageBrokerConfigurer;
+import org.springframework.web.socket.config.annotation.WebSocketTransportRegistration;
+import org.springframework.web.socket.server.HandshakeInterceptor;
+
+import java.util.List;
+import java.util.Map;
 
 /**
  * WebSocket configuration for real-time chat
+ * With app.websocket.broker=postgres, chat topics and user destinations are relayed
+ * between nodes through {@link PostgresMessageBus}; otherwise the simple broker
+ * only reaches sessions on this node
+ * Outbound traffic per session is bounded by {@link WebSocketFlowControl}; the inbound
+ * and outbound executors have fixed sizes and bounded queues
+ * /ws/chat-native serves plain WebSocket clients, which may negotiate CBOR payloads
+ * ({@link StompPayloadCodec}); /ws/chat stays the SockJS endpoint
  */
 @Configuration
 @EnableWebSocketMessageBroker
@@ -29,34 +49,125 @@ public class WebSocketConfig implements WebSocketMessageBrokerConfigurer {
 
     private final JwtUtil jwtUtil;
     private final UserDetailsService userDetailsService;
+    private final ObjectProvider<PostgresMessageBus> messageBus;
+    private final String brokerMode;
+    private final WebSocketFlowControl flowControl;
+    private final StompPayloadCodec payloadCodec;
+    private final ChatSubscriptionGuard subscriptionGuard;
+
+    /**
+     * Executor threads; 0 means twice the number of CPU cores
+     */
+    @Value("${app.websocket.inbound.pool-size:0}")
+    private int inboundPoolSize;
+
+    @Value("${app.websocket.inbound.queue-capacity:10000}")
+    private int inboundQueueCapacity;
 
-    public WebSocketConfig(JwtUtil jwtUtil, UserDetailsService userDetailsService) {
+    @Value("${app.websocket.outbound.pool-size:0}")
+    private int outboundPoolSize;
+
+    @Value("${app.websocket.outbound.queue-capacity:10000}")
+    private int outboundQueueCapacity;
+
+    public WebSocketConfig(JwtUtil jwtUtil, UserDetailsService userDetailsService,
+                           ObjectProvider<PostgresMessageBus> messageBus,
+                           @Value("${app.websocket.broker:simple}") String brokerMode,
+                           WebSocketFlowControl flowControl,
+                           StompPayloadCodec payloadCodec,
+                           // Lazy: the guard's services reach the broker channel this configuration creates
+                           @Lazy ChatSubscriptionGuard subscriptionGuard) {
         this.jwtUtil = jwtUtil;
         this.userDetailsService = userDetailsService;
+        this.messageBus = messageBus;
+        this.brokerMode = brokerMode;
+        this.flowControl = flowControl;
+        this.payloadCodec = payloadCodec;
+        this.subscriptionGuard = subscriptionGuard;
     }
 
     @Override
     public void configureMessageBroker(MessageBrokerRegistry config) {
         // Enable a simple in-memory message broker with "/topic" prefix
-        config.enableSimpleBroker("/topic");
+        // "/queue" carries per-user pushes such as /user/queue/notifications
+        config.enableSimpleBroker("/topic", "/queue");
         // Set application destination prefix for @MessageMapping
         config.setApplicationDestinationPrefixes("/app");
         // Explicit user destination prefix for convertAndSendToUser
         config.setUserDestinationPrefix("/user");
+        // Frames reach each session in publish order; flow control buffers them so a slow client holds no thread
+        config.setPreservePublishOrder(true);
+
+        if ("postgres".equals(brokerMode)) {
+            config.configureBrokerChannel().interceptors(new ChannelInterceptor() {
+                @Override
+                public Message<?> preSend(Message<?> message, MessageChannel channel) {
+                    return messageBus.getObject().relay(message);
+                }
+            });
+        }
     }
 
     @Override
     public void registerStompEndpoints(StompEndpointRegistry registry) {
+        // Frames from one session reach the inbound handlers in order; ChatDispatcher keeps that order per channel
+        registry.setPreserveReceiveOrder(true);
         // Register STOMP endpoint at /ws/chat with SockJS fallback
         registry.addEndpoint("/ws/chat")
                 .setAllowedOriginPatterns("*")
                 .withSockJS();
+        // Plain WebSocket for clients that need no fallback; only these sessions can use binary payloads
+        registry.addEndpoint("/ws/chat-native")
+                .setAllowedOriginPatterns("*")
+                .addInterceptors(new HandshakeInterceptor() {
+                    @Override
+                    public boolean beforeHandshake(ServerHttpRequest request, ServerHttpResponse response,
+                                                   WebSocketHandler wsHandler, Map<String, Object> attributes) {
+                        attributes.put(StompPayloadCodec.BINARY_CAPABLE_ATTRIBUTE, Boolean.TRUE);
+                        return true;
+                    }
+
+                    @Override
+                    public void afterHandshake(ServerHttpRequest request, ServerHttpResponse response,
+                                               WebSocketHandler wsHandler, Exception exception) {
+                    }
+                });
+    }
+
+    @Override
+    public boolean configureMessageConverters(List<MessageConverter> messageConverters) {
+        messageConverters.add(payloadCodec.inboundConverter());
+        // Keep the default converters (JSON, String, byte[]) after it
+        return true;
+    }
+
+    @Override
+    public void configureWebSocketTransport(WebSocketTransportRegistration registration) {
+        registration.setSendTimeLimit(flowControl.getSendTimeLimitMs())
+                .setSendBufferSizeLimit(flowControl.getSendBufferSizeLimit())
+                .addDecoratorFactory(flowControl);
+    }
+
+    @Override
+    public void configureClientOutboundChannel(ChannelRegistration registration) {
+        int poolSize = poolSize(outboundPoolSize);
+        registration.taskExecutor()
+                .corePoolSize(poolSize)
+                .maxPoolSize(poolSize)
+                .queueCapacity(outboundQueueCapacity);
+        registration.interceptors(flowControl, payloadCodec);
     }
 
     @Override
     public void configureClientInboundChannel(ChannelRegistration registration) {
+        int poolSize = poolSize(inboundPoolSize);
+        registration.taskExecutor()
+                .corePoolSize(poolSize)
+                .maxPoolSize(poolSize)
+                .queueCapacity(inboundQueueCapacity);
+
         // Add interceptor for JWT authentication on WebSocket handshake
-        registration.interceptors(new ChannelInterceptor() {
+        registration.interceptors(payloadCodec, new ChannelInterceptor() {
             @Override
             public Message<?> preSend(Message<?> message, MessageChannel channel) {
                 StompHeaderAccessor accessor = MessageHeaderAccessor.getAccessor(message, StompHeaderAccessor.class);
@@ -127,6 +238,10 @@ public class WebSocketConfig implements WebSocketMessageBrokerConfigurer {
                 
                 return message;
             }
-        });
+        }, subscriptionGuard);
+    }
+
+    private static int poolSize(int configured) {
+        return configured > 0 ? configured : Runtime.getRuntime().availableProcessors() * 2;
     }
 }
@@ -0,0 +1,529 @@
+package com.example.webapp.config;
+
+import com.example.webapp.service.PresenceService;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.support.ChannelInterceptor;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.util.AntPathMatcher;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketHandler;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.adapter.NativeWebSocketSession;
+import org.springframework.web.socket.handler.WebSocketHandlerDecorator;
+import org.springframework.web.socket.handler.WebSocketHandlerDecoratorFactory;
+import org.springframework.web.socket.handler.WebSocketSessionDecorator;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Outbound flow control for WebSocket sessions.
+ * Frames are handed to the session in publish order one at a time, so a client
+ * that reads slowly would otherwise hold an outbound thread on every write while
+ * the rest of its frames pile up unbounded ahead of it. Instead each session
+ * buffers its frames here and a task on the outbound executor writes them to the
+ * socket. Once a session's buffer passes drop-threshold of the buffer limit, frames
+ * to droppable destinations (presence, typing) are no longer sent to it; when the
+ * buffer reaches the limit, or one write has been blocked for the send time limit,
+ * the session is closed with code 4008. A blocked write fails once it has waited the send
+ * time limit, and one flush gives its thread back after flush-time-slice-ms so other
+ * sessions are not held up; closes run on their own small pool, never behind blocked
+ * writes. The close reason carries a resume token
+ * naming the last notification and, per chat channel, the last chat message written
+ * to the client, e.g. "slow-consumer notifications=45 chat=team/1:500,task/7:300", so it
+ * can reconnect and catch up. A close reason holds at most 123 bytes; channels that do
+ * not fit (least recently active first) are left out and are rejoined without a resume id.
+ */
+@Component
+@Slf4j
+@ManagedResource(objectName = "webapp:type=WebSocketFlowControl", description = "WebSocket outbound flow control")
+public class WebSocketFlowControl implements ChannelInterceptor, WebSocketHandlerDecoratorFactory {
+
+    /**
+     * Native header carrying the message id on chat broadcasts
+     */
+    public static final String CHAT_MESSAGE_ID_HEADER = "chat-message-id";
+
+    /**
+     * WebSocket close reasons are limited to 123 bytes (the token is ASCII)
+     */
+    private static final int MAX_CLOSE_REASON_LENGTH = 123;
+
+    /**
+     * Native header carrying the notification id on notification pushes
+     */
+    public static final String NOTIFICATION_ID_HEADER = "notification-id";
+
+    public static final int SLOW_CONSUMER_CLOSE_CODE = 4008;
+
+    /**
+     * Bounds the per-channel metrics; channels beyond this are not tracked
+     */
+    private static final int MAX_TRACKED_CHANNELS = 10_000;
+
+    /**
+     * Frame headers are looked up in this many leading bytes only
+     */
+    private static final int HEADER_SCAN_LIMIT = 1024;
+
+    /**
+     * Tomcat's per-session timeout for blocking writes (default 20 s)
+     */
+    private static final String BLOCKING_SEND_TIMEOUT_PROPERTY = "org.apache.tomcat.websocket.BLOCKING_SEND_TIMEOUT";
+
+    @Value("${app.websocket.send-time-limit-ms:5000}")
+    private int sendTimeLimitMs;
+
+    @Value("${app.websocket.send-buffer-size-limit:262144}")
+    private int sendBufferSizeLimit;
+
+    @Value("${app.websocket.slow-consumer.drop-threshold:0.25}")
+    private double dropThreshold;
+
+    @Value("${app.websocket.slow-consumer.droppable-destinations:/topic/presence/**,/topic/typing/**}")
+    private List<String> droppableDestinations;
+
+    @Value("${app.websocket.slow-consumer.close-threads:2}")
+    private int closeThreads;
+
+    /**
+     * A flush with frames left after this long requeues itself behind other sessions' flushes
+     */
+    @Value("${app.websocket.flush-time-slice-ms:100}")
+    private long flushTimeSliceMs;
+
+    @Autowired
+    @Qualifier("clientOutboundChannelExecutor")
+    @Lazy
+    private TaskExecutor outboundExecutor;
+
+    private ExecutorService closeExecutor;
+
+    private final AntPathMatcher pathMatcher = new AntPathMatcher();
+
+    private final Map<String, SessionFlow> sessions = new ConcurrentHashMap<>();
+
+    private final Map<String, ChannelStats> channels = new ConcurrentHashMap<>();
+
+    private final AtomicLong droppedFrames = new AtomicLong();
+    private final AtomicLong slowConsumerDisconnects = new AtomicLong();
+
+    @PostConstruct
+    public void start() {
+        AtomicInteger threadIndex = new AtomicInteger();
+        closeExecutor = Executors.newFixedThreadPool(closeThreads, task -> {
+            Thread thread = new Thread(task, "ws-slow-consumer-close-" + threadIndex.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    public void stop() {
+        closeExecutor.shutdownNow();
+    }
+
+    public int getSendTimeLimitMs() {
+        return sendTimeLimitMs;
+    }
+
+    public int getSendBufferSizeLimit() {
+        return sendBufferSizeLimit;
+    }
+
+    /**
+     * Wrap each new session so its frames are buffered and written by flow control
+     */
+    @Override
+    public WebSocketHandler decorate(WebSocketHandler handler) {
+        return new WebSocketHandlerDecorator(handler) {
+            @Override
+            public void afterConnectionEstablished(WebSocketSession session) throws Exception {
+                limitBlockingWrites(session);
+                SessionFlow flow = new SessionFlow(session);
+                sessions.put(session.getId(), flow);
+                super.afterConnectionEstablished(flow);
+            }
+
+            @Override
+            public void afterConnectionClosed(WebSocketSession session, CloseStatus closeStatus) throws Exception {
+                SessionFlow flow = sessions.remove(session.getId());
+                if (flow != null) {
+                    flow.clear();
+                }
+                super.afterConnectionClosed(session, closeStatus);
+            }
+        };
+    }
+
+    /**
+     * Decide on an outbound frame before it is queued for its session
+     */
+    @Override
+    public Message<?> preSend(Message<?> message, MessageChannel channel) {
+        String sessionId = SimpMessageHeaderAccessor.getSessionId(message.getHeaders());
+        SessionFlow flow = sessionId != null ? sessions.get(sessionId) : null;
+        if (flow == null) {
+            return message;
+        }
+        if (flow.closing.get()) {
+            return null;
+        }
+
+        String destination = SimpMessageHeaderAccessor.getDestination(message.getHeaders());
+        ChannelStats stats = channelStats(destination);
+        long buffered = flow.bufferedBytes.get();
+        if (buffered >= sendBufferSizeLimit || flow.blockedMillis() >= sendTimeLimitMs) {
+            drop(flow, stats);
+            disconnect(flow);
+            return null;
+        }
+        if (buffered >= sendBufferSizeLimit * dropThreshold && destination != null && isDroppable(destination)) {
+            drop(flow, stats);
+            return null;
+        }
+        if (stats != null) {
+            stats.sent.incrementAndGet();
+        }
+        return message;
+    }
+
+    /**
+     * Close sessions whose current write has been blocked for the send time limit;
+     * they receive no new frames that would notice it
+     */
+    @Scheduled(fixedDelayString = "${app.websocket.slow-consumer.check-interval-ms:1000}")
+    public void closeBlockedSessions() {
+        for (SessionFlow flow : sessions.values()) {
+            if (flow.blockedMillis() >= sendTimeLimitMs) {
+                disconnect(flow);
+            }
+        }
+    }
+
+    @ManagedAttribute(description = "Open WebSocket sessions")
+    public int getSessionCount() {
+        return sessions.size();
+    }
+
+    @ManagedAttribute(description = "Bytes waiting to be written, over all sessions")
+    public long getBufferedBytes() {
+        return sessions.values().stream().mapToLong(f -> f.bufferedBytes.get()).sum();
+    }
+
+    @ManagedAttribute(description = "Frames not sent to slow consumers since startup")
+    public long getDroppedFrames() {
+        return droppedFrames.get();
+    }
+
+    @ManagedAttribute(description = "Sessions closed as slow consumers since startup")
+    public long getSlowConsumerDisconnects() {
+        return slowConsumerDisconnects.get();
+    }
+
+    @ManagedAttribute(description = "Buffered, sent and dropped frames per session")
+    public Map<String, String> getSessionStats() {
+        Map<String, String> stats = new TreeMap<>();
+        sessions.forEach((id, flow) -> stats.put(id, flow.describe()));
+        return stats;
+    }
+
+    @ManagedAttribute(description = "Sent and dropped frames per topic")
+    public Map<String, String> getChannelStats() {
+        Map<String, String> stats = new TreeMap<>();
+        channels.forEach((destination, channel) -> stats.put(destination,
+                "sent=" + channel.sent.get() + " dropped=" + channel.dropped.get()));
+        return stats;
+    }
+
+    private void drop(SessionFlow flow, ChannelStats stats) {
+        droppedFrames.incrementAndGet();
+        flow.droppedFrames.incrementAndGet();
+        if (stats != null) {
+            stats.dropped.incrementAndGet();
+        }
+    }
+
+    private void disconnect(SessionFlow flow) {
+        if (!flow.closing.compareAndSet(false, true)) {
+            return;
+        }
+        slowConsumerDisconnects.incrementAndGet();
+        String reason = flow.resumeToken();
+        log.warn("Closing slow WebSocket session {} ({}): {}", flow.getId(), reason, flow.describe());
+        flow.clear();
+        // Closing may wait for the blocked write, so keep it off the caller's thread and the outbound executor
+        closeExecutor.execute(() -> {
+            try {
+                flow.getDelegate().close(new CloseStatus(SLOW_CONSUMER_CLOSE_CODE, reason));
+            } catch (IOException | RuntimeException e) {
+                log.debug("Failed to close slow WebSocket session {}: {}", flow.getId(), e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Make a write to a client that stops reading fail after the send time limit instead of
+     * Tomcat's default, so it cannot hold an outbound thread longer than that
+     */
+    private void limitBlockingWrites(WebSocketSession session) {
+        if (session instanceof NativeWebSocketSession nativeSession
+                && nativeSession.getNativeSession() instanceof jakarta.websocket.Session webSocket) {
+            webSocket.getUserProperties().put(BLOCKING_SEND_TIMEOUT_PROPERTY, (long) sendTimeLimitMs);
+        }
+    }
+
+    private ChannelStats channelStats(String destination) {
+        if (destination == null || !destination.startsWith("/topic/")) {
+            return null;
+        }
+        ChannelStats stats = channels.get(destination);
+        if (stats == null && channels.size() < MAX_TRACKED_CHANNELS) {
+            stats = channels.computeIfAbsent(destination, d -> new ChannelStats());
+        }
+        return stats;
+    }
+
+    private boolean isDroppable(String destination) {
+        for (String pattern : droppableDestinations) {
+            if (pathMatcher.match(pattern, destination)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Value of a STOMP header in an encoded frame, or null
+     */
+    private static String frameHeader(WebSocketMessage<?> message, String name) {
+        String frame;
+        if (message instanceof TextMessage text) {
+            String payload = text.getPayload();
+            frame = payload.length() > HEADER_SCAN_LIMIT ? payload.substring(0, HEADER_SCAN_LIMIT) : payload;
+        } else if (message instanceof BinaryMessage binary) {
+            byte[] bytes = new byte[Math.min(binary.getPayloadLength(), HEADER_SCAN_LIMIT)];
+            binary.getPayload().duplicate().get(bytes);
+            frame = new String(bytes, StandardCharsets.UTF_8);
+        } else {
+            return null;
+        }
+        int end = frame.indexOf("\n\n");
+        int start = frame.indexOf("\n" + name + ":");
+        if (start < 0 || (end >= 0 && start > end)) {
+            return null;
+        }
+        start += name.length() + 2;
+        int lineEnd = frame.indexOf('\n', start);
+        return frame.substring(start, lineEnd >= 0 ? lineEnd : frame.length()).trim();
+    }
+
+    private static long parseId(String value) {
+        try {
+            return value != null ? Long.parseLong(value) : 0L;
+        } catch (NumberFormatException e) {
+            return 0L;
+        }
+    }
+
+    /**
+     * A session as seen by Spring's STOMP handler: sends are buffered in order and
+     * written to the socket by a task on the outbound executor
+     */
+    private final class SessionFlow extends WebSocketSessionDecorator {
+
+        private final Queue<WebSocketMessage<?>> buffer = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean flushing = new AtomicBoolean();
+        private final AtomicLong bufferedBytes = new AtomicLong();
+        private final AtomicInteger bufferedFrames = new AtomicInteger();
+        private final AtomicLong sentFrames = new AtomicLong();
+        private final AtomicLong droppedFrames = new AtomicLong();
+        private final AtomicBoolean closing = new AtomicBoolean();
+        private final AtomicReference<CloseStatus> pendingClose = new AtomicReference<>();
+        private volatile long sendStartedAt;
+        private volatile long maxSendMillis;
+        /**
+         * Last chat message id written, by channel ("type/id")
+         */
+        private final Map<String, Long> lastChatMessageIds = new ConcurrentHashMap<>();
+        private volatile long lastNotificationId;
+
+        SessionFlow(WebSocketSession session) {
+            super(session);
+        }
+
+        long blockedMillis() {
+            long startedAt = sendStartedAt;
+            return startedAt > 0 ? System.currentTimeMillis() - startedAt : 0;
+        }
+
+        @Override
+        public void sendMessage(WebSocketMessage<?> message) {
+            if (closing.get()) {
+                return;
+            }
+            buffer.add(message);
+            bufferedBytes.addAndGet(message.getPayloadLength());
+            bufferedFrames.incrementAndGet();
+            scheduleFlush();
+        }
+
+        /**
+         * Close once the frames sent before (e.g. an ERROR frame or a receipt) are written
+         */
+        @Override
+        public void close(CloseStatus status) {
+            pendingClose.compareAndSet(null, status);
+            scheduleFlush();
+        }
+
+        private void scheduleFlush() {
+            if ((buffer.isEmpty() && pendingClose.get() == null) || !flushing.compareAndSet(false, true)) {
+                return;
+            }
+            try {
+                outboundExecutor.execute(this::flush);
+            } catch (RuntimeException e) {
+                flushing.set(false);
+                throw e;
+            }
+        }
+
+        private void flush() {
+            long sliceEnd = System.currentTimeMillis() + flushTimeSliceMs;
+            try {
+                WebSocketMessage<?> message;
+                while ((message = buffer.poll()) != null) {
+                    removed(message);
+                    if (closing.get()) {
+                        // Dropped as a slow consumer; the resume token has been taken already
+                        clear();
+                        break;
+                    }
+                    write(message);
+                    if (System.currentTimeMillis() >= sliceEnd) {
+                        // The rest is written by a fresh task queued behind other sessions
+                        break;
+                    }
+                }
+                CloseStatus status = buffer.isEmpty() ? pendingClose.getAndSet(null) : null;
+                if (status != null) {
+                    getDelegate().close(status);
+                }
+            } catch (IOException | RuntimeException e) {
+                log.debug("Write to WebSocket session {} failed: {}", getId(), e.getMessage());
+                clear();
+            } finally {
+                flushing.set(false);
+            }
+            // A frame may have been added after the buffer was found empty
+            scheduleFlush();
+        }
+
+        private void write(WebSocketMessage<?> message) throws IOException {
+            long startedAt = System.currentTimeMillis();
+            sendStartedAt = startedAt;
+            try {
+                getDelegate().sendMessage(message);
+            } catch (IOException e) {
+                if (System.currentTimeMillis() - startedAt >= sendTimeLimitMs) {
+                    // The write timed out: close as a slow consumer so the client gets its resume token
+                    disconnect(this);
+                }
+                throw e;
+            } finally {
+                sendStartedAt = 0;
+                long elapsed = System.currentTimeMillis() - startedAt;
+                if (elapsed > maxSendMillis) {
+                    maxSendMillis = elapsed;
+                }
+            }
+            sentFrames.incrementAndGet();
+            long chatMessageId = parseId(frameHeader(message, CHAT_MESSAGE_ID_HEADER));
+            if (chatMessageId > 0) {
+                String destination = frameHeader(message, "destination");
+                if (destination != null && destination.startsWith(PresenceService.CHAT_TOPIC_PREFIX)) {
+                    lastChatMessageIds.merge(destination.substring(PresenceService.CHAT_TOPIC_PREFIX.length()),
+                            chatMessageId, Math::max);
+                }
+            }
+            long notificationId = parseId(frameHeader(message, NOTIFICATION_ID_HEADER));
+            if (notificationId > lastNotificationId) {
+                lastNotificationId = notificationId;
+            }
+        }
+
+        void clear() {
+            closing.set(true);
+            WebSocketMessage<?> message;
+            while ((message = buffer.poll()) != null) {
+                removed(message);
+            }
+        }
+
+        private void removed(WebSocketMessage<?> message) {
+            bufferedBytes.addAndGet(-message.getPayloadLength());
+            bufferedFrames.decrementAndGet();
+        }
+
+        String resumeToken() {
+            StringBuilder token = new StringBuilder("slow-consumer");
+            if (lastNotificationId > 0) {
+                token.append(" notifications=").append(lastNotificationId);
+            }
+            String separator = " chat=";
+            List<Map.Entry<String, Long>> channels = new ArrayList<>(lastChatMessageIds.entrySet());
+            channels.sort(Map.Entry.<String, Long>comparingByValue().reversed());
+            for (Map.Entry<String, Long> channel : channels) {
+                String entry = separator + channel.getKey() + ":" + channel.getValue();
+                if (token.length() + entry.length() > MAX_CLOSE_REASON_LENGTH) {
+                    break;
+                }
+                token.append(entry);
+                separator = ",";
+            }
+            return token.toString();
+        }
+
+        String describe() {
+            return "buffered=" + bufferedFrames.get() + "/" + bufferedBytes.get() + "B"
+                    + " sent=" + sentFrames.get()
+                    + " dropped=" + droppedFrames.get()
+                    + " maxSendMs=" + maxSendMillis;
+        }
+    }
+
+    private static final class ChannelStats {
+        private final AtomicLong sent = new AtomicLong();
+        private final AtomicLong dropped = new AtomicLong();
+    }
+}
@@ -1,18 +1,35 @@
 package com.example.webapp.controller;
 
+import com.example.webapp.config.WebSocketFlowControl;
+import com.example.webapp.dto.ChatHistoryResponse;
+import com.example.webapp.dto.ChatSearchHit;
+import com.example.webapp.dto.ChatSearchResponse;
 import com.example.webapp.dto.MessageResponse;
+import com.example.webapp.dto.PresenceResponse;
 import com.example.webapp.dto.SendMessageRequest;
 import com.example.webapp.entity.Message;
+import com.example.webapp.repository.MessageRepository;
+import com.example.webapp.service.ChatDispatcher;
+import com.example.webapp.service.ChatSearchService;
 import com.example.webapp.service.ChatService;
+import com.example.webapp.service.ChatAuthorizationService;
+import com.example.webapp.service.PresenceService;
 import jakarta.validation.Valid;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Slice;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
 import org.springframework.security.core.Authentication;
 import org.springframework.web.bind.annotation.*;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
 /**
  * REST controller for chat message operations (fallback for non-WebSocket clients)
  */
@@ -20,9 +37,30 @@ import org.springframework.web.bind.annotation.*;
 @RequestMapping("/api/chat")
 @Slf4j
 public class ChatController {
+
+    private static final int MAX_HISTORY_LIMIT = 100;
+
+    private static final int MAX_SEARCH_LIMIT = 50;
+
+    private static final int MAX_SEARCH_QUERY_LENGTH = 200;
     
     @Autowired
     private ChatService chatService;
+
+    @Autowired
+    private ChatSearchService chatSearchService;
+
+    @Autowired
+    private ChatDispatcher chatDispatcher;
+
+    @Autowired
+    private PresenceService presenceService;
+
+    @Autowired
+    private ChatAuthorizationService chatAuthorizationService;
+
+    @Autowired
+    private SimpMessagingTemplate messagingTemplate;
     
     /**
      * Get message history for a channel
@@ -70,6 +108,146 @@ public class ChatController {
         }
     }
     
+    /**
+     * Get message history older than a message (keyset pagination)
+     * GET /api/chat/{channelType}/{channelId}/history?before=456&limit=50
+     * Each page costs the same however far back it is; pass nextBeforeId as before for the next page
+     *
+     * @param channelType Type of channel ("team" or "task")
+     * @param channelId ID of the team or task
+     * @param before Only return messages older than this message id (omit for the newest messages)
+     * @param limit Maximum number of messages (default: 50, max: 100)
+     * @param authentication Spring Security authentication
+     * @return History page, oldest message first
+     */
+    @GetMapping("/{channelType}/{channelId}/history")
+    public ResponseEntity<ChatHistoryResponse> getHistory(
+            @PathVariable String channelType,
+            @PathVariable Long channelId,
+            @RequestParam(required = false) Long before,
+            @RequestParam(defaultValue = "50") int limit,
+            Authentication authentication) {
+
+        String userEmail = authentication.getName();
+        log.info("GET /api/chat/{}/{}/history - User: {}, Before: {}, Limit: {}",
+                channelType, channelId, userEmail, before, limit);
+
+        try {
+            Slice<Message> page = chatService.getMessageHistoryBefore(channelType, channelId, userEmail,
+                    before, Math.max(1, Math.min(limit, MAX_HISTORY_LIMIT)));
+
+            List<MessageResponse> messages = new ArrayList<>(page.getNumberOfElements());
+            for (Message msg : page) {
+                messages.add(MessageResponse.builder()
+                        .id(String.valueOf(msg.getId()))
+                        .senderId(msg.getSenderId() != null ? String.valueOf(msg.getSenderId()) : null)
+                        .senderEmail(msg.getSender() != null ? msg.getSender().getEmail() : null)
+                        .senderName(msg.getSender() != null ? msg.getSender().getName() : "Unknown")
+                        .text(msg.getContent())
+                        .createdAt(msg.getCreatedAt())
+                        .build());
+            }
+            Collections.reverse(messages);
+
+            Message oldest = page.isEmpty() ? null : page.getContent().get(page.getNumberOfElements() - 1);
+            return ResponseEntity.ok(ChatHistoryResponse.builder()
+                    .channelType(channelType)
+                    .channelId(String.valueOf(channelId))
+                    .messages(messages)
+                    .hasMore(page.hasNext())
+                    .nextBeforeId(page.hasNext() && oldest != null ? String.valueOf(oldest.getId()) : null)
+                    .build());
+
+        } catch (IllegalArgumentException e) {
+            log.error("Access denied: {}", e.getMessage());
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+        }
+    }
+
+    /**
+     * Search chat messages in the channels the user can access
+     * GET /api/chat/search?q=deploy&channelType=team&channelId=1&before=123&limit=20
+     *
+     * @param q Search terms; "quoted phrases", or and -word are supported
+     * @param channelType Only search this channel type (optional)
+     * @param channelId Only search this channel (optional)
+     * @param before Only return messages older than this message id (omit for the newest hits)
+     * @param limit Maximum number of hits (default: 20, max: 50)
+     * @param authentication Spring Security authentication
+     * @return Hits with snippets, newest first
+     */
+    @GetMapping("/search")
+    public ResponseEntity<ChatSearchResponse> search(
+            @RequestParam String q,
+            @RequestParam(required = false) String channelType,
+            @RequestParam(required = false) Long channelId,
+            @RequestParam(required = false) Long before,
+            @RequestParam(defaultValue = "20") int limit,
+            Authentication authentication) {
+
+        String userEmail = authentication.getName();
+        if (q.isBlank() || q.length() > MAX_SEARCH_QUERY_LENGTH) {
+            return ResponseEntity.badRequest().build();
+        }
+        log.info("GET /api/chat/search - User: {}, Channel: {}/{}, Before: {}", userEmail, channelType, channelId, before);
+
+        int pageSize = Math.max(1, Math.min(limit, MAX_SEARCH_LIMIT));
+        List<MessageRepository.SearchHit> rows = chatSearchService.search(userEmail, q.trim(), channelType, channelId,
+                before, pageSize);
+        boolean hasMore = rows.size() > pageSize;
+        List<ChatSearchHit> hits = new ArrayList<>(Math.min(rows.size(), pageSize));
+        for (MessageRepository.SearchHit row : rows.subList(0, Math.min(rows.size(), pageSize))) {
+            hits.add(ChatSearchHit.builder()
+                    .id(String.valueOf(row.getId()))
+                    .channelType(row.getChannelType())
+                    .channelId(String.valueOf(row.getChannelId()))
+                    .senderId(row.getSenderId() != null ? String.valueOf(row.getSenderId()) : null)
+                    .senderEmail(row.getSenderEmail())
+                    .senderName(row.getSenderName() != null ? row.getSenderName() : "Unknown")
+                    .snippet(row.getSnippet())
+                    .createdAt(row.getCreatedAt())
+                    .build());
+        }
+        return ResponseEntity.ok(ChatSearchResponse.builder()
+                .hits(hits)
+                .hasMore(hasMore)
+                .nextBeforeId(hasMore ? hits.get(hits.size() - 1).getId() : null)
+                .build());
+    }
+
+    /**
+     * Get the users online in a channel on this node
+     * GET /api/chat/{channelType}/{channelId}/presence
+     * Access is checked first (answered from the user's recent grants when they have one)
+     *
+     * @param channelType Type of channel ("team" or "task")
+     * @param channelId ID of the team or task
+     * @param authentication Spring Security authentication
+     * @return Online users
+     */
+    @GetMapping("/{channelType}/{channelId}/presence")
+    public ResponseEntity<PresenceResponse> getPresence(
+            @PathVariable String channelType,
+            @PathVariable Long channelId,
+            Authentication authentication) {
+
+        String userEmail = authentication.getName();
+        try {
+            chatAuthorizationService.authorize(null, null, channelType, channelId, userEmail);
+        } catch (IllegalArgumentException e) {
+            log.error("Access denied: {}", e.getMessage());
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+        }
+
+        List<String> online = presenceService.getOnlineUsers(channelType, channelId);
+        return ResponseEntity.ok(PresenceResponse.builder()
+                .channelType(channelType)
+                .channelId(String.valueOf(channelId))
+                .online(online)
+                .onlineCount(online.size())
+                .build());
+    }
+    
     /**
      * Send a message to a channel (REST fallback)
      * POST /api/chat/{channelType}/{channelId}
@@ -92,24 +270,37 @@ public class ChatController {
                 channelType, channelId, userEmail, request.getText().length());
         
         try {
-            Message message = chatService.saveMessage(channelType, channelId, userEmail, request.getText());
-            
-            MessageResponse response = MessageResponse.builder()
-                    .id(message.getId() != null ? String.valueOf(message.getId()) : null)
-                    .channelType(message.getChannelType())
-                    .channelId(message.getChannelId() != null ? String.valueOf(message.getChannelId()) : null)
-                    .senderId(message.getSenderId() != null ? String.valueOf(message.getSenderId()) : null)
-                    .senderEmail(message.getSender() != null ? message.getSender().getEmail() : userEmail)
-                    .senderName(message.getSender() != null ? message.getSender().getName() : "Unknown")
-                    .text(message.getContent())
-                    .createdAt(message.getCreatedAt())
-                    .build();
-            
+            // Saved and broadcast on the channel's lane, in order with messages sent over STOMP
+            MessageResponse response = chatDispatcher.call(channelType, channelId,
+                    () -> saveAndBroadcast(channelType, channelId, userEmail, request.getText()));
             return ResponseEntity.status(HttpStatus.CREATED).body(response);
             
         } catch (IllegalArgumentException e) {
             log.error("Access denied or invalid request: {}", e.getMessage());
             return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+        } catch (IllegalStateException e) {
+            log.warn("Message from {} not accepted: {}", userEmail, e.getMessage());
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).build();
         }
     }
+
+    private MessageResponse saveAndBroadcast(String channelType, Long channelId, String userEmail, String text) {
+        Message message = chatService.saveMessage(channelType, channelId, userEmail, text);
+
+        MessageResponse response = MessageResponse.builder()
+                .id(message.getId() != null ? String.valueOf(message.getId()) : null)
+                .channelType(message.getChannelType())
+                .channelId(message.getChannelId() != null ? String.valueOf(message.getChannelId()) : null)
+                .senderId(message.getSenderId() != null ? String.valueOf(message.getSenderId()) : null)
+                .senderEmail(message.getSender() != null ? message.getSender().getEmail() : userEmail)
+                .senderName(message.getSender() != null ? message.getSender().getName() : "Unknown")
+                .text(message.getContent())
+                .createdAt(message.getCreatedAt())
+                .build();
+
+        // Deliver to WebSocket members (and the history cache) like a message sent over STOMP
+        messagingTemplate.convertAndSend("/topic/chat/" + channelType + "/" + channelId, response,
+                Map.of(WebSocketFlowControl.CHAT_MESSAGE_ID_HEADER, response.getId()));
+        return response;
+    }
 }
@@ -28,6 +28,8 @@ import java.util.List;
 @RequestMapping("/api/tasks")
 @Slf4j
 public class CommentController {
+
+    private static final int MAX_THREAD_LIMIT = 50;
     
     @Autowired
     private CommentService commentService;
@@ -99,14 +101,13 @@ public class CommentController {
             String userEmail = authentication.getName();
             log.info("User {} fetching comments for task {}", userEmail, id);
             
-            User user = userRepository.findByEmail(userEmail)
-                    .orElseThrow(() -> new IllegalArgumentException("User not found"));
-            
-            // Check permission
-            Task task = taskRepository.findById(id)
-                    .orElseThrow(() -> new IllegalArgumentException("Task not found"));
+            // Check permission (task and membership in one query)
+            Boolean allowed = commentService.canReadComments(id, userEmail);
+            if (allowed == null) {
+                throw new IllegalArgumentException("Task not found");
+            }
             
-            if (!permissionService.isProjectMember(task.getProjectId(), user.getId())) {
+            if (!allowed) {
                 log.warn("User {} unauthorized to view comments on task {}", userEmail, id);
                 return ResponseEntity.status(HttpStatus.FORBIDDEN)
                         .body("You must be a project member to view comments");
@@ -134,6 +135,48 @@ public class CommentController {
         }
     }
     
+    /**
+     * Get a page of root comments with their replies nested
+     * GET /api/tasks/{id}/comments/thread
+     * Optional query params: limit (root comments, default 20, max 50), cursor (nextCursor of the previous page),
+     * parentId (page the replies of that comment, e.g. one marked hasMoreReplies, instead of the top-level comments)
+     */
+    @GetMapping("/{id}/comments/thread")
+    public ResponseEntity<?> getCommentThread(
+            @PathVariable Long id,
+            @RequestParam(defaultValue = "20") int limit,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(required = false) Long parentId,
+            Authentication authentication) {
+
+        try {
+            String userEmail = authentication.getName();
+            log.info("User {} fetching comment thread for task {}", userEmail, id);
+
+            // Task and membership in one query
+            Boolean allowed = commentService.canReadComments(id, userEmail);
+            if (allowed == null) {
+                throw new IllegalArgumentException("Task not found");
+            }
+            if (!allowed) {
+                log.warn("User {} unauthorized to view comments on task {}", userEmail, id);
+                return ResponseEntity.status(HttpStatus.FORBIDDEN)
+                        .body("You must be a project member to view comments");
+            }
+
+            int pageSize = Math.max(1, Math.min(limit, MAX_THREAD_LIMIT));
+            return ResponseEntity.ok(commentService.getThread(id, parentId, pageSize, cursor));
+
+        } catch (IllegalArgumentException e) {
+            log.warn("Get comment thread failed: {}", e.getMessage());
+            return ResponseEntity.badRequest().body(e.getMessage());
+        } catch (Exception e) {
+            log.error("Error fetching comment thread", e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body("Failed to fetch comments");
+        }
+    }
+    
     /**
      * Map Comment entity to CommentResponse DTO
      */
@@ -1,10 +1,15 @@
 package com.example.webapp.controller;
 
+import com.example.webapp.dto.NotificationPreferenceRequest;
+import com.example.webapp.dto.NotificationPreferenceResponse;
 import com.example.webapp.dto.NotificationResponse;
 import com.example.webapp.entity.Notification;
+import com.example.webapp.entity.NotificationPreference;
 import com.example.webapp.entity.User;
 import com.example.webapp.repository.UserRepository;
+import com.example.webapp.service.NotificationPreferenceService;
 import com.example.webapp.service.NotificationService;
+import jakarta.validation.Valid;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.domain.Page;
@@ -25,10 +30,13 @@ public class NotificationController {
     @Autowired
     private NotificationService notificationService;
 
+    @Autowired
+    private NotificationPreferenceService notificationPreferenceService;
+
     @Autowired
     private UserRepository userRepository;
 
-    private NotificationResponse toResponse(Notification n) {
+    private NotificationResponse toResponse(Notification n, long readUpToId) {
         return NotificationResponse.builder()
                 .id(n.getId())
                 .type(n.getType())
@@ -37,11 +45,19 @@ public class NotificationController {
                 .referenceId(n.getReferenceId())
                 .referenceType(n.getReferenceType())
                 .secondaryReferenceId(n.getSecondaryReferenceId())
-                .read(n.getRead())
+                .read(NotificationService.isRead(n, readUpToId))
                 .createdAt(n.getCreatedAt())
                 .build();
     }
 
+    private NotificationPreferenceResponse toResponse(NotificationPreference p) {
+        return NotificationPreferenceResponse.builder()
+                .type(p.getType())
+                .projectId(p.getProjectId())
+                .mode(p.getMode().name())
+                .build();
+    }
+
     /**
      * Get all notifications with pagination
      * GET /api/notifications?page=0&size=20
@@ -57,7 +73,8 @@ public class NotificationController {
                 .orElseThrow(() -> new IllegalArgumentException("User not found"));
         
         Page<Notification> notifications = notificationService.getNotifications(user.getId(), page, size);
-        Page<NotificationResponse> response = notifications.map(this::toResponse);
+        long readUpToId = notificationService.getReadUpToId(user.getId());
+        Page<NotificationResponse> response = notifications.map(n -> toResponse(n, readUpToId));
         
         return ResponseEntity.ok(response);
     }
@@ -73,8 +90,9 @@ public class NotificationController {
                 .orElseThrow(() -> new IllegalArgumentException("User not found"));
         
         List<Notification> notifications = notificationService.getRecentNotifications(user.getId());
+        long readUpToId = notificationService.getReadUpToId(user.getId());
         List<NotificationResponse> response = notifications.stream()
-                .map(this::toResponse)
+                .map(n -> toResponse(n, readUpToId))
                 .collect(Collectors.toList());
         
         return ResponseEntity.ok(response);
@@ -127,4 +145,59 @@ public class NotificationController {
         notificationService.markAllAsRead(user.getId());
         return ResponseEntity.ok().build();
     }
+
+    /**
+     * Get notification preferences
+     * GET /api/notifications/preferences
+     */
+    @GetMapping("/preferences")
+    public ResponseEntity<List<NotificationPreferenceResponse>> getPreferences(Authentication authentication) {
+        String userEmail = authentication.getName();
+        User user = userRepository.findByEmail(userEmail)
+                .orElseThrow(() -> new IllegalArgumentException("User not found"));
+
+        List<NotificationPreferenceResponse> response = notificationPreferenceService.getPreferences(user.getId())
+                .stream()
+                .map(this::toResponse)
+                .collect(Collectors.toList());
+
+        return ResponseEntity.ok(response);
+    }
+
+    /**
+     * Set a notification preference for a type, optionally limited to one project
+     * PUT /api/notifications/preferences
+     * Body: { "type": "TASK_CREATED", "projectId": 12, "mode": "OFF" }
+     */
+    @PutMapping("/preferences")
+    public ResponseEntity<NotificationPreferenceResponse> setPreference(
+            @Valid @RequestBody NotificationPreferenceRequest request,
+            Authentication authentication) {
+
+        String userEmail = authentication.getName();
+        User user = userRepository.findByEmail(userEmail)
+                .orElseThrow(() -> new IllegalArgumentException("User not found"));
+
+        NotificationPreference preference = notificationPreferenceService.setPreference(
+                user.getId(), request.getType(), request.getProjectId(), request.getMode());
+        return ResponseEntity.ok(toResponse(preference));
+    }
+
+    /**
+     * Remove a notification preference
+     * DELETE /api/notifications/preferences?type=TASK_CREATED&projectId=12
+     */
+    @DeleteMapping("/preferences")
+    public ResponseEntity<Void> removePreference(
+            @RequestParam String type,
+            @RequestParam(required = false) Long projectId,
+            Authentication authentication) {
+
+        String userEmail = authentication.getName();
+        User user = userRepository.findByEmail(userEmail)
+                .orElseThrow(() -> new IllegalArgumentException("User not found"));
+
+        notificationPreferenceService.removePreference(user.getId(), type, projectId);
+        return ResponseEntity.noContent().build();
+    }
 }
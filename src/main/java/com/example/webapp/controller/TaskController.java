@@ -383,6 +383,9 @@ public class TaskController {
                         java.util.Collections.emptyList())
                 .createdAt(task.getCreatedAt())
                 .updatedAt(task.getUpdatedAt())
+                .commentCount(task.getCommentCount())
+                .messageCount(task.getMessageCount())
+                .lastActivityAt(task.getLastActivityAt())
                 .isOverdue(taskService.isOverdue(task))
                 .build();
     }
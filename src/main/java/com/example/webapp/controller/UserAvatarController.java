@@ -5,12 +5,15 @@ import com.example.webapp.entity.User;
 import com.example.webapp.entity.UserProfile;
 import com.example.webapp.repository.UserProfileRepository;
 import com.example.webapp.repository.UserRepository;
+import com.example.webapp.service.AvatarVariantService;
 import com.example.webapp.service.StorageService;
 import com.example.webapp.util.FileValidationUtil;
+import org.springframework.core.io.FileSystemResource;
 import org.springframework.http.CacheControl;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
+import org.springframework.http.MediaTypeFactory;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.context.SecurityContextHolder;
@@ -23,6 +26,7 @@ import org.slf4j.LoggerFactory;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.time.Duration;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -32,9 +36,17 @@ public class UserAvatarController {
 
     private static final Logger log = LoggerFactory.getLogger(UserAvatarController.class);
 
+    /**
+     * Cache lifetime for versioned avatar URLs; a new upload gets a new key and so a new URL
+     */
+    private static final Duration VERSIONED_MAX_AGE = Duration.ofDays(365);
+
     @Autowired
     private StorageService storageService;
 
+    @Autowired
+    private AvatarVariantService avatarVariantService;
+
     @Autowired
     private UserProfileRepository userProfileRepository;
 
@@ -70,11 +82,13 @@ public class UserAvatarController {
         String newAvatarKey = storageService.storeFile(file, "avatar", "avatars");
 
         profile.setAvatarPath(newAvatarKey);
+        profile.setAvatarContentType(file.getContentType());
         userProfileRepository.save(profile);
+        avatarVariantService.generate(newAvatarKey);
 
         // Best-effort cleanup
         if (oldAvatarKey != null && !oldAvatarKey.isBlank() && !oldAvatarKey.equals(newAvatarKey)) {
-            storageService.deleteFile(oldAvatarKey);
+            avatarVariantService.delete(oldAvatarKey);
         }
 
         // Return user-like shape expected by frontend
@@ -92,8 +106,8 @@ public class UserAvatarController {
             response.put("email", email);
         }
 
-        // Optional convenience field (not required by Avatar component)
-        response.put("avatarUrl", "/api/users/" + email + "/avatar");
+        // Optional convenience field (not required by Avatar component); versioned, so cacheable for good
+        response.put("avatarUrl", "/api/users/" + email + "/avatar?v=" + avatarVersion(newAvatarKey));
 
         return ResponseEntity.ok(response);
     }
@@ -116,14 +130,28 @@ public class UserAvatarController {
 
         String oldKey = profile.getAvatarPath();
         profile.setAvatarPath(null);
+        profile.setAvatarContentType(null);
         userProfileRepository.save(profile);
 
-        storageService.deleteFile(oldKey);
+        avatarVariantService.delete(oldKey);
         return ResponseEntity.noContent().build();
     }
 
+    /**
+     * Serve a user's avatar from its file (streamed, never read into memory).
+     * With ?size= the smallest thumbnail at least that large is served, or the original until
+     * one exists. The ETag is the served file's name, which changes with every upload, so
+     * If-None-Match gets 304; Range requests get 206. With ?v= matching the current version the
+     * response is cacheable for a year as immutable; otherwise clients must revalidate.
+     */
     @GetMapping("/{email}/avatar")
-    public ResponseEntity<?> getAvatar(@PathVariable String email) {
+    public ResponseEntity<?> getAvatar(@PathVariable String email,
+                                       @RequestParam(value = "v", required = false) String version,
+                                       @RequestParam(value = "size", required = false) Integer size) {
+        if (size != null && size < 1) {
+            return ResponseEntity.badRequest().body(new ErrorResponse("Invalid size"));
+        }
+
         UserProfile profile = userProfileRepository.findByEmail(email)
                 .orElse(null);
 
@@ -132,29 +160,57 @@ public class UserAvatarController {
         }
 
         String key = profile.getAvatarPath();
-        if (!storageService.fileExists(key)) {
+        Path path;
+        try {
+            path = storageService.resolveStorageKey(key);
+        } catch (IllegalArgumentException e) {
+            log.warn("Invalid avatar key for {}: {}", email, key);
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
+        }
+        if (!Files.isRegularFile(path)) {
             return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
         }
 
-        try {
-            Path path = storageService.resolveStorageKey(key);
-            byte[] bytes = Files.readAllBytes(path);
-
-            String contentType = null;
-            try {
-                contentType = Files.probeContentType(path);
-            } catch (IOException ignored) {}
-
-            MediaType mediaType = (contentType != null) ? MediaType.parseMediaType(contentType) : MediaType.APPLICATION_OCTET_STREAM;
-
-            return ResponseEntity.ok()
-                    .cacheControl(CacheControl.noStore())
-                    .header(HttpHeaders.CONTENT_TYPE, mediaType.toString())
-                    .body(bytes);
-        } catch (IOException e) {
-            log.error("Failed to read avatar for {}", email, e);
-            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
-                    .body(new ErrorResponse("Failed to read avatar"));
+        String servedKey = avatarVariantService.resolve(key, size);
+        boolean variant = !servedKey.equals(key);
+        if (variant) {
+            path = storageService.resolveStorageKey(servedKey);
         }
+
+        // The original stands in for a variant that may still be generated, so it must not be cached for good
+        boolean settled = variant || !avatarVariantService.hasVariantSize(size);
+        CacheControl cacheControl = settled && avatarVersion(key).equals(version)
+                ? CacheControl.maxAge(VERSIONED_MAX_AGE).cachePublic().immutable()
+                : CacheControl.noCache().cachePublic();
+
+        return ResponseEntity.ok()
+                .cacheControl(cacheControl)
+                .eTag(avatarVersion(servedKey))
+                .contentType(variant ? mediaTypeOf(path) : avatarMediaType(profile, path))
+                .body(new FileSystemResource(path));
+    }
+
+    /**
+     * Version token of an avatar: the stored file name without its extension (unique per upload)
+     */
+    private static String avatarVersion(String key) {
+        String name = key.substring(key.lastIndexOf('/') + 1);
+        int dot = name.lastIndexOf('.');
+        return dot > 0 ? name.substring(0, dot) : name;
+    }
+
+    /**
+     * Content type recorded at upload; avatars stored before it was recorded go by file extension
+     */
+    private static MediaType avatarMediaType(UserProfile profile, Path path) {
+        if (profile.getAvatarContentType() != null) {
+            return MediaType.parseMediaType(profile.getAvatarContentType());
+        }
+        return mediaTypeOf(path);
+    }
+
+    private static MediaType mediaTypeOf(Path path) {
+        return MediaTypeFactory.getMediaType(path.getFileName().toString())
+                .orElse(MediaType.APPLICATION_OCTET_STREAM);
     }
 }
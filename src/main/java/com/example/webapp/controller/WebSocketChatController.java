@@ -1,30 +1,63 @@
 package com.example.webapp.controller;
 
+import com.example.webapp.config.WebSocketFlowControl;
+import com.example.webapp.dto.ChatHistoryResponse;
 import com.example.webapp.dto.MessageResponse;
 import com.example.webapp.entity.Message;
+import com.example.webapp.service.ChatAuthorizationService;
+import com.example.webapp.service.ChatDispatcher;
+import com.example.webapp.service.ChatHistoryCache;
 import com.example.webapp.service.ChatService;
+import com.example.webapp.service.TypingService;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Slice;
 import org.springframework.messaging.handler.annotation.MessageMapping;
 import org.springframework.messaging.handler.annotation.Payload;
 import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
 import org.springframework.messaging.simp.SimpMessagingTemplate;
 import org.springframework.stereotype.Controller;
 
 import java.security.Principal;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 
 /**
  * WebSocket controller for real-time chat
  * Handles STOMP messages for joining channels and sending messages
+ * Payloads are parsed on the inbound thread; the work itself runs on the channel's
+ * {@link ChatDispatcher} lane, so each channel is handled in order
  */
 @Controller
 @Slf4j
 public class WebSocketChatController {
+
+    /**
+     * User destination for history frames (clients subscribe to /user/queue/chat/history)
+     */
+    public static final String HISTORY_DESTINATION = "/queue/chat/history";
+
+    private static final int DEFAULT_HISTORY_LIMIT = 50;
+
+    private static final int MAX_HISTORY_LIMIT = 100;
     
     @Autowired
     private ChatService chatService;
+
+    @Autowired
+    private ChatAuthorizationService chatAuthorizationService;
+
+    @Autowired
+    private ChatHistoryCache chatHistoryCache;
+
+    @Autowired
+    private ChatDispatcher chatDispatcher;
+
+    @Autowired
+    private TypingService typingService;
     
     @Autowired
     private SimpMessagingTemplate messagingTemplate;
@@ -32,7 +65,14 @@ public class WebSocketChatController {
     /**
      * Handle join channel message
      * Client sends to: /app/chat.join
-     * Message payload: { "channelType": "team", "channelId": "123" }
+     * Message payload: { "channelType": "team", "channelId": "123", "lastSeenMessageId": "456" }
+     * The newest messages are sent back as one ChatHistoryResponse frame on /user/queue/chat/history;
+     * a reconnecting client passes lastSeenMessageId (optional) and gets only the messages after it
+     * (the frame's afterId is set). After a slow-consumer close, use the channel's id from the close
+     * reason's chat=type/id:N,... token as lastSeenMessageId; a channel missing from it is joined without one
+     * Presence is not announced here; it follows the /topic/chat subscription (see PresenceService)
+     * Access is checked here and cached for the session, so later messages skip permission queries
+     * Runs on the channel's lane, so the history frame and later broadcasts arrive in order
      * 
      * @param payload Join message payload
      * @param headerAccessor WebSocket header accessor
@@ -56,85 +96,195 @@ public class WebSocketChatController {
         }
 
         Long channelId;
+        Long lastSeenMessageId;
         try {
             channelId = Long.parseLong(channelIdRaw);
+            lastSeenMessageId = payload.get("lastSeenMessageId") != null
+                    ? Long.parseLong(payload.get("lastSeenMessageId")) : null;
         } catch (NumberFormatException e) {
-            log.warn("WebSocket join rejected: invalid channelId '{}'", channelIdRaw);
+            log.warn("WebSocket join rejected: invalid number in payload {}", payload);
             return;
         }
 
         String userEmail = principal.getName();
         
-        log.info("WebSocket join - User: {}, Channel: {}/{}", userEmail, channelType, channelId);
-        
+        log.info("WebSocket join - User: {}, Channel: {}/{}, Last seen: {}", userEmail, channelType, channelId,
+                lastSeenMessageId);
+
+        String sessionId = headerAccessor.getSessionId();
+        Map<String, Object> sessionAttributes = headerAccessor.getSessionAttributes();
+        dispatch(userEmail, channelType, channelId,
+                () -> joinChannel(userEmail, sessionId, sessionAttributes, channelType, channelId, lastSeenMessageId));
+    }
+
+    private void joinChannel(String userEmail, String sessionId, Map<String, Object> sessionAttributes,
+                             String channelType, Long channelId, Long lastSeenMessageId) {
         try {
-            // Verify access and get recent messages
-            List<Message> recentMessages = chatService.getRecentMessages(channelType, channelId, userEmail);
+            // Verify access (cached for this session) and get recent messages
+            chatAuthorizationService.authorize(sessionId, sessionAttributes, channelType, channelId, userEmail);
             
             // Store channel info in session attributes
-            if (headerAccessor.getSessionAttributes() != null) {
-                headerAccessor.getSessionAttributes().put("channelType", channelType);
-                headerAccessor.getSessionAttributes().put("channelId", channelId);
+            if (sessionAttributes != null) {
+                sessionAttributes.put("channelType", channelType);
+                sessionAttributes.put("channelId", channelId);
             }
             
-            // Send recent messages to the joining user
-            for (Message msg : recentMessages) {
-                MessageResponse response = convertToResponse(msg);
-                messagingTemplate.convertAndSendToUser(
-                    userEmail,
-                    "/topic/chat/" + channelType + "/" + channelId,
-                    response
-                );
+            // Send recent messages (or only the missed ones) to the joining session as a single frame,
+            // from memory when the channel is warm
+            if (lastSeenMessageId == null) {
+                sendNewest(userEmail, sessionId, channelType, channelId, DEFAULT_HISTORY_LIMIT);
+            } else {
+                sendSince(userEmail, sessionId, channelType, channelId, lastSeenMessageId, DEFAULT_HISTORY_LIMIT);
             }
             
-            // Notify channel that user joined
-            MessageResponse joinNotification = MessageResponse.builder()
-                    .channelType(channelType)
-                       .channelId(String.valueOf(channelId))
-                    .senderId("SYSTEM")
-                    .senderEmail(null)
-                    .senderName("System")
-                    .text(userEmail + " joined the channel")
-                    .build();
-            
-            messagingTemplate.convertAndSend(
-                "/topic/chat/" + channelType + "/" + channelId,
-                joinNotification
-            );
-            
         } catch (IllegalArgumentException e) {
             log.error("User {} denied access to channel {}/{}: {}", 
                     userEmail, channelType, channelId, e.getMessage());
-            
-            // Send error to user
-            MessageResponse errorMsg = MessageResponse.builder()
-                    .senderId("SYSTEM")
-                    .senderEmail(null)
-                    .senderName("System")
-                    .text("Access denied: " + e.getMessage())
-                    .build();
-            
-            messagingTemplate.convertAndSendToUser(
-                userEmail,
-                "/topic/errors",
-                errorMsg
-            );
+            sendError(userEmail, "Access denied: " + e.getMessage());
         } catch (Exception e) {
             log.error("WebSocket join failed for user {} channel {}/{}", userEmail, channelType, channelId, e);
-            MessageResponse errorMsg = MessageResponse.builder()
-                    .senderId("SYSTEM")
-                    .senderEmail(null)
-                    .senderName("System")
-                    .text("Chat join failed")
-                    .build();
-            messagingTemplate.convertAndSendToUser(userEmail, "/topic/errors", errorMsg);
+            sendError(userEmail, "Chat join failed");
         }
     }
     
+    /**
+     * Handle request for older history
+     * Client sends to: /app/chat.history
+     * Message payload: { "channelType": "team", "channelId": "123", "beforeId": "456", "limit": "50" }
+     * Replies with one ChatHistoryResponse frame on /user/queue/chat/history
+     *
+     * @param payload History request payload
+     * @param headerAccessor WebSocket header accessor
+     * @param principal Authenticated user principal
+     */
+    @MessageMapping("/chat.history")
+    public void history(@Payload Map<String, String> payload,
+                        SimpMessageHeaderAccessor headerAccessor,
+                        Principal principal) {
+
+        if (principal == null) {
+            log.warn("WebSocket history rejected: unauthenticated principal");
+            return;
+        }
+
+        String channelType = payload.get("channelType");
+        String channelIdRaw = payload.get("channelId");
+        if (channelType == null || channelIdRaw == null) {
+            log.warn("WebSocket history rejected: missing channelType/channelId payload");
+            return;
+        }
+
+        Long channelId;
+        Long beforeId;
+        int limit;
+        try {
+            channelId = Long.parseLong(channelIdRaw);
+            beforeId = payload.get("beforeId") != null ? Long.parseLong(payload.get("beforeId")) : null;
+            limit = payload.get("limit") != null ? Integer.parseInt(payload.get("limit")) : DEFAULT_HISTORY_LIMIT;
+        } catch (NumberFormatException e) {
+            log.warn("WebSocket history rejected: invalid number in payload {}", payload);
+            return;
+        }
+        limit = Math.max(1, Math.min(limit, MAX_HISTORY_LIMIT));
+
+        String userEmail = principal.getName();
+
+        String sessionId = headerAccessor.getSessionId();
+        Map<String, Object> sessionAttributes = headerAccessor.getSessionAttributes();
+        int pageSize = limit;
+        dispatch(userEmail, channelType, channelId,
+                () -> sendHistoryPage(userEmail, sessionId, sessionAttributes, channelType, channelId, beforeId, pageSize));
+    }
+
+    private void sendHistoryPage(String userEmail, String sessionId, Map<String, Object> sessionAttributes,
+                                 String channelType, Long channelId, Long beforeId, int limit) {
+        try {
+            chatAuthorizationService.authorize(sessionId, sessionAttributes, channelType, channelId, userEmail);
+            if (beforeId == null) {
+                sendNewest(userEmail, sessionId, channelType, channelId, limit);
+            } else {
+                Slice<Message> messages = chatService.getHistoryBefore(channelType, channelId, beforeId, limit);
+                sendHistory(userEmail, sessionId, channelType, channelId, messages, null);
+            }
+        } catch (IllegalArgumentException e) {
+            log.error("User {} denied history of channel {}/{}: {}",
+                    userEmail, channelType, channelId, e.getMessage());
+
+            sendError(userEmail, "Access denied: " + e.getMessage());
+        } catch (Exception e) {
+            log.error("WebSocket history failed for user {} channel {}/{}", userEmail, channelType, channelId, e);
+            sendError(userEmail, "Chat history failed");
+        }
+    }
+
+    /**
+     * Send the newest messages of a channel to one session, from the history cache when it can serve them
+     */
+    private void sendNewest(String userEmail, String sessionId, String channelType, Long channelId, int limit) {
+        ChatHistoryCache.Recent recent = chatHistoryCache.getRecent(channelType, channelId, limit);
+        if (recent == null) {
+            sendHistory(userEmail, sessionId, channelType, channelId,
+                    chatService.getHistoryBefore(channelType, channelId, null, limit), null);
+            return;
+        }
+        sendHistory(userEmail, sessionId, channelType, channelId,
+                recent.messages(), recent.hasMore(), recent.nextBeforeId(), null);
+    }
+
+    /**
+     * Send the messages after lastSeenMessageId to a resuming session (newest limit of them if there are more),
+     * from the history cache when it can serve them, otherwise with one keyset query
+     */
+    private void sendSince(String userEmail, String sessionId, String channelType, Long channelId,
+                           Long lastSeenMessageId, int limit) {
+        ChatHistoryCache.Recent recent = chatHistoryCache.getSince(channelType, channelId, lastSeenMessageId, limit);
+        if (recent == null) {
+            sendHistory(userEmail, sessionId, channelType, channelId,
+                    chatService.getHistoryAfter(channelType, channelId, lastSeenMessageId, limit), lastSeenMessageId);
+            return;
+        }
+        sendHistory(userEmail, sessionId, channelType, channelId,
+                recent.messages(), recent.hasMore(), recent.nextBeforeId(), lastSeenMessageId);
+    }
+
+    /**
+     * Send a page of history (newest first from the repository) to one session, oldest first
+     */
+    private void sendHistory(String userEmail, String sessionId, String channelType, Long channelId,
+                             Slice<Message> page, Long afterId) {
+        List<MessageResponse> messages = new ArrayList<>(page.getNumberOfElements());
+        for (Message msg : page) {
+            messages.add(convertToHistoryEntry(msg));
+        }
+        Collections.reverse(messages);
+
+        Message oldest = page.isEmpty() ? null : page.getContent().get(page.getNumberOfElements() - 1);
+        sendHistory(userEmail, sessionId, channelType, channelId, messages, page.hasNext(),
+                page.hasNext() && oldest != null ? String.valueOf(oldest.getId()) : null, afterId);
+    }
+
+    private void sendHistory(String userEmail, String sessionId, String channelType, Long channelId,
+                             List<MessageResponse> messages, boolean hasMore, String nextBeforeId, Long afterId) {
+        ChatHistoryResponse frame = ChatHistoryResponse.builder()
+                .channelType(channelType)
+                .channelId(String.valueOf(channelId))
+                .messages(messages)
+                .hasMore(hasMore)
+                .nextBeforeId(nextBeforeId)
+                .afterId(afterId != null ? String.valueOf(afterId) : null)
+                .build();
+
+        SimpMessageHeaderAccessor headers = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+        headers.setSessionId(sessionId);
+        headers.setLeaveMutable(true);
+        messagingTemplate.convertAndSendToUser(userEmail, HISTORY_DESTINATION, frame, headers.getMessageHeaders());
+    }
+
     /**
      * Handle leave channel message
      * Client sends to: /app/chat.leave
      * Message payload: { "channelType": "team", "channelId": "123" }
+     * Kept for older clients; presence changes when the client unsubscribes or disconnects
      * 
      * @param payload Leave message payload
      * @param principal Authenticated user principal
@@ -165,33 +315,70 @@ public class WebSocketChatController {
         String userEmail = principal.getName();
         
         log.info("WebSocket leave - User: {}, Channel: {}/{}", userEmail, channelType, channelId);
-        
-        // Notify channel that user left
-        MessageResponse leaveNotification = MessageResponse.builder()
-                .channelType(channelType)
-                   .channelId(String.valueOf(channelId))
-                .senderId("SYSTEM")
-            .senderEmail(null)
-                .senderName("System")
-                .text(userEmail + " left the channel")
-                .build();
-        
-        messagingTemplate.convertAndSend(
-            "/topic/chat/" + channelType + "/" + channelId,
-            leaveNotification
-        );
     }
     
+    /**
+     * Handle typing indicator
+     * Client sends to: /app/chat.typing
+     * Message payload: { "channelType": "team", "channelId": "123", "typing": "false" }
+     * Sent while the user types (typing defaults to true); coalesced and broadcast on /topic/typing/{type}/{id}
+     * Only sessions already granted the channel (by join or a message) are announced; nothing is stored
+     * 
+     * @param payload Typing payload
+     * @param headerAccessor WebSocket header accessor
+     * @param principal Authenticated user principal
+     */
+    @MessageMapping("/chat.typing")
+    public void typing(@Payload Map<String, String> payload,
+                       SimpMessageHeaderAccessor headerAccessor,
+                       Principal principal) {
+
+        if (principal == null) {
+            return;
+        }
+
+        String channelType = payload.get("channelType");
+        String channelIdRaw = payload.get("channelId");
+        if (channelType == null || channelIdRaw == null) {
+            return;
+        }
+
+        Long channelId;
+        try {
+            channelId = Long.parseLong(channelIdRaw);
+        } catch (NumberFormatException e) {
+            return;
+        }
+
+        ChatAuthorizationService.Grant grant = chatAuthorizationService.cachedGrant(
+                headerAccessor.getSessionAttributes(), channelType, channelId);
+        if (grant == null) {
+            log.debug("Typing from {} ignored: session has not joined {}/{}", principal.getName(), channelType, channelId);
+            return;
+        }
+
+        if ("false".equals(payload.get("typing"))) {
+            typingService.stopped(channelType, channelId, grant, true);
+        } else {
+            typingService.typing(channelType, channelId, grant);
+        }
+    }
+
     /**
      * Handle chat message
      * Client sends to: /app/chat.message
      * Message payload: { "channelType": "team", "channelId": "123", "text": "Hello!" }
+     * Uses the session's channel grant; access is only checked if the session has none
+     * Saved and broadcast on the channel's lane, so message ids follow broadcast order
      * 
      * @param payload Message payload
+     * @param headerAccessor WebSocket header accessor
      * @param principal Authenticated user principal
      */
     @MessageMapping("/chat.message")
-    public void sendMessage(@Payload Map<String, String> payload, Principal principal) {
+    public void sendMessage(@Payload Map<String, String> payload,
+                            SimpMessageHeaderAccessor headerAccessor,
+                            Principal principal) {
 
         if (principal == null) {
             log.warn("WebSocket message rejected: unauthenticated principal");
@@ -218,59 +405,93 @@ public class WebSocketChatController {
         
         log.info("WebSocket message - User: {}, Channel: {}/{}, Text length: {}", 
                 userEmail, channelType, channelId, text != null ? text.length() : 0);
-        
+
+        String sessionId = headerAccessor.getSessionId();
+        Map<String, Object> sessionAttributes = headerAccessor.getSessionAttributes();
+        dispatch(userEmail, channelType, channelId,
+                () -> postMessage(userEmail, sessionId, sessionAttributes, channelType, channelId, text));
+    }
+
+    private void postMessage(String userEmail, String sessionId, Map<String, Object> sessionAttributes,
+                             String channelType, Long channelId, String text) {
         try {
+            ChatAuthorizationService.Grant grant = chatAuthorizationService.authorize(
+                    sessionId, sessionAttributes, channelType, channelId, userEmail);
+            
             // Save message to database
-            Message message = chatService.saveMessage(channelType, channelId, userEmail, text);
+            Message message = chatService.saveAuthorizedMessage(channelType, channelId, grant.userId(), text);
+            typingService.stopped(channelType, channelId, grant, false);
             
             // Broadcast to all channel members
-            MessageResponse response = convertToResponse(message);
+            MessageResponse response = convertToResponse(message, grant);
             messagingTemplate.convertAndSend(
                 "/topic/chat/" + channelType + "/" + channelId,
-                response
+                response,
+                Map.of(WebSocketFlowControl.CHAT_MESSAGE_ID_HEADER, response.getId())
             );
             
         } catch (IllegalArgumentException e) {
             log.error("User {} failed to send message to channel {}/{}: {}", 
                     userEmail, channelType, channelId, e.getMessage());
-            
-            // Send error to user
-            MessageResponse errorMsg = MessageResponse.builder()
-                    .senderId("SYSTEM")
-                    .senderEmail(null)
-                    .senderName("System")
-                    .text("Failed to send message: " + e.getMessage())
-                    .build();
-            
-            messagingTemplate.convertAndSendToUser(
-                userEmail,
-                "/topic/errors",
-                errorMsg
-            );
+            sendError(userEmail, "Failed to send message: " + e.getMessage());
+        } catch (IllegalStateException e) {
+            // Write-behind queue is full; the message was not accepted
+            sendError(userEmail, "Failed to send message: " + e.getMessage());
         } catch (Exception e) {
             log.error("WebSocket sendMessage failed for user {} channel {}/{}", userEmail, channelType, channelId, e);
-            MessageResponse errorMsg = MessageResponse.builder()
-                    .senderId("SYSTEM")
-                    .senderEmail(null)
-                    .senderName("System")
-                    .text("Chat send failed")
-                    .build();
-            messagingTemplate.convertAndSendToUser(userEmail, "/topic/errors", errorMsg);
+            sendError(userEmail, "Chat send failed");
         }
     }
     
     /**
-     * Convert Message entity to MessageResponse DTO
+     * Queue work on the channel's lane; a full lane is reported to the user like a full write queue
+     */
+    private void dispatch(String userEmail, String channelType, Long channelId, Runnable work) {
+        try {
+            chatDispatcher.dispatch(channelType, channelId, work);
+        } catch (IllegalStateException e) {
+            sendError(userEmail, "Chat request not accepted: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Send an error to one user (clients subscribe to /user/topic/errors)
+     */
+    private void sendError(String userEmail, String text) {
+        MessageResponse errorMsg = MessageResponse.builder()
+                .senderId("SYSTEM")
+                .senderName("System")
+                .text(text)
+                .build();
+        messagingTemplate.convertAndSendToUser(userEmail, "/topic/errors", errorMsg);
+    }
+
+    /**
+     * Convert Message entity to a history entry (channel fields are carried by the frame)
+     */
+    private MessageResponse convertToHistoryEntry(Message message) {
+        return MessageResponse.builder()
+                .id(String.valueOf(message.getId()))
+                .senderId(message.getSenderId() != null ? String.valueOf(message.getSenderId()) : null)
+                .senderEmail(message.getSender() != null ? message.getSender().getEmail() : null)
+                .senderName(message.getSender() != null ? message.getSender().getName() : "Unknown")
+                .text(message.getContent())
+                .createdAt(message.getCreatedAt())
+                .build();
+    }
+
+    /**
+     * Convert a just-saved Message to MessageResponse using the sender from the session grant
      */
-    private MessageResponse convertToResponse(Message message) {
+    private MessageResponse convertToResponse(Message message, ChatAuthorizationService.Grant sender) {
         return MessageResponse.builder()
-                    .id(message.getId() != null ? String.valueOf(message.getId()) : null)
+                .id(String.valueOf(message.getId()))
                 .channelType(message.getChannelType())
-                    .channelId(message.getChannelId() != null ? String.valueOf(message.getChannelId()) : null)
-                    .senderId(message.getSenderId() != null ? String.valueOf(message.getSenderId()) : null)
-                    .senderEmail(message.getSender() != null ? message.getSender().getEmail() : null)
-                    .senderName(message.getSender() != null ? message.getSender().getName() : "Unknown")
-                    .text(message.getContent())
+                .channelId(String.valueOf(message.getChannelId()))
+                .senderId(String.valueOf(sender.userId()))
+                .senderEmail(sender.email())
+                .senderName(sender.name())
+                .text(message.getContent())
                 .createdAt(message.getCreatedAt())
                 .build();
     }
@@ -0,0 +1,62 @@
+package com.example.webapp.controller;
+
+import com.example.webapp.entity.User;
+import com.example.webapp.repository.UserRepository;
+import com.example.webapp.service.NotificationPushService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.messaging.handler.annotation.MessageMapping;
+import org.springframework.messaging.handler.annotation.Payload;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.stereotype.Controller;
+
+import java.security.Principal;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * WebSocket controller for notification push
+ * Clients subscribe to /user/queue/notifications and then send a resume request
+ */
+@Controller
+@Slf4j
+public class WebSocketNotificationController {
+
+    @Autowired
+    private NotificationPushService notificationPushService;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    /**
+     * Handle notification resume after (re)connecting
+     * Client sends to: /app/notifications.resume
+     * Message payload: { "resumeToken": "123" } (omit the token on first connect)
+     *
+     * @param payload Resume payload
+     * @param headerAccessor WebSocket header accessor
+     * @param principal Authenticated user principal
+     */
+    @MessageMapping("/notifications.resume")
+    public void resume(@Payload Map<String, String> payload,
+                       SimpMessageHeaderAccessor headerAccessor,
+                       Principal principal) {
+
+        if (principal == null) {
+            log.warn("WebSocket notification resume rejected: unauthenticated principal");
+            return;
+        }
+
+        String userEmail = principal.getName();
+        Optional<User> user = userRepository.findByEmail(userEmail);
+        if (user.isEmpty()) {
+            log.warn("WebSocket notification resume rejected: user {} not found", userEmail);
+            return;
+        }
+
+        String resumeToken = payload != null ? payload.get("resumeToken") : null;
+        log.debug("WebSocket notification resume - User: {}, Token: {}", userEmail, resumeToken);
+
+        notificationPushService.resume(user.get().getId(), userEmail, headerAccessor.getSessionId(), resumeToken);
+    }
+}
@@ -0,0 +1,31 @@
+package com.example.webapp.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * WebSocket frame carrying a page of chat history in one message.
+ * Channel fields are sent once per frame instead of on every message;
+ * pass nextBeforeId back as beforeId to load older messages.
+ * A frame with afterId answers a resumed join: it holds only messages newer
+ * than afterId and is appended to what the client already has.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class ChatHistoryResponse {
+    private String channelType;
+    private String channelId;
+    // Oldest first
+    private List<MessageResponse> messages;
+    private boolean hasMore;
+    private String nextBeforeId;
+    private String afterId;
+}
@@ -0,0 +1,26 @@
+package com.example.webapp.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+/**
+ * One chat search result; snippet is the matching part of the message with matches wrapped in **
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class ChatSearchHit {
+    private String id;
+    private String channelType;
+    private String channelId;
+    private String senderId;
+    private String senderEmail;
+    private String senderName;
+    private String snippet;
+    private LocalDateTime createdAt;
+}
@@ -0,0 +1,24 @@
+package com.example.webapp.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * A page of chat search results, newest first;
+ * pass nextBeforeId back as before to get the next page
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class ChatSearchResponse {
+    private List<ChatSearchHit> hits;
+    private boolean hasMore;
+    private String nextBeforeId;
+}
@@ -1,11 +1,13 @@
 package com.example.webapp.dto;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 
 import java.time.LocalDateTime;
+import java.util.List;
 
 /**
  * Response DTO for Comment data
@@ -22,4 +24,13 @@ public class CommentResponse {
     private String text;
     private LocalDateTime createdAt;
     private String parentId;
+
+    // Only set in thread responses
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private List<CommentResponse> replies;
+
+    // Set in thread responses on a reply at the nesting limit whose own replies were left out;
+    // load them with the thread's parentId parameter
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private Boolean hasMoreReplies;
 }
@@ -0,0 +1,24 @@
+package com.example.webapp.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * A page of root comments, newest first, each with its replies nested (oldest first).
+ * Pass nextCursor back as cursor to load older root comments.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class CommentThreadResponse {
+    private List<CommentResponse> comments;
+    private boolean hasMore;
+    private String nextCursor;
+}
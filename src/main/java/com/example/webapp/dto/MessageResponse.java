@@ -1,5 +1,6 @@
 package com.example.webapp.dto;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
@@ -9,11 +10,14 @@ import java.time.LocalDateTime;
 
 /**
  * Response DTO for chat messages
+ * Null fields are omitted (e.g. channel fields inside a ChatHistoryResponse)
+ * A frame with retracted set withdraws an earlier broadcast of the same id that could not be stored
  */
 @Data
 @Builder
 @NoArgsConstructor
 @AllArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
 public class MessageResponse {
     
     private String id;
@@ -24,4 +28,5 @@ public class MessageResponse {
     private String senderName;
     private String text;
     private LocalDateTime createdAt;
+    private Boolean retracted;
 }
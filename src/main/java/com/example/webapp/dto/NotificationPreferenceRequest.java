@@ -0,0 +1,28 @@
+package com.example.webapp.dto;
+
+import com.example.webapp.entity.NotificationDeliveryMode;
+import jakarta.validation.constraints.NotBlank;
+import jakarta.validation.constraints.NotNull;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Request DTO for setting a notification preference
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class NotificationPreferenceRequest {
+
+    @NotBlank(message = "Notification type is required")
+    private String type;
+
+    /**
+     * Project the preference applies to (optional, all projects when omitted)
+     */
+    private Long projectId;
+
+    @NotNull(message = "Mode is required (OFF, IN_APP or DIGEST)")
+    private NotificationDeliveryMode mode;
+}
@@ -0,0 +1,16 @@
+package com.example.webapp.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class NotificationPreferenceResponse {
+    private String type;
+    private Long projectId;
+    private String mode;
+}
@@ -0,0 +1,25 @@
+package com.example.webapp.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * Frame pushed to /user/queue/notifications
+ * type is one of "notification", "unread-count" or "resume"
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class NotificationPushResponse {
+    private String type;
+    private NotificationResponse notification;
+    private List<NotificationResponse> notifications;
+    private Long unreadCount;
+    private String resumeToken;
+    private boolean resync;
+}
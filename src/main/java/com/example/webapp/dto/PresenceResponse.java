@@ -0,0 +1,28 @@
+package com.example.webapp.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * Who is online in a chat channel (users are identified by email).
+ * The REST snapshot fills online; /topic/presence frames carry only the
+ * joined/left diff since the previous frame.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class PresenceResponse {
+    private String channelType;
+    private String channelId;
+    private List<String> online;
+    private List<String> joined;
+    private List<String> left;
+    private int onlineCount;
+}
@@ -29,5 +29,8 @@ public class TaskResponse {
     private List<String> tags;
     private LocalDateTime createdAt;
     private LocalDateTime updatedAt;
+    private int commentCount;
+    private int messageCount;
+    private LocalDateTime lastActivityAt;
     private boolean isOverdue;
 }
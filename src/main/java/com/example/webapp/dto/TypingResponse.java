@@ -0,0 +1,27 @@
+package com.example.webapp.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Typing indicator frame on /topic/typing/{type}/{id}.
+ * Frames may be dropped under backpressure, so clients hide an indicator
+ * after ttlMs without a refresh; a chat message from the user also ends it.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class TypingResponse {
+    private String channelType;
+    private String channelId;
+    private String userId;
+    private String userEmail;
+    private String userName;
+    private boolean typing;
+    private Long ttlMs;
+}
@@ -0,0 +1,35 @@
+package com.example.webapp.entity;
+
+import jakarta.persistence.*;
+import lombok.*;
+
+import java.time.LocalDateTime;
+
+/**
+ * BrokerRelayPayload entity for JPA
+ * Relayed broker messages too large for a PostgreSQL notification; the
+ * notification carries the row id and the row is purged after a few minutes
+ */
+@Entity
+@Table(
+    name = "broker_relay_payloads",
+    indexes = {
+        @Index(name = "idx_broker_relay_payload_created", columnList = "created_at")
+    }
+)
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class BrokerRelayPayload {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(columnDefinition = "TEXT", nullable = false)
+    private String payload;
+
+    @Column(name = "created_at", nullable = false)
+    private LocalDateTime createdAt;
+}
@@ -12,7 +12,13 @@ import java.util.Set;
  * Represents a comment on a task with support for nested replies
  */
 @Entity
-@Table(name = "comments")
+@Table(
+    name = "comments",
+    indexes = {
+        // Thread pages: root comments (parent_id null) and each level of replies, keyset on (created_at, id)
+        @Index(name = "idx_comment_task_parent_created", columnList = "task_id,parent_id,created_at,id")
+    }
+)
 @Data
 @Builder
 @NoArgsConstructor
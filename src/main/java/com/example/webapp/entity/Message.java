@@ -11,7 +11,13 @@ import java.time.LocalDateTime;
  * Supports polymorphic relationships via channelType and channelId
  */
 @Entity
-@Table(name = "messages")
+@Table(
+    name = "messages",
+    indexes = {
+        // Serves channel history newest-first and keyset paging (id < beforeId) without a sort
+        @Index(name = "idx_message_channel_id", columnList = "channel_type,channel_id,id DESC")
+    }
+)
 @Data
 @Builder
 @NoArgsConstructor
@@ -14,7 +14,8 @@ import java.time.LocalDateTime;
     name = "notifications",
     indexes = {
         @Index(name = "idx_notification_user_read", columnList = "user_id,read_flag"),
-        @Index(name = "idx_notification_user_created", columnList = "user_id,created_at")
+        @Index(name = "idx_notification_user_created", columnList = "user_id,created_at"),
+        @Index(name = "idx_notification_user_id", columnList = "user_id,id")
     }
 )
 @Data
@@ -48,6 +49,7 @@ public class Notification {
     @Column(name = "secondary_reference_id")
     private Long secondaryReferenceId;
     
+    // Per-row read flag; rows at or below the user's read watermark are read regardless
     @Column(name = "read_flag", nullable = false)
     private Boolean read;
     
@@ -0,0 +1,59 @@
+package com.example.webapp.entity;
+
+import jakarta.persistence.*;
+import lombok.*;
+
+import java.time.LocalDateTime;
+
+/**
+ * NotificationArchive entity for JPA
+ * Notifications moved out of the live table by the retention job
+ */
+@Entity
+@Table(
+    name = "notifications_archive",
+    indexes = {
+        @Index(name = "idx_notification_archive_user_created", columnList = "user_id,created_at")
+    }
+)
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class NotificationArchive {
+
+    // Same id the notification had in the live table
+    @Id
+    private Long id;
+
+    @Column(name = "user_id", nullable = false)
+    private Long userId;
+
+    @Column(name = "notification_type", nullable = false)
+    private String type;
+
+    @Column(nullable = false)
+    private String title;
+
+    @Column(columnDefinition = "TEXT", nullable = false)
+    private String message;
+
+    @Column(name = "reference_id")
+    private Long referenceId;
+
+    @Column(name = "reference_type")
+    private String referenceType;
+
+    @Column(name = "secondary_reference_id")
+    private Long secondaryReferenceId;
+
+    // Effective read state at archival time (flag or watermark)
+    @Column(name = "read_flag", nullable = false)
+    private Boolean read;
+
+    @Column(name = "created_at", nullable = false)
+    private LocalDateTime createdAt;
+
+    @Column(name = "archived_at", nullable = false)
+    private LocalDateTime archivedAt;
+}
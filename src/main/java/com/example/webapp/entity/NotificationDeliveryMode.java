@@ -0,0 +1,10 @@
+package com.example.webapp.entity;
+
+/**
+ * How a user wants to receive a type of notification
+ */
+public enum NotificationDeliveryMode {
+    OFF,
+    IN_APP,
+    DIGEST
+}
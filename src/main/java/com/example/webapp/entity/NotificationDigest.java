@@ -0,0 +1,47 @@
+package com.example.webapp.entity;
+
+import jakarta.persistence.*;
+import lombok.*;
+
+import java.time.LocalDateTime;
+
+/**
+ * NotificationDigest entity for JPA
+ * Pending digest of one notification type for a user: a counter plus the latest
+ * event, turned into a single notification by the digest job
+ */
+@Entity
+@Table(
+    name = "notification_digests",
+    uniqueConstraints = {
+        @UniqueConstraint(name = "uk_notification_digest_user_type", columnNames = {"user_id", "notification_type"})
+    }
+)
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class NotificationDigest {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "user_id", nullable = false)
+    private Long userId;
+
+    @Column(name = "notification_type", nullable = false)
+    private String type;
+
+    @Column(name = "pending_count", nullable = false)
+    private long pendingCount;
+
+    @Column(name = "last_title", nullable = false)
+    private String lastTitle;
+
+    @Column(name = "last_message", columnDefinition = "TEXT", nullable = false)
+    private String lastMessage;
+
+    @Column(name = "first_event_at", nullable = false)
+    private LocalDateTime firstEventAt;
+}
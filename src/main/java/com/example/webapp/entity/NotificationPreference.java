@@ -0,0 +1,40 @@
+package com.example.webapp.entity;
+
+import jakarta.persistence.*;
+import lombok.*;
+
+/**
+ * NotificationPreference entity for JPA
+ * A user's delivery mode for one notification type, either for all projects
+ * (projectId null) or for a single project; the project-specific entry wins
+ */
+@Entity
+@Table(
+    name = "notification_preferences",
+    indexes = {
+        @Index(name = "idx_notification_preference_user_type", columnList = "user_id,notification_type")
+    }
+)
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class NotificationPreference {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "user_id", nullable = false)
+    private Long userId;
+
+    @Column(name = "notification_type", nullable = false)
+    private String type;
+
+    @Column(name = "project_id")
+    private Long projectId;
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false, length = 16)
+    private NotificationDeliveryMode mode;
+}
@@ -0,0 +1,29 @@
+package com.example.webapp.entity;
+
+import jakarta.persistence.*;
+import lombok.*;
+
+/**
+ * NotificationUserState entity for JPA
+ * Per-user notification bookkeeping, kept in step with the notifications table
+ * so the unread count is a primary-key lookup instead of a COUNT
+ */
+@Entity
+@Table(name = "notification_user_state")
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class NotificationUserState {
+
+    @Id
+    @Column(name = "user_id")
+    private Long userId;
+
+    @Column(name = "unread_count", nullable = false)
+    private long unreadCount;
+
+    // Every notification with id <= readUpToId counts as read ("mark all read" watermark)
+    @Column(name = "read_up_to_id")
+    private Long readUpToId;
+}
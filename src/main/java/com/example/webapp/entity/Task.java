@@ -59,6 +59,20 @@ public class Task {
     @Column(name = "updated_at")
     private LocalDateTime updatedAt;
     
+    // Activity counters, maintained by TaskActivityService in the transaction that adds the comment or message;
+    // never written through the entity so a task update cannot overwrite a concurrent increment
+    @Column(name = "comment_count", nullable = false, insertable = false, updatable = false,
+            columnDefinition = "integer default 0")
+    private int commentCount;
+    
+    @Column(name = "message_count", nullable = false, insertable = false, updatable = false,
+            columnDefinition = "integer default 0")
+    private int messageCount;
+    
+    // Set to the creation time on insert; NULL only on tasks from before the counters, until they are backfilled
+    @Column(name = "last_activity_at", updatable = false)
+    private LocalDateTime lastActivityAt;
+    
     @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "project_id", insertable = false, updatable = false)
     @EqualsAndHashCode.Exclude
@@ -0,0 +1,36 @@
+package com.example.webapp.entity;
+
+import jakarta.persistence.*;
+import lombok.*;
+
+/**
+ * TeamNotificationCursor entity for JPA
+ * Per-user, per-team read cursor for team notification events:
+ * every event of the team with id <= readUpToId is read for the user
+ */
+@Entity
+@Table(
+    name = "team_notification_cursors",
+    uniqueConstraints = {
+        @UniqueConstraint(name = "uk_team_notification_cursor_user_team", columnNames = {"user_id", "team_id"})
+    }
+)
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class TeamNotificationCursor {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "user_id", nullable = false)
+    private Long userId;
+
+    @Column(name = "team_id", nullable = false)
+    private Long teamId;
+
+    @Column(name = "read_up_to_id", nullable = false)
+    private Long readUpToId;
+}
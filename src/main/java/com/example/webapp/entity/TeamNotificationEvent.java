@@ -0,0 +1,69 @@
+package com.example.webapp.entity;
+
+import jakarta.persistence.*;
+import lombok.*;
+
+import java.time.LocalDateTime;
+
+/**
+ * TeamNotificationEvent entity for JPA
+ * A broadcast notification stored once per team and merged into the feed of each of
+ * its recipients at read time, instead of one row per recipient
+ */
+@Entity
+@Table(
+    name = "team_notification_events",
+    indexes = {
+        @Index(name = "idx_team_notification_event_team_id", columnList = "team_id,id"),
+        @Index(name = "idx_team_notification_event_created", columnList = "created_at")
+    }
+)
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class TeamNotificationEvent {
+
+    // Drawn from the notifications id sequence so ids are unique across both feeds
+    // and the per-user read watermark covers team events too
+    @Id
+    private Long id;
+
+    @Column(name = "team_id", nullable = false)
+    private Long teamId;
+
+    // Project the event is about, used to apply per-project preferences
+    @Column(name = "project_id")
+    private Long projectId;
+
+    @Column(name = "notification_type", nullable = false)
+    private String type;
+
+    @Column(nullable = false)
+    private String title;
+
+    @Column(columnDefinition = "TEXT", nullable = false)
+    private String message;
+
+    @Column(name = "reference_id")
+    private Long referenceId;
+
+    @Column(name = "reference_type")
+    private String referenceType;
+
+    @Column(name = "secondary_reference_id")
+    private Long secondaryReferenceId;
+
+    // User who caused the event; excluded from the audience
+    @Column(name = "actor_id")
+    private Long actorId;
+
+    // Audience when the event was written (team leaders and manager who get it in-app),
+    // so later leadership changes neither reveal nor hide it. PostgreSQL only, like the
+    // repository queries that search it (@> on a GIN index)
+    @Column(name = "recipient_ids", columnDefinition = "bigint[]")
+    private Long[] recipientIds;
+
+    @Column(name = "created_at", nullable = false)
+    private LocalDateTime createdAt;
+}
@@ -28,6 +28,10 @@ public class UserProfile {
     @Column(name = "avatar_path")
     private String avatarPath;
 
+    // Recorded at upload so serving the avatar needs no content type probe
+    @Column(name = "avatar_content_type")
+    private String avatarContentType;
+
     @Column(name = "profile_pic_path")
     private String profilePicPath;
 
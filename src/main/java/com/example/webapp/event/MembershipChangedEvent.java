@@ -0,0 +1,23 @@
+package com.example.webapp.event;
+
+import java.util.Set;
+
+/**
+ * Published when users may have lost access to teams, projects or tasks
+ * (removed, demoted, unassigned or the resource deleted).
+ * A null userIds means any user may be affected.
+ */
+public record MembershipChangedEvent(Set<Long> userIds) {
+
+    public static MembershipChangedEvent of(Long userId) {
+        return new MembershipChangedEvent(Set.of(userId));
+    }
+
+    public static MembershipChangedEvent allUsers() {
+        return new MembershipChangedEvent(null);
+    }
+
+    public boolean affects(Long userId) {
+        return userIds == null || userIds.contains(userId);
+    }
+}
@@ -4,6 +4,7 @@ import com.example.webapp.entity.Comment;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.stereotype.Repository;
 
 import java.util.List;
@@ -14,6 +15,77 @@ import java.time.LocalDateTime;
  */
 @Repository
 public interface CommentRepository extends JpaRepository<Comment, Long> {
+
+    /**
+     * Replies nested deeper than this are not returned by the thread query; rows at this depth
+     * carry hasMoreReplies so the rest can be loaded from there
+     */
+    int MAX_THREAD_DEPTH = 50;
+
+    /**
+     * Comment row of a thread page; depth 0 is a root comment
+     */
+    interface ThreadRow {
+        Long getId();
+        Long getTaskId();
+        Long getUserId();
+        String getContent();
+        LocalDateTime getCreatedAt();
+        Long getParentId();
+        Integer getDepth();
+        Boolean getHasMore();
+        Boolean getHasMoreReplies();
+    }
+
+    /**
+     * A page of root comments (newest first, keyset on created_at and id) with all their replies, in one statement.
+     * Uses idx_comment_task_parent_created for both the root page and each level of replies.
+     * @param taskId The task ID
+     * @param parentId Page the replies of this comment instead of the task's top-level comments (null for those)
+     * @param beforeCreatedAt Only roots before this (created_at, beforeId) position (null for the newest)
+     * @param beforeId Id half of the cursor
+     * @param limit Maximum number of root comments
+     * @return Rows ordered by depth, then created_at and id; hasMore is set on every row,
+     *         hasMoreReplies on rows at MAX_THREAD_DEPTH that have replies
+     */
+    @Query(value = "WITH RECURSIVE roots AS ( " +
+            "    SELECT c.id, row_number() OVER (ORDER BY c.created_at DESC, c.id DESC) AS rn FROM comments c " +
+            "    WHERE c.task_id = :taskId " +
+            "      AND ((CAST(:parentId AS bigint) IS NULL AND c.parent_id IS NULL) OR c.parent_id = :parentId) " +
+            "      AND (CAST(:beforeCreatedAt AS timestamp) IS NULL " +
+            "           OR (c.created_at, c.id) < (CAST(:beforeCreatedAt AS timestamp), :beforeId)) " +
+            "    ORDER BY c.created_at DESC, c.id DESC LIMIT :limit + 1), " +
+            "thread AS ( " +
+            "    SELECT c.id, c.task_id, c.user_id, c.content, c.created_at, c.parent_id, 0 AS depth " +
+            "    FROM comments c JOIN roots r ON r.id = c.id WHERE r.rn <= :limit " +
+            "    UNION ALL " +
+            "    SELECT c.id, c.task_id, c.user_id, c.content, c.created_at, c.parent_id, t.depth + 1 " +
+            "    FROM thread t JOIN comments c ON c.task_id = :taskId AND c.parent_id = t.id " +
+            "    WHERE t.depth < " + MAX_THREAD_DEPTH + ") " +
+            "SELECT t.id AS id, t.task_id AS taskId, t.user_id AS userId, t.content AS content, " +
+            "    t.created_at AS createdAt, t.parent_id AS parentId, t.depth AS depth, " +
+            "    (SELECT count(*) FROM roots) > :limit AS hasMore, " +
+            "    t.depth = " + MAX_THREAD_DEPTH + " AND EXISTS (SELECT 1 FROM comments r " +
+            "        WHERE r.task_id = t.task_id AND r.parent_id = t.id) AS hasMoreReplies " +
+            "FROM thread t ORDER BY t.depth, t.created_at, t.id",
+            nativeQuery = true)
+    List<ThreadRow> findThreadPage(Long taskId, Long parentId, LocalDateTime beforeCreatedAt, Long beforeId, int limit);
+
+    /**
+     * Whether a user may read a task's comments: owner or member of its project, or manager,
+     * leader or member of the project's team (same rules as PermissionService.isProjectMember)
+     * @return null if the task does not exist
+     */
+    @Query(value = "SELECT (COALESCE(p.owner_id = u.id, false) " +
+            "    OR EXISTS (SELECT 1 FROM project_members pm WHERE pm.project_id = p.id AND pm.user_id = u.id) " +
+            "    OR EXISTS (SELECT 1 FROM teams t WHERE t.id = p.team_id AND t.manager_id = u.id) " +
+            "    OR EXISTS (SELECT 1 FROM team_leaders tl WHERE tl.team_id = p.team_id AND tl.user_id = u.id) " +
+            "    OR EXISTS (SELECT 1 FROM team_members tm WHERE tm.team_id = p.team_id AND tm.user_id = u.id)) " +
+            "FROM tasks tk JOIN projects p ON p.id = tk.project_id " +
+            "LEFT JOIN users u ON u.email = :userEmail " +
+            "WHERE tk.id = :taskId",
+            nativeQuery = true)
+    Boolean canReadTaskComments(Long taskId, String userEmail);
     
     /**
      * Find all comments for a task with pagination
@@ -3,9 +3,13 @@ package com.example.webapp.repository;
 import com.example.webapp.entity.Message;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.stereotype.Repository;
 
+import java.time.LocalDateTime;
 import java.util.List;
 
 /**
@@ -13,28 +17,130 @@ import java.util.List;
  */
 @Repository
 public interface MessageRepository extends JpaRepository<Message, Long> {
+
+    /**
+     * Text search configuration; must match the expression of idx_message_content_search
+     */
+    String SEARCH_CONFIG = "'english'";
+
+    /**
+     * Channels the user (by email) can read: teams they manage, lead or belong to; projects they
+     * own or belong to, directly or through the project's team; tasks in those projects or assigned to them
+     */
+    String ACCESSIBLE_CHANNELS =
+            "WITH me AS (SELECT u.id FROM users u WHERE u.email = :userEmail), " +
+            "member_teams AS ( " +
+            "    SELECT t.id FROM teams t WHERE t.manager_id = (SELECT id FROM me) " +
+            "    UNION SELECT tl.team_id FROM team_leaders tl WHERE tl.user_id = (SELECT id FROM me) " +
+            "    UNION SELECT tm.team_id FROM team_members tm WHERE tm.user_id = (SELECT id FROM me)), " +
+            "member_projects AS ( " +
+            "    SELECT p.id FROM projects p " +
+            "    WHERE p.owner_id = (SELECT id FROM me) OR p.team_id IN (SELECT id FROM member_teams) " +
+            "    UNION SELECT pm.project_id FROM project_members pm WHERE pm.user_id = (SELECT id FROM me)), " +
+            "accessible_channels (channel_type, channel_id) AS ( " +
+            "    SELECT 'team', id FROM member_teams " +
+            "    UNION SELECT 'project', id FROM member_projects " +
+            "    UNION SELECT 'task', tk.id FROM tasks tk WHERE tk.project_id IN (SELECT id FROM member_projects) " +
+            "    UNION SELECT 'task', ta.task_id FROM task_assignees ta WHERE ta.user_id = (SELECT id FROM me)) ";
+
+    /**
+     * Search hit with a context snippet; matched words are wrapped in **
+     */
+    interface SearchHit {
+        Long getId();
+        String getChannelType();
+        Long getChannelId();
+        Long getSenderId();
+        String getSenderName();
+        String getSenderEmail();
+        LocalDateTime getCreatedAt();
+        String getSnippet();
+    }
+
+    /**
+     * Full-text search over the channels the user can access, newest first.
+     * Access, matching and paging happen in one statement; snippets are only built for the returned rows.
+     * @param userEmail Email of the searching user
+     * @param query Search terms (web search syntax: "phrase", or, -word)
+     * @param channelType Only this channel type (null for all)
+     * @param channelId Only this channel id (null for all)
+     * @param beforeId Only messages with a smaller id (null for the newest)
+     * @param limit Maximum number of hits
+     */
+    @Query(value = ACCESSIBLE_CHANNELS +
+            "SELECT m.id AS id, m.channel_type AS channelType, m.channel_id AS channelId, m.sender_id AS senderId, " +
+            "    u.name AS senderName, u.email AS senderEmail, m.created_at AS createdAt, " +
+            "    ts_headline(" + SEARCH_CONFIG + ", m.content, websearch_to_tsquery(" + SEARCH_CONFIG + ", :query), " +
+            "        'StartSel=**, StopSel=**, MaxWords=24, MinWords=8, MaxFragments=2') AS snippet " +
+            "FROM (SELECT m.* FROM messages m " +
+            "      JOIN accessible_channels c ON c.channel_type = m.channel_type AND c.channel_id = m.channel_id " +
+            "      WHERE to_tsvector(" + SEARCH_CONFIG + ", m.content) @@ websearch_to_tsquery(" + SEARCH_CONFIG + ", :query) " +
+            "        AND (CAST(:channelType AS text) IS NULL OR m.channel_type = :channelType) " +
+            "        AND (CAST(:channelId AS bigint) IS NULL OR m.channel_id = :channelId) " +
+            "        AND (CAST(:beforeId AS bigint) IS NULL OR m.id < :beforeId) " +
+            "      ORDER BY m.id DESC LIMIT :limit) m " +
+            "LEFT JOIN users u ON u.id = m.sender_id " +
+            "ORDER BY m.id DESC",
+            nativeQuery = true)
+    List<SearchHit> search(String userEmail, String query, String channelType, Long channelId, Long beforeId, int limit);
     
     /**
-     * Find all messages in a channel ordered by creation time descending
+     * Find a page of messages in a channel (offset paging; sort comes from the pageable)
      * @param channelType Type of channel ("TEAM" or "TASK")
      * @param channelId ID of the team or task
      * @param pageable Pagination parameters
-     * @return Page of messages
+     * @return Page of messages (senders fetched in the same query)
      */
-    Page<Message> findByChannelTypeAndChannelIdOrderByCreatedAtDesc(
+    @EntityGraph(attributePaths = "sender")
+    Page<Message> findByChannelTypeAndChannelId(
             String channelType, 
             Long channelId, 
             Pageable pageable
     );
     
     /**
-     * Find recent messages in a channel (for WebSocket connection)
+     * Newest messages in a channel (first page of WebSocket history)
      * @param channelType Type of channel
      * @param channelId ID of the channel
-     * @return List of recent messages
+     * @param pageable Page size; a Slice fetches one extra row to detect more history
+     * @return Slice of messages, newest first (senders fetched in the same query)
      */
-    List<Message> findTop50ByChannelTypeAndChannelIdOrderByCreatedAtDesc(
-            String channelType, 
-            Long channelId
+    @EntityGraph(attributePaths = "sender")
+    Slice<Message> findByChannelTypeAndChannelIdOrderByIdDesc(
+            String channelType,
+            Long channelId,
+            Pageable pageable
+    );
+
+    /**
+     * Messages in a channel older than a given message id (keyset pagination of history)
+     * @param channelType Type of channel
+     * @param channelId ID of the channel
+     * @param beforeId Only messages with a smaller id are returned
+     * @param pageable Page size
+     * @return Slice of messages, newest first (senders fetched in the same query)
+     */
+    @EntityGraph(attributePaths = "sender")
+    Slice<Message> findByChannelTypeAndChannelIdAndIdLessThanOrderByIdDesc(
+            String channelType,
+            Long channelId,
+            Long beforeId,
+            Pageable pageable
+    );
+
+    /**
+     * Messages in a channel newer than a given message id (the gap of a resuming client)
+     * @param channelType Type of channel
+     * @param channelId ID of the channel
+     * @param afterId Only messages with a larger id are returned
+     * @param pageable Page size
+     * @return Slice of messages, newest first (senders fetched in the same query)
+     */
+    @EntityGraph(attributePaths = "sender")
+    Slice<Message> findByChannelTypeAndChannelIdAndIdGreaterThanOrderByIdDesc(
+            String channelType,
+            Long channelId,
+            Long afterId,
+            Pageable pageable
     );
 }
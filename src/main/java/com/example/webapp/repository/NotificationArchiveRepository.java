@@ -0,0 +1,54 @@
+package com.example.webapp.repository;
+
+import com.example.webapp.entity.NotificationArchive;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+
+/**
+ * JPA repository for NotificationArchive entity
+ */
+@Repository
+public interface NotificationArchiveRepository extends JpaRepository<NotificationArchive, Long> {
+
+    /**
+     * Move one batch of expired notifications into the archive in its own short transaction.
+     * Expired means read and older than readCutoff, or anything older than expireCutoff.
+     * Rows locked by foreground transactions are skipped, and unread counters are
+     * decremented for any unread rows that were moved.
+     * @return number of notifications archived
+     */
+    @Transactional
+    @Modifying
+    @Query(value = "WITH expired AS ( " +
+            "    SELECT n.id, (n.read_flag OR n.id <= COALESCE(s.read_up_to_id, 0)) AS is_read " +
+            "    FROM notifications n " +
+            "    LEFT JOIN notification_user_state s ON s.user_id = n.user_id " +
+            "    WHERE n.created_at < :expireCutoff " +
+            "       OR (n.created_at < :readCutoff " +
+            "           AND (n.read_flag = true OR n.id <= COALESCE(s.read_up_to_id, 0))) " +
+            "    ORDER BY n.id " +
+            "    LIMIT :batchSize " +
+            "    FOR UPDATE OF n SKIP LOCKED " +
+            "), moved AS ( " +
+            "    DELETE FROM notifications n USING expired e WHERE n.id = e.id " +
+            "    RETURNING n.id, n.user_id, n.notification_type, n.title, n.message, n.reference_id, " +
+            "              n.reference_type, n.secondary_reference_id, e.is_read, n.created_at " +
+            "), counters AS ( " +
+            "    UPDATE notification_user_state s " +
+            "    SET unread_count = GREATEST(s.unread_count - d.cnt, 0) " +
+            "    FROM (SELECT user_id, COUNT(*) AS cnt FROM moved WHERE NOT is_read GROUP BY user_id) d " +
+            "    WHERE s.user_id = d.user_id " +
+            ") " +
+            "INSERT INTO notifications_archive (id, user_id, notification_type, title, message, reference_id, " +
+            "    reference_type, secondary_reference_id, read_flag, created_at, archived_at) " +
+            "SELECT id, user_id, notification_type, title, message, reference_id, " +
+            "    reference_type, secondary_reference_id, is_read, created_at, :now " +
+            "FROM moved",
+            nativeQuery = true)
+    int archiveBatch(LocalDateTime readCutoff, LocalDateTime expireCutoff, int batchSize, LocalDateTime now);
+}
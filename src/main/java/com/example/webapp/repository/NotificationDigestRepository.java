@@ -0,0 +1,36 @@
+package com.example.webapp.repository;
+
+import com.example.webapp.entity.NotificationDigest;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * JPA repository for NotificationDigest entity
+ */
+@Repository
+public interface NotificationDigestRepository extends JpaRepository<NotificationDigest, Long> {
+
+    /**
+     * Add one event to the user's pending digest for its type (single-row upsert)
+     */
+    @Modifying(flushAutomatically = true)
+    @Query(value = "INSERT INTO notification_digests (user_id, notification_type, pending_count, " +
+            "    last_title, last_message, first_event_at) " +
+            "VALUES (:userId, :type, 1, :title, :message, :now) " +
+            "ON CONFLICT (user_id, notification_type) DO UPDATE " +
+            "SET pending_count = notification_digests.pending_count + 1, " +
+            "    last_title = EXCLUDED.last_title, last_message = EXCLUDED.last_message",
+            nativeQuery = true)
+    int record(Long userId, String type, String title, String message, LocalDateTime now);
+
+    /**
+     * Remove and return all pending digests; events recorded afterwards start a new digest
+     */
+    @Query(value = "DELETE FROM notification_digests RETURNING *", nativeQuery = true)
+    List<NotificationDigest> claimAll();
+}
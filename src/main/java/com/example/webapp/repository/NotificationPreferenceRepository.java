@@ -0,0 +1,21 @@
+package com.example.webapp.repository;
+
+import com.example.webapp.entity.NotificationPreference;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * JPA repository for NotificationPreference entity
+ */
+@Repository
+public interface NotificationPreferenceRepository extends JpaRepository<NotificationPreference, Long> {
+
+    List<NotificationPreference> findByUserId(Long userId);
+
+    Optional<NotificationPreference> findByUserIdAndTypeAndProjectId(Long userId, String type, Long projectId);
+
+    Optional<NotificationPreference> findByUserIdAndTypeAndProjectIdIsNull(Long userId, String type);
+}
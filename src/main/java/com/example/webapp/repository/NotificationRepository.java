@@ -4,18 +4,74 @@ import com.example.webapp.entity.Notification;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.stereotype.Repository;
 
+import java.time.LocalDateTime;
 import java.util.List;
+import java.util.Optional;
 
 @Repository
 public interface NotificationRepository extends JpaRepository<Notification, Long> {
     
     Page<Notification> findByUserIdOrderByCreatedAtDesc(Long userId, Pageable pageable);
     
-    List<Notification> findByUserIdAndReadFalseOrderByCreatedAtDesc(Long userId);
-    
-    long countByUserIdAndReadFalse(Long userId);
+    /**
+     * Unread notifications: above the user's read watermark and not individually marked read
+     */
+    @Query("SELECT n FROM Notification n WHERE n.userId = :userId AND n.id > :readUpToId AND n.read = false " +
+           "ORDER BY n.createdAt DESC")
+    List<Notification> findUnread(Long userId, long readUpToId);
+
+    /**
+     * Flag a single notification above the watermark as read
+     * @return 1 if it was unread, 0 otherwise
+     */
+    @Modifying
+    @Query("UPDATE Notification n SET n.read = true " +
+           "WHERE n.id = :id AND n.userId = :userId AND n.read = false " +
+           "AND n.id > COALESCE((SELECT s.readUpToId FROM NotificationUserState s WHERE s.userId = :userId), 0)")
+    int markRead(Long id, Long userId);
     
     List<Notification> findTop10ByUserIdOrderByCreatedAtDesc(Long userId);
+
+    /**
+     * Fold a repeated event into the recipient's newest unread notification with the same
+     * (type, referenceId) created since the given time, refreshing its text and timestamp.
+     * @return id of the updated notification, empty if there was nothing to coalesce into
+     */
+    @Query(value = "UPDATE notifications SET title = :title, message = :message, created_at = :now " +
+            "WHERE id = (SELECT n.id FROM notifications n " +
+            "            WHERE n.user_id = :userId AND n.notification_type = :type " +
+            "              AND n.reference_id = :referenceId AND n.read_flag = false AND n.created_at >= :since " +
+            "              AND n.id > COALESCE((SELECT s.read_up_to_id FROM notification_user_state s " +
+            "                                   WHERE s.user_id = :userId), 0) " +
+            "            ORDER BY n.created_at DESC LIMIT 1 FOR UPDATE) " +
+            "RETURNING id",
+            nativeQuery = true)
+    Optional<Long> coalesce(Long userId, String type, Long referenceId, String title, String message,
+                            LocalDateTime since, LocalDateTime now);
+
+    /**
+     * Notifications created after the given id, newest first (resume after a WebSocket reconnect)
+     */
+    List<Notification> findByUserIdAndIdGreaterThanOrderByIdDesc(Long userId, Long id, Pageable pageable);
+
+    /**
+     * Notifications at or below the given id created since the given time, newest first
+     * (rows that may have committed after a higher id was handed out as resume token)
+     */
+    @Query("SELECT n FROM Notification n WHERE n.userId = :userId AND n.id <= :upToId AND n.createdAt >= :since " +
+           "ORDER BY n.id DESC")
+    List<Notification> findCreatedSinceUpTo(Long userId, Long upToId, LocalDateTime since, Pageable pageable);
+
+    @Query("SELECT n.createdAt FROM Notification n WHERE n.id = :id")
+    Optional<LocalDateTime> findCreatedAtById(Long id);
+
+    /**
+     * Id of the user's newest notification, used as the initial resume token
+     */
+    @Query("SELECT MAX(n.id) FROM Notification n WHERE n.userId = :userId")
+    Optional<Long> findLatestIdByUserId(Long userId);
 }
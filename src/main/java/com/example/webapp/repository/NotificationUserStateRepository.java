@@ -0,0 +1,92 @@
+package com.example.webapp.repository;
+
+import com.example.webapp.entity.NotificationUserState;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.stereotype.Repository;
+
+import java.util.Optional;
+
+/**
+ * JPA repository for NotificationUserState entity
+ */
+@Repository
+public interface NotificationUserStateRepository extends JpaRepository<NotificationUserState, Long> {
+
+    /**
+     * Unread notifications and team events of a user who has no state row yet
+     * (no watermark, so only per-row flags and team cursors apply)
+     */
+    String INITIAL_UNREAD_COUNT =
+            "(SELECT COUNT(*) FROM notifications WHERE user_id = :userId AND read_flag = false) + " +
+            "(SELECT COUNT(*) FROM team_notification_events e " +
+            " WHERE " + TeamNotificationEventRepository.VISIBLE_TO_USER + TeamNotificationEventRepository.UNREAD_BY_USER + ")";
+
+    /**
+     * Apply a change to the user's unread counter.
+     * A missing row is seeded from the notifications and team events tables, which already
+     * include the change being applied, so the delta only applies to existing rows.
+     */
+    @Modifying(flushAutomatically = true)
+    @Query(value = "INSERT INTO notification_user_state (user_id, unread_count) " +
+            "SELECT :userId, " + INITIAL_UNREAD_COUNT + " " +
+            "ON CONFLICT (user_id) DO UPDATE " +
+            "SET unread_count = GREATEST(notification_user_state.unread_count + :delta, 0)",
+            nativeQuery = true)
+    int applyUnreadDelta(Long userId, long delta);
+
+    /**
+     * Create the user's counter from the notifications and team events tables if it does not exist yet
+     */
+    @Modifying
+    @Query(value = "INSERT INTO notification_user_state (user_id, unread_count) " +
+            "SELECT :userId, " + INITIAL_UNREAD_COUNT + " " +
+            "ON CONFLICT (user_id) DO NOTHING",
+            nativeQuery = true)
+    int seedUnreadCount(Long userId);
+
+    /**
+     * Lock the user's row until the transaction ends, serializing read-state changes that
+     * derive the counter change from other rows
+     */
+    @Query(value = "SELECT user_id FROM notification_user_state WHERE user_id = :userId FOR UPDATE",
+            nativeQuery = true)
+    Optional<Long> lockById(Long userId);
+
+    /**
+     * Move the user's read watermark to their newest notification or team event and zero
+     * the counter (mark all read as a single-row upsert)
+     */
+    @Modifying(flushAutomatically = true)
+    @Query(value = "INSERT INTO notification_user_state (user_id, unread_count, read_up_to_id) " +
+            "VALUES (:userId, 0, GREATEST(" +
+            "    COALESCE((SELECT MAX(n.id) FROM notifications n WHERE n.user_id = :userId), 0), " +
+            "    COALESCE((SELECT MAX(e.id) FROM team_notification_events e " +
+            "              WHERE " + TeamNotificationEventRepository.VISIBLE_TO_USER + "), 0))) " +
+            "ON CONFLICT (user_id) DO UPDATE " +
+            "SET read_up_to_id = GREATEST(COALESCE(notification_user_state.read_up_to_id, 0), EXCLUDED.read_up_to_id), " +
+            "    unread_count = 0",
+            nativeQuery = true)
+    int markAllRead(Long userId);
+
+    /**
+     * Recompute counters that drifted from the notifications and team events tables
+     */
+    @Modifying
+    @Query(value = "UPDATE notification_user_state s " +
+            "SET unread_count = c.cnt " +
+            "FROM (SELECT s2.user_id, " +
+            "             (SELECT COUNT(*) FROM notifications n " +
+            "              WHERE n.user_id = s2.user_id AND n.read_flag = false " +
+            "                AND n.id > COALESCE(s2.read_up_to_id, 0)) + " +
+            "             (SELECT COUNT(*) FROM team_notification_events e " +
+            "              WHERE e.recipient_ids @> ARRAY[s2.user_id] " +
+            "                AND e.id > GREATEST(COALESCE(s2.read_up_to_id, 0), " +
+            "                    COALESCE((SELECT c2.read_up_to_id FROM team_notification_cursors c2 " +
+            "                              WHERE c2.user_id = s2.user_id AND c2.team_id = e.team_id), 0))) AS cnt " +
+            "      FROM notification_user_state s2) c " +
+            "WHERE s.user_id = c.user_id AND s.unread_count <> c.cnt",
+            nativeQuery = true)
+    int reconcileUnreadCounts();
+}
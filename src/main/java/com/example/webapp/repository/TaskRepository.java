@@ -5,6 +5,7 @@ import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.JpaSpecificationExecutor;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.stereotype.Repository;
 
@@ -107,4 +108,65 @@ public interface TaskRepository extends JpaRepository<Task, Long>, JpaSpecificat
      */
     @Query("SELECT DISTINCT t FROM Task t LEFT JOIN FETCH t.assignees LEFT JOIN FETCH t.tags WHERE t.projectId = :projectId")
     List<Task> findByProjectIdWithAssigneesAndTags(Long projectId);
+
+    /**
+     * Move last activity forward to :at; tasks still waiting for the backfill keep NULL,
+     * which marks their counters as not yet counted
+     */
+    String ADVANCE_LAST_ACTIVITY =
+            "CASE WHEN last_activity_at IS NOT NULL THEN GREATEST(last_activity_at, :at) END ";
+
+    /**
+     * Apply a change to the task's comment counter and move its last activity forward to at
+     */
+    @Modifying
+    @Query(value = "UPDATE tasks SET comment_count = GREATEST(comment_count + :delta, 0), " +
+            "last_activity_at = " + ADVANCE_LAST_ACTIVITY +
+            "WHERE id = :taskId",
+            nativeQuery = true)
+    int applyCommentDelta(Long taskId, int delta, LocalDateTime at);
+
+    /**
+     * Apply a change to the task's chat message counter and move its last activity forward to at
+     */
+    @Modifying
+    @Query(value = "UPDATE tasks SET message_count = GREATEST(message_count + :delta, 0), " +
+            "last_activity_at = " + ADVANCE_LAST_ACTIVITY +
+            "WHERE id = :taskId",
+            nativeQuery = true)
+    int applyMessageDelta(Long taskId, int delta, LocalDateTime at);
+
+    /**
+     * Read the task's comment counter without loading the entity
+     */
+    @Query("SELECT t.commentCount FROM Task t WHERE t.id = :taskId")
+    Optional<Integer> findCommentCountById(Long taskId);
+
+    /**
+     * Lock a batch of tasks whose activity was never counted (from before the counters existed)
+     * until the transaction ends; tasks locked by a concurrent writer are left for the next batch
+     */
+    @Query(value = "SELECT id FROM tasks WHERE last_activity_at IS NULL " +
+            "ORDER BY id LIMIT :batchSize FOR UPDATE SKIP LOCKED",
+            nativeQuery = true)
+    List<Long> lockUncountedBatch(int batchSize);
+
+    /**
+     * Count the activity of tasks locked by lockUncountedBatch from the comments and messages tables.
+     * Runs as its own statement after the locks are held, so it sees every committed row and
+     * writes still in progress apply their increment after this commits.
+     * A task without comments or messages gets its creation time as last activity.
+     */
+    @Modifying
+    @Query(value = "UPDATE tasks t " +
+            "SET comment_count = (SELECT COUNT(*) FROM comments c WHERE c.task_id = t.id), " +
+            "    message_count = (SELECT COUNT(*) FROM messages m " +
+            "                     WHERE m.channel_type = 'task' AND m.channel_id = t.id), " +
+            "    last_activity_at = COALESCE(GREATEST(" +
+            "        (SELECT MAX(c.created_at) FROM comments c WHERE c.task_id = t.id), " +
+            "        (SELECT MAX(m.created_at) FROM messages m " +
+            "         WHERE m.channel_type = 'task' AND m.channel_id = t.id)), t.created_at, CURRENT_TIMESTAMP) " +
+            "WHERE t.id IN (:taskIds)",
+            nativeQuery = true)
+    int backfillActivity(List<Long> taskIds);
 }
@@ -0,0 +1,31 @@
+package com.example.webapp.repository;
+
+import com.example.webapp.entity.TeamNotificationCursor;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+
+/**
+ * JPA repository for TeamNotificationCursor entity
+ */
+@Repository
+public interface TeamNotificationCursorRepository extends JpaRepository<TeamNotificationCursor, Long> {
+
+    List<TeamNotificationCursor> findByUserId(Long userId);
+
+    /**
+     * Move the user's cursor for a team forward to eventId (never backwards)
+     * @return 1 if the cursor was created or moved, 0 if it was already past eventId
+     */
+    @Modifying(flushAutomatically = true)
+    @Query(value = "INSERT INTO team_notification_cursors (user_id, team_id, read_up_to_id) " +
+            "VALUES (:userId, :teamId, :eventId) " +
+            "ON CONFLICT (user_id, team_id) DO UPDATE " +
+            "SET read_up_to_id = EXCLUDED.read_up_to_id " +
+            "WHERE team_notification_cursors.read_up_to_id < EXCLUDED.read_up_to_id",
+            nativeQuery = true)
+    int advance(Long userId, Long teamId, Long eventId);
+}
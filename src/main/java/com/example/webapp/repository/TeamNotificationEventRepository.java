@@ -0,0 +1,132 @@
+package com.example.webapp.repository;
+
+import com.example.webapp.entity.TeamNotificationEvent;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * JPA repository for TeamNotificationEvent entity
+ */
+@Repository
+public interface TeamNotificationEventRepository extends JpaRepository<TeamNotificationEvent, Long> {
+
+    /**
+     * Events the user receives: those whose recipients, fixed when the event was written, include the user
+     * (matched with @> so the GIN index on recipient_ids applies)
+     */
+    String VISIBLE_TO_USER = "e.recipient_ids @> ARRAY[CAST(:userId AS bigint)] ";
+
+    /**
+     * Above both the user's read watermark and their cursor for the event's team
+     */
+    String UNREAD_BY_USER =
+            "AND e.id > GREATEST(" +
+            "    COALESCE((SELECT s.read_up_to_id FROM notification_user_state s WHERE s.user_id = :userId), 0), " +
+            "    COALESCE((SELECT c.read_up_to_id FROM team_notification_cursors c " +
+            "              WHERE c.user_id = :userId AND c.team_id = e.team_id), 0)) ";
+
+    /**
+     * Store one event for the whole team, taking its id from the notifications sequence
+     * @param recipientIds Users who get the event in-app
+     * @return id of the new event
+     */
+    @Query(value = "INSERT INTO team_notification_events (id, team_id, project_id, notification_type, title, " +
+            "    message, reference_id, reference_type, secondary_reference_id, actor_id, recipient_ids, created_at) " +
+            "VALUES (nextval(pg_get_serial_sequence('notifications', 'id')), :teamId, :projectId, :type, :title, " +
+            "    :message, :referenceId, :referenceType, :secondaryReferenceId, :actorId, :recipientIds, :createdAt) " +
+            "RETURNING id",
+            nativeQuery = true)
+    Long insertEvent(Long teamId, Long projectId, String type, String title, String message, Long referenceId,
+                     String referenceType, Long secondaryReferenceId, Long actorId, Long[] recipientIds,
+                     LocalDateTime createdAt);
+
+    /**
+     * Fill in the recipients of events written before they were stored with the event,
+     * from the team's current leaders and manager; runs once, as later events carry them
+     * @return number of events filled in
+     */
+    @Transactional
+    @Modifying
+    @Query(value = "UPDATE team_notification_events e " +
+            "SET recipient_ids = ARRAY(" +
+            "    SELECT a.user_id FROM (" +
+            "        SELECT t.manager_id AS user_id FROM teams t WHERE t.id = e.team_id AND t.manager_id IS NOT NULL " +
+            "        UNION SELECT tl.user_id FROM team_leaders tl WHERE tl.team_id = e.team_id) a " +
+            "    WHERE e.actor_id IS NULL OR a.user_id <> e.actor_id) " +
+            "WHERE e.recipient_ids IS NULL",
+            nativeQuery = true)
+    int backfillRecipients();
+
+    /**
+     * Newest events visible to the user
+     */
+    @Query(value = "SELECT e.* FROM team_notification_events e WHERE " + VISIBLE_TO_USER +
+            "ORDER BY e.id DESC LIMIT :limit",
+            nativeQuery = true)
+    List<TeamNotificationEvent> findLatestForUser(Long userId, int limit);
+
+    @Query(value = "SELECT COUNT(*) FROM team_notification_events e WHERE " + VISIBLE_TO_USER,
+            nativeQuery = true)
+    long countForUser(Long userId);
+
+    @Query(value = "SELECT e.* FROM team_notification_events e WHERE " + VISIBLE_TO_USER + UNREAD_BY_USER +
+            "ORDER BY e.id DESC",
+            nativeQuery = true)
+    List<TeamNotificationEvent> findUnreadForUser(Long userId);
+
+    /**
+     * Unread events of one team up to eventId: those a cursor move to eventId marks read
+     */
+    @Query(value = "SELECT COUNT(*) FROM team_notification_events e " +
+            "WHERE e.team_id = :teamId AND e.id <= :eventId AND " + VISIBLE_TO_USER + UNREAD_BY_USER,
+            nativeQuery = true)
+    long countUnreadForUserUpTo(Long userId, Long teamId, Long eventId);
+
+    /**
+     * Events visible to the user created after the given id, newest first (resume after a WebSocket reconnect)
+     */
+    @Query(value = "SELECT e.* FROM team_notification_events e WHERE e.id > :afterId AND " + VISIBLE_TO_USER +
+            "ORDER BY e.id DESC LIMIT :limit",
+            nativeQuery = true)
+    List<TeamNotificationEvent> findForUserAfter(Long userId, long afterId, int limit);
+
+    /**
+     * Events visible to the user at or below the given id created since the given time, newest first
+     */
+    @Query(value = "SELECT e.* FROM team_notification_events e " +
+            "WHERE e.id <= :upToId AND e.created_at >= :since AND " + VISIBLE_TO_USER +
+            "ORDER BY e.id DESC LIMIT :limit",
+            nativeQuery = true)
+    List<TeamNotificationEvent> findForUserCreatedSinceUpTo(Long userId, long upToId, LocalDateTime since, int limit);
+
+    @Query(value = "SELECT e.created_at FROM team_notification_events e WHERE e.id = :id",
+            nativeQuery = true)
+    Optional<LocalDateTime> findCreatedAtById(Long id);
+
+    @Query(value = "SELECT MAX(e.id) FROM team_notification_events e WHERE " + VISIBLE_TO_USER,
+            nativeQuery = true)
+    Optional<Long> findLatestIdForUser(Long userId);
+
+    @Query(value = "SELECT e.* FROM team_notification_events e WHERE e.id = :id AND " + VISIBLE_TO_USER,
+            nativeQuery = true)
+    Optional<TeamNotificationEvent> findVisibleToUser(Long id, Long userId);
+
+    /**
+     * Delete one batch of events older than the cutoff in its own short transaction
+     * @return number of events deleted
+     */
+    @Transactional
+    @Modifying
+    @Query(value = "DELETE FROM team_notification_events WHERE id IN ( " +
+            "    SELECT id FROM team_notification_events WHERE created_at < :cutoff " +
+            "    ORDER BY id LIMIT :batchSize FOR UPDATE SKIP LOCKED)",
+            nativeQuery = true)
+    int deleteBatchCreatedBefore(LocalDateTime cutoff, int batchSize);
+}
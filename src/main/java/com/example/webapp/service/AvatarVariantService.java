@@ -0,0 +1,294 @@
+package com.example.webapp.service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.stereotype.Service;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Fixed-size square thumbnails of avatars, generated in the background after upload.
+ * For an avatar stored as "avatars/<uuid>.png" the variants are "avatars/<uuid>_<size>.png"
+ * (".jpg" for JPEG originals), so they are found from the avatar key alone and replaced
+ * together with it. Until a variant exists, or if it cannot be made (an image ImageIO
+ * cannot decode, such as WebP, or one smaller than the variant), the original is served.
+ */
+@Service
+@Slf4j
+@ManagedResource(objectName = "webapp:type=AvatarVariantService", description = "Avatar thumbnail generation")
+public class AvatarVariantService {
+
+    /**
+     * Larger images are not decoded at all
+     */
+    private static final long MAX_SOURCE_PIXELS = 50_000_000L;
+
+    @Autowired
+    private StorageService storageService;
+
+    @Value("${app.avatars.variant-sizes:32,64,128}")
+    private int[] sizes;
+
+    @Value("${app.avatars.variant-threads:1}")
+    private int threads;
+
+    @Value("${app.avatars.variant-queue-capacity:100}")
+    private int queueCapacity;
+
+    private ThreadPoolExecutor executor;
+
+    private final AtomicLong generatedVariants = new AtomicLong();
+    private final AtomicLong skippedAvatars = new AtomicLong();
+    private final AtomicLong failedAvatars = new AtomicLong();
+
+    @PostConstruct
+    public void start() {
+        sizes = Arrays.stream(sizes).filter(size -> size > 0).sorted().distinct().toArray();
+        AtomicInteger threadIndex = new AtomicInteger();
+        executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                task -> {
+                    Thread thread = new Thread(task, "avatar-variants-" + threadIndex.getAndIncrement());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        executor.shutdown();
+        if (!executor.awaitTermination(10, TimeUnit.SECONDS)) {
+            log.warn("Avatar variant generation did not finish; {} avatar(s) left without variants", executor.getQueue().size());
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Queue variant generation for a stored avatar; when the queue is full the avatar keeps
+     * being served in its original size
+     */
+    public void generate(String avatarKey) {
+        try {
+            executor.execute(() -> generateNow(avatarKey));
+        } catch (RejectedExecutionException e) {
+            skippedAvatars.incrementAndGet();
+            log.warn("Avatar variant queue full; {} will be served in its original size", avatarKey);
+        }
+    }
+
+    /**
+     * Pick the key to serve for a requested display size: the smallest existing variant at least
+     * that large, else the original
+     * @param avatarKey Key of the original avatar
+     * @param size Requested size in pixels (null for the original)
+     */
+    public String resolve(String avatarKey, Integer size) {
+        if (size == null) {
+            return avatarKey;
+        }
+        for (int variantSize : sizes) {
+            if (variantSize >= size) {
+                String variantKey = variantKey(avatarKey, variantSize);
+                if (Files.isRegularFile(storageService.resolveStorageKey(variantKey))) {
+                    return variantKey;
+                }
+            }
+        }
+        return avatarKey;
+    }
+
+    /**
+     * Whether a variant could still be made for the size (an original served for it may be temporary)
+     */
+    public boolean hasVariantSize(Integer size) {
+        return size != null && sizes.length > 0 && size <= sizes[sizes.length - 1];
+    }
+
+    /**
+     * Delete an avatar together with its variants
+     */
+    public void delete(String avatarKey) {
+        storageService.deleteFile(avatarKey);
+        for (int size : sizes) {
+            storageService.deleteFile(variantKey(avatarKey, size));
+        }
+    }
+
+    private static String variantKey(String avatarKey, int size) {
+        int dot = avatarKey.lastIndexOf('.');
+        String base = dot > avatarKey.lastIndexOf('/') ? avatarKey.substring(0, dot) : avatarKey;
+        return base + "_" + size + (isJpeg(avatarKey) ? ".jpg" : ".png");
+    }
+
+    private static boolean isJpeg(String avatarKey) {
+        return avatarKey.endsWith(".jpg");
+    }
+
+    private void generateNow(String avatarKey) {
+        long start = System.currentTimeMillis();
+        try {
+            Path source = storageService.resolveStorageKey(avatarKey);
+            BufferedImage image = readForThumbnails(source);
+            if (image == null) {
+                skippedAvatars.incrementAndGet();
+                log.debug("No variants for {}: not a decodable image", avatarKey);
+                return;
+            }
+            BufferedImage square = cropSquare(image);
+            int written = 0;
+            for (int size : sizes) {
+                if (size >= square.getWidth()) {
+                    break;
+                }
+                BufferedImage thumbnail = scale(square, size);
+                storageService.writeFile(variantKey(avatarKey, size), out -> write(thumbnail, isJpeg(avatarKey), out));
+                written++;
+            }
+            generatedVariants.addAndGet(written);
+
+            // Replaced while we worked: do not leave variants of a deleted avatar behind
+            if (!Files.exists(source)) {
+                delete(avatarKey);
+                return;
+            }
+            log.info("Generated {} variant(s) of {} in {} ms", written, avatarKey, System.currentTimeMillis() - start);
+        } catch (IOException | RuntimeException e) {
+            failedAvatars.incrementAndGet();
+            log.warn("Could not generate variants of {}: {}", avatarKey, e.getMessage());
+        }
+    }
+
+    /**
+     * Decode the first frame, subsampled while reading so that no more pixels are decoded
+     * than the largest variant needs (twice its size on the short side, for smooth scaling)
+     */
+    private BufferedImage readForThumbnails(Path source) throws IOException {
+        try (ImageInputStream in = ImageIO.createImageInputStream(source.toFile())) {
+            if (in == null) {
+                return null;
+            }
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+            if (!readers.hasNext()) {
+                return null;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(in, true, true);
+                int width = reader.getWidth(0);
+                int height = reader.getHeight(0);
+                if ((long) width * height > MAX_SOURCE_PIXELS) {
+                    log.warn("Avatar {} is {}x{}, too large to make variants of", source.getFileName(), width, height);
+                    return null;
+                }
+                int largest = sizes.length > 0 ? sizes[sizes.length - 1] : 1;
+                int step = Math.max(1, Math.min(width, height) / (largest * 2));
+                ImageReadParam param = reader.getDefaultReadParam();
+                param.setSourceSubsampling(step, step, 0, 0);
+                return reader.read(0, param);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    private static BufferedImage cropSquare(BufferedImage image) {
+        int side = Math.min(image.getWidth(), image.getHeight());
+        return image.getSubimage((image.getWidth() - side) / 2, (image.getHeight() - side) / 2, side, side);
+    }
+
+    /**
+     * Scale down by halving steps, then once to the exact size; a single large step would skip pixels
+     */
+    private static BufferedImage scale(BufferedImage square, int size) {
+        BufferedImage current = square;
+        int side = square.getWidth();
+        do {
+            side = Math.max(size, side / 2);
+            BufferedImage next = new BufferedImage(side, side, BufferedImage.TYPE_INT_ARGB);
+            Graphics2D graphics = next.createGraphics();
+            try {
+                graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+                graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+                graphics.drawImage(current, 0, 0, side, side, null);
+            } finally {
+                graphics.dispose();
+            }
+            current = next;
+        } while (side > size);
+        return current;
+    }
+
+    private static void write(BufferedImage image, boolean jpeg, OutputStream out) throws IOException {
+        if (!jpeg) {
+            try (MemoryCacheImageOutputStream output = new MemoryCacheImageOutputStream(out)) {
+                ImageIO.write(image, "png", output);
+            }
+            return;
+        }
+        // JPEG has no alpha channel
+        BufferedImage rgb = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = rgb.createGraphics();
+        try {
+            graphics.drawImage(image, 0, 0, null);
+        } finally {
+            graphics.dispose();
+        }
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        try (MemoryCacheImageOutputStream output = new MemoryCacheImageOutputStream(out)) {
+            writer.setOutput(output);
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(0.85f);
+            writer.write(null, new IIOImage(rgb, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+    }
+
+    @ManagedAttribute(description = "Avatars waiting for variants")
+    public int getQueuedAvatars() {
+        return executor.getQueue().size();
+    }
+
+    @ManagedAttribute(description = "Variants written since startup")
+    public long getGeneratedVariants() {
+        return generatedVariants.get();
+    }
+
+    @ManagedAttribute(description = "Avatars left without variants (queue full or not decodable)")
+    public long getSkippedAvatars() {
+        return skippedAvatars.get();
+    }
+
+    @ManagedAttribute(description = "Avatars whose variant generation failed")
+    public long getFailedAvatars() {
+        return failedAvatars.get();
+    }
+}
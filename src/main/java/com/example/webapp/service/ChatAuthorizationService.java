@@ -0,0 +1,214 @@
+package com.example.webapp.service;
+
+import com.example.webapp.entity.User;
+import com.example.webapp.event.MembershipChangedEvent;
+import com.fasterxml.jackson.databind.JsonNode;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.web.socket.messaging.SessionDisconnectEvent;
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caches chat channel authorization per WebSocket session.
+ * A channel is checked once (on join or first use) and the grant, with the
+ * resolved user, is kept in the session attributes; later messages on that
+ * channel need no permission queries. Grants are also remembered per user for
+ * user-grant-ttl-ms, so a reconnecting client re-joins without queries. Grants are dropped when a
+ * MembershipChangedEvent affects their user; with the postgres broker the
+ * event is forwarded so other nodes drop their grants too.
+ */
+@Service
+@Slf4j
+public class ChatAuthorizationService {
+
+    private static final Set<String> CHANNEL_TYPES = Set.of("team", "project", "task");
+
+    private static final String GRANTS_ATTRIBUTE = "chatGrants";
+    private static final String MEMBERSHIP_EVENT = "membership-changed";
+
+    @Autowired
+    private ChatService chatService;
+
+    @Autowired
+    private ObjectProvider<PostgresMessageBus> messageBus;
+
+    /**
+     * Session attributes of sessions holding grants, by session id
+     */
+    private final Map<String, Map<String, Object>> sessions = new ConcurrentHashMap<>();
+
+    /**
+     * Recent grants by user email, then channel key
+     */
+    private final Map<String, Map<String, UserGrant>> userGrants = new ConcurrentHashMap<>();
+
+    @Value("${app.chat.user-grant-ttl-ms:300000}")
+    private long userGrantTtlMs;
+
+    /**
+     * Bumped on every revocation so a check that raced with one is not cached
+     */
+    private final AtomicLong revocations = new AtomicLong();
+
+    /**
+     * Get the session's grant for a channel, checking access and caching it on first use
+     * @throws IllegalArgumentException if the user has no access to the channel
+     */
+    public Grant authorize(String sessionId, Map<String, Object> sessionAttributes,
+                           String channelType, Long channelId, String userEmail) {
+        Map<String, Grant> grants = grants(sessionId, sessionAttributes);
+        String key = channelType + ":" + channelId;
+        Grant grant = grants != null ? grants.get(key) : null;
+        if (grant != null) {
+            return grant;
+        }
+        UserGrant recent = userGrants.getOrDefault(userEmail, Map.of()).get(key);
+        if (recent != null && recent.expiresAt() > System.currentTimeMillis()) {
+            if (grants != null) {
+                grants.put(key, recent.grant());
+            }
+            return recent.grant();
+        }
+
+        long revocationsBefore = revocations.get();
+        User user = chatService.verifyChannelAccess(channelType, channelId, userEmail);
+        grant = new Grant(user.getId(), user.getEmail(), user.getName());
+        if (revocations.get() == revocationsBefore) {
+            if (grants != null) {
+                grants.put(key, grant);
+            }
+            userGrants.computeIfAbsent(userEmail, email -> new ConcurrentHashMap<>())
+                    .put(key, new UserGrant(grant, System.currentTimeMillis() + userGrantTtlMs));
+        }
+        return grant;
+    }
+
+    /**
+     * Get the session's grant for a channel if it already holds one; never checks access
+     * @return the grant, or null if the session has not been authorized for the channel
+     */
+    public Grant cachedGrant(Map<String, Object> sessionAttributes, String channelType, Long channelId) {
+        Map<String, Grant> grants = sessionAttributes != null ? grantsOf(sessionAttributes) : null;
+        return grants != null ? grants.get(channelType + ":" + channelId) : null;
+    }
+
+    /**
+     * Parse a channel path of the form "{team|project|task}/{id}", as used in channel topics
+     * @return the channel, or null if the path names no channel
+     */
+    public static Channel parseChannel(String path) {
+        int slash = path.indexOf('/');
+        if (slash < 1 || !CHANNEL_TYPES.contains(path.substring(0, slash))) {
+            return null;
+        }
+        String id = path.substring(slash + 1);
+        if (id.isEmpty() || id.length() > 18 || !id.chars().allMatch(Character::isDigit)) {
+            return null;
+        }
+        return new Channel(path.substring(0, slash), Long.parseLong(id));
+    }
+
+    /**
+     * Forget expired per-user grants
+     */
+    @Scheduled(fixedDelayString = "${app.chat.user-grant-ttl-ms:300000}")
+    public void purgeExpiredUserGrants() {
+        long now = System.currentTimeMillis();
+        userGrants.values().forEach(byChannel -> byChannel.values().removeIf(g -> g.expiresAt() <= now));
+        userGrants.values().removeIf(Map::isEmpty);
+    }
+
+    @PostConstruct
+    public void init() {
+        messageBus.ifAvailable(bus -> bus.onEvent(MEMBERSHIP_EVENT, (node, body) -> {
+            if (!node.equals(bus.getNodeId())) {
+                revoke(new MembershipChangedEvent(userIdsOf(body)));
+            }
+        }));
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onMembershipChanged(MembershipChangedEvent event) {
+        revoke(event);
+        messageBus.ifAvailable(bus -> bus.publishEvent(MEMBERSHIP_EVENT, event));
+    }
+
+    private void revoke(MembershipChangedEvent event) {
+        revocations.incrementAndGet();
+        int revoked = 0;
+        for (Map<String, Object> attributes : sessions.values()) {
+            Map<String, Grant> grants = grantsOf(attributes);
+            if (grants != null) {
+                int before = grants.size();
+                grants.values().removeIf(grant -> event.affects(grant.userId()));
+                revoked += before - grants.size();
+            }
+        }
+        for (Map<String, UserGrant> byChannel : userGrants.values()) {
+            int before = byChannel.size();
+            byChannel.values().removeIf(recent -> event.affects(recent.grant().userId()));
+            revoked += before - byChannel.size();
+        }
+        if (revoked > 0) {
+            log.info("Revoked {} chat channel grant(s) after membership change", revoked);
+        }
+    }
+
+    private static Set<Long> userIdsOf(JsonNode event) {
+        JsonNode userIds = event.path("userIds");
+        if (!userIds.isArray()) {
+            return null;
+        }
+        Set<Long> ids = new HashSet<>();
+        userIds.forEach(id -> ids.add(id.asLong()));
+        return ids;
+    }
+
+    @EventListener
+    public void onSessionDisconnect(SessionDisconnectEvent event) {
+        sessions.remove(event.getSessionId());
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, Grant> grants(String sessionId, Map<String, Object> sessionAttributes) {
+        if (sessionId == null || sessionAttributes == null) {
+            return null;
+        }
+        Map<String, Grant> grants = (Map<String, Grant>) sessionAttributes
+                .computeIfAbsent(GRANTS_ATTRIBUTE, k -> new ConcurrentHashMap<String, Grant>());
+        sessions.putIfAbsent(sessionId, sessionAttributes);
+        return grants;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Grant> grantsOf(Map<String, Object> sessionAttributes) {
+        return (Map<String, Grant>) sessionAttributes.get(GRANTS_ATTRIBUTE);
+    }
+
+    /**
+     * Permission to use one chat channel, with the user it was resolved for
+     */
+    public record Grant(Long userId, String email, String name) {
+    }
+
+    /**
+     * A chat channel
+     */
+    public record Channel(String type, Long id) {
+    }
+
+    private record UserGrant(Grant grant, long expiresAt) {
+    }
+}
@@ -0,0 +1,239 @@
+package com.example.webapp.service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.stereotype.Service;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Ordered per-channel processing of chat work.
+ * Each channel (channelType/channelId) hashes onto one of a fixed set of lanes; a lane
+ * is a bounded queue drained by a single thread, so work for one channel runs
+ * in submission order (message ids follow broadcast order) while a slow save or a hot
+ * channel only holds up the channels sharing its lane. A full lane rejects new work.
+ * Ordering is per node; with the postgres broker each node orders its own senders.
+ * Depends on the write-behind writer so queued work is finished before the writer stops.
+ */
+@Service
+@Slf4j
+@DependsOn("chatMessageWriter")
+@ManagedResource(objectName = "webapp:type=ChatDispatcher", description = "Per-channel ordered chat dispatch lanes")
+public class ChatDispatcher {
+
+    /**
+     * Lanes (one thread each); 0 means twice the number of CPU cores
+     */
+    @Value("${app.chat.dispatch.lanes:0}")
+    private int laneCount;
+
+    @Value("${app.chat.dispatch.queue-capacity:10000}")
+    private int queueCapacity;
+
+    /**
+     * How long a synchronous caller (REST) waits for its turn on the lane
+     */
+    @Value("${app.chat.dispatch.call-timeout-ms:10000}")
+    private long callTimeoutMs;
+
+    @Value("${app.chat.dispatch.shutdown-timeout-ms:10000}")
+    private long shutdownTimeoutMs;
+
+    private Lane[] lanes;
+    private volatile boolean running;
+
+    private final AtomicLong completedTasks = new AtomicLong();
+    private final AtomicLong rejectedTasks = new AtomicLong();
+    private final AtomicLong failedTasks = new AtomicLong();
+
+    @PostConstruct
+    public void start() {
+        if (laneCount < 1) {
+            laneCount = Runtime.getRuntime().availableProcessors() * 2;
+        }
+        running = true;
+        lanes = new Lane[laneCount];
+        for (int i = 0; i < laneCount; i++) {
+            lanes[i] = new Lane(i);
+        }
+        log.info("Chat dispatch started with {} lanes (queue {} each)", laneCount, queueCapacity);
+    }
+
+    /**
+     * Let every lane finish what is queued; runs before the chat writer stops
+     */
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        running = false;
+        long deadline = System.currentTimeMillis() + shutdownTimeoutMs;
+        for (Lane lane : lanes) {
+            lane.thread.join(Math.max(1, deadline - System.currentTimeMillis()));
+        }
+        int left = getQueuedTasks();
+        if (left > 0) {
+            log.error("Chat dispatch did not finish within {} ms; {} task(s) dropped", shutdownTimeoutMs, left);
+        } else {
+            log.info("Chat dispatch stopped; {} task(s) run in total", completedTasks.get());
+        }
+    }
+
+    /**
+     * Queue work on the channel's lane
+     * @throws IllegalStateException if the lane is full
+     */
+    public void dispatch(String channelType, Long channelId, Runnable task) {
+        if (!running) {
+            // Shutting down; the WebSocket transport is already closed, so run in place
+            task.run();
+            return;
+        }
+        Lane lane = laneFor(channelType, channelId);
+        if (!lane.queue.offer(task)) {
+            rejectedTasks.incrementAndGet();
+            log.warn("Chat lane {} full ({} tasks); rejecting work for channel {}/{}",
+                    lane.index, lane.queue.size(), channelType, channelId);
+            throw new IllegalStateException("Chat is busy, please retry");
+        }
+    }
+
+    /**
+     * Run work on the channel's lane and wait for its result
+     * @return the result of task
+     * @throws IllegalStateException if the lane is full or the work did not start within call-timeout-ms
+     *         (it is then never run); exceptions thrown by task are rethrown as they are
+     */
+    public <T> T call(String channelType, Long channelId, Supplier<T> task) {
+        Lane lane = laneFor(channelType, channelId);
+        if (Thread.currentThread() == lane.thread) {
+            return task.get();
+        }
+
+        AtomicBoolean started = new AtomicBoolean();
+        CompletableFuture<T> result = new CompletableFuture<>();
+        dispatch(channelType, channelId, () -> {
+            if (!started.compareAndSet(false, true)) {
+                return;
+            }
+            try {
+                result.complete(task.get());
+            } catch (RuntimeException e) {
+                result.completeExceptionally(e);
+            }
+        });
+
+        try {
+            try {
+                return result.get(callTimeoutMs, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                if (started.compareAndSet(false, true)) {
+                    rejectedTasks.incrementAndGet();
+                    throw new IllegalStateException("Chat is busy, please retry");
+                }
+                // Already running; its outcome is the caller's answer
+                return result.get();
+            }
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw new IllegalStateException("Chat work failed", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for chat work");
+        }
+    }
+
+    private Lane laneFor(String channelType, Long channelId) {
+        int hash = 31 * channelType.hashCode() + Long.hashCode(channelId);
+        return lanes[Math.floorMod(hash ^ (hash >>> 16), lanes.length)];
+    }
+
+    /**
+     * One queue and the single thread that drains it
+     */
+    private final class Lane {
+
+        private final int index;
+        private final BlockingQueue<Runnable> queue = new LinkedBlockingQueue<>(queueCapacity);
+        private final Thread thread;
+
+        private Lane(int index) {
+            this.index = index;
+            this.thread = new Thread(this::run, "chat-lane-" + index);
+            this.thread.start();
+        }
+
+        private void run() {
+            while (running || !queue.isEmpty()) {
+                Runnable task;
+                try {
+                    task = queue.poll(100, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    // stop() ends the loop through the running flag
+                    continue;
+                }
+                if (task == null) {
+                    continue;
+                }
+                try {
+                    task.run();
+                    completedTasks.incrementAndGet();
+                } catch (RuntimeException e) {
+                    failedTasks.incrementAndGet();
+                    log.error("Chat lane {} task failed", index, e);
+                }
+            }
+        }
+    }
+
+    @ManagedAttribute(description = "Number of dispatch lanes")
+    public int getLaneCount() {
+        return laneCount;
+    }
+
+    @ManagedAttribute(description = "Tasks waiting on all lanes")
+    public int getQueuedTasks() {
+        int queued = 0;
+        for (Lane lane : lanes) {
+            queued += lane.queue.size();
+        }
+        return queued;
+    }
+
+    @ManagedAttribute(description = "Tasks waiting on the busiest lane")
+    public int getMaxLaneDepth() {
+        int max = 0;
+        for (Lane lane : lanes) {
+            max = Math.max(max, lane.queue.size());
+        }
+        return max;
+    }
+
+    @ManagedAttribute(description = "Tasks run since startup")
+    public long getCompletedTasks() {
+        return completedTasks.get();
+    }
+
+    @ManagedAttribute(description = "Tasks rejected because their lane was full or busy")
+    public long getRejectedTasks() {
+        return rejectedTasks.get();
+    }
+
+    @ManagedAttribute(description = "Tasks that threw an exception")
+    public long getFailedTasks() {
+        return failedTasks.get();
+    }
+}
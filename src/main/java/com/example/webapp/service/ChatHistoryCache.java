@@ -0,0 +1,413 @@
+package com.example.webapp.service;
+
+import com.example.webapp.dto.MessageResponse;
+import com.example.webapp.entity.Message;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Slice;
+import org.springframework.messaging.SubscribableChannel;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Keeps the newest messages of active chat channels in memory so joins need no history query.
+ * Each channel has a fixed-size ring of history entries. It is filled from what is
+ * broadcast on /topic/chat/{type}/{id} (on every node, when the broker relays) and
+ * warmed from the database by the first join; concurrent joins of a cold channel
+ * share one load. Retracted messages (writes that failed) are removed. Reads take no locks. Channels idle for idle-minutes are dropped,
+ * as are the least recently used ones when the cache outgrows max-bytes.
+ */
+@Service
+@Slf4j
+public class ChatHistoryCache {
+
+    private static final String CHAT_TOPIC_PREFIX = "/topic/chat/";
+
+    @Autowired
+    private ChatService chatService;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    @Qualifier("brokerChannel")
+    private SubscribableChannel brokerChannel;
+
+    @Value("${app.chat.history-cache.enabled:true}")
+    private boolean enabled;
+
+    @Value("${app.chat.history-cache.messages-per-channel:50}")
+    private int capacity;
+
+    @Value("${app.chat.history-cache.max-bytes:67108864}")
+    private long maxBytes;
+
+    @Value("${app.chat.history-cache.idle-minutes:30}")
+    private long idleMinutes;
+
+    private final Map<String, ChannelBuffer> channels = new ConcurrentHashMap<>();
+    private final AtomicLong totalBytes = new AtomicLong();
+
+    @PostConstruct
+    public void init() {
+        if (enabled) {
+            brokerChannel.subscribe(this::onBrokerMessage);
+        }
+    }
+
+    /**
+     * Get up to limit of the newest messages in a channel, loading the channel on first use
+     * @return the messages, or null if the cache cannot serve this request
+     */
+    public Recent getRecent(String channelType, Long channelId, int limit) {
+        return getSince(channelType, channelId, null, limit);
+    }
+
+    /**
+     * Get up to limit of the newest messages after afterId (the gap of a resuming client)
+     * When the gap reaches past the ring, hasMore is set and older gap messages are paged with nextBeforeId
+     * @param afterId Last message id the client has (null for the newest messages)
+     * @return the messages, or null if the cache cannot serve this request
+     */
+    public Recent getSince(String channelType, Long channelId, Long afterId, int limit) {
+        if (!enabled || limit > capacity) {
+            return null;
+        }
+        String key = channelType + "/" + channelId;
+        ChannelBuffer buffer = channels.computeIfAbsent(key, k -> new ChannelBuffer(capacity));
+        buffer.lastAccess = System.currentTimeMillis();
+        if (!buffer.warm) {
+            warm(buffer, channelType, channelId);
+        }
+
+        List<MessageResponse> messages = buffer.snapshot();
+        boolean olderExist = buffer.olderExist;
+        if (afterId != null) {
+            int first = 0;
+            while (first < messages.size() && idOf(messages.get(first)) <= afterId) {
+                first++;
+            }
+            if (first > 0) {
+                // The ring reaches back to what the client has, so it holds the whole gap
+                olderExist = false;
+                messages = messages.subList(first, messages.size());
+            }
+        }
+        boolean hasMore = olderExist || messages.size() > limit;
+        if (messages.size() > limit) {
+            messages = new ArrayList<>(messages.subList(messages.size() - limit, messages.size()));
+        }
+        String nextBeforeId = hasMore && !messages.isEmpty() ? messages.get(0).getId() : null;
+        return new Recent(messages, hasMore, nextBeforeId);
+    }
+
+    public int getChannelCount() {
+        return channels.size();
+    }
+
+    public long getTotalBytes() {
+        return totalBytes.get();
+    }
+
+    /**
+     * Load the channel once; concurrent joins of the same cold channel wait for that load
+     */
+    private void warm(ChannelBuffer buffer, String channelType, Long channelId) {
+        CompletableFuture<Void> loading = new CompletableFuture<>();
+        CompletableFuture<Void> running = buffer.warming.compareAndExchange(null, loading);
+        if (running != null) {
+            running.join();
+            return;
+        }
+        try {
+            Slice<Message> newest = chatService.getHistoryBefore(channelType, channelId, null, capacity);
+            List<MessageResponse> entries = new ArrayList<>(newest.getNumberOfElements());
+            for (Message message : newest) {
+                entries.add(toEntry(message));
+            }
+            totalBytes.addAndGet(buffer.seed(entries, newest.hasNext()));
+            loading.complete(null);
+        } catch (RuntimeException e) {
+            buffer.warming.set(null);
+            loading.completeExceptionally(e);
+            throw e;
+        }
+        enforceBudget();
+    }
+
+    private void onBrokerMessage(org.springframework.messaging.Message<?> message) {
+        String destination = SimpMessageHeaderAccessor.getDestination(message.getHeaders());
+        if (destination == null || !destination.startsWith(CHAT_TOPIC_PREFIX)
+                || !(message.getPayload() instanceof byte[] payload)) {
+            return;
+        }
+        try {
+            MessageResponse response = objectMapper.readValue(payload, MessageResponse.class);
+            if (response.getId() == null) {
+                return;
+            }
+            String key = destination.substring(CHAT_TOPIC_PREFIX.length());
+            if (Boolean.TRUE.equals(response.getRetracted())) {
+                // The retraction can overtake the broadcast it withdraws, so the buffer remembers it
+                ChannelBuffer buffer = channels.computeIfAbsent(key, k -> new ChannelBuffer(capacity));
+                totalBytes.addAndGet(buffer.drop(idOf(response)));
+                return;
+            }
+            // Buffers are created by sends too, so messages not yet written (write-behind) survive a later warm-up
+            ChannelBuffer buffer = channels.computeIfAbsent(key, k -> new ChannelBuffer(capacity));
+            totalBytes.addAndGet(buffer.append(toEntry(response)));
+            enforceBudget();
+        } catch (Exception e) {
+            log.warn("Failed to cache chat message for {}: {}", destination, e.getMessage());
+        }
+    }
+
+    /**
+     * Drop channels nobody has joined recently
+     */
+    @Scheduled(fixedDelayString = "${app.chat.history-cache.sweep-interval-ms:60000}")
+    public void evictIdle() {
+        long cutoff = System.currentTimeMillis() - idleMinutes * 60_000;
+        channels.forEach((key, buffer) -> {
+            if (buffer.lastAccess < cutoff) {
+                remove(key, buffer);
+            }
+        });
+    }
+
+    private void enforceBudget() {
+        if (totalBytes.get() <= maxBytes) {
+            return;
+        }
+        List<Map.Entry<String, ChannelBuffer>> byAge = new ArrayList<>(channels.entrySet());
+        byAge.sort(Comparator.comparingLong(entry -> entry.getValue().lastAccess));
+        for (Map.Entry<String, ChannelBuffer> entry : byAge) {
+            if (totalBytes.get() <= maxBytes) {
+                break;
+            }
+            remove(entry.getKey(), entry.getValue());
+        }
+    }
+
+    private void remove(String key, ChannelBuffer buffer) {
+        if (channels.remove(key, buffer)) {
+            totalBytes.addAndGet(-buffer.retire());
+        }
+    }
+
+    /**
+     * History entries carry no channel fields; the frame has them once
+     */
+    private static MessageResponse toEntry(Message message) {
+        return MessageResponse.builder()
+                .id(String.valueOf(message.getId()))
+                .senderId(message.getSenderId() != null ? String.valueOf(message.getSenderId()) : null)
+                .senderEmail(message.getSender() != null ? message.getSender().getEmail() : null)
+                .senderName(message.getSender() != null ? message.getSender().getName() : "Unknown")
+                .text(message.getContent())
+                .createdAt(message.getCreatedAt())
+                .build();
+    }
+
+    private static MessageResponse toEntry(MessageResponse broadcast) {
+        return MessageResponse.builder()
+                .id(broadcast.getId())
+                .senderId(broadcast.getSenderId())
+                .senderEmail(broadcast.getSenderEmail())
+                .senderName(broadcast.getSenderName())
+                .text(broadcast.getText())
+                .createdAt(broadcast.getCreatedAt())
+                .build();
+    }
+
+    /**
+     * Rough heap footprint of an entry, for the memory budget
+     */
+    private static long sizeOf(MessageResponse entry) {
+        return 160 + 2L * (length(entry.getId()) + length(entry.getSenderId()) + length(entry.getSenderEmail())
+                + length(entry.getSenderName()) + length(entry.getText()));
+    }
+
+    private static int length(String value) {
+        return value != null ? value.length() : 0;
+    }
+
+    private static long idOf(MessageResponse entry) {
+        return Long.parseLong(entry.getId());
+    }
+
+    /**
+     * The newest messages of a channel, oldest first
+     */
+    public record Recent(List<MessageResponse> messages, boolean hasMore, String nextBeforeId) {
+    }
+
+    private record Slot(long sequence, long id, MessageResponse entry, long size) {
+    }
+
+    /**
+     * Ring of the newest entries. Writers serialize on the buffer and publish a slot
+     * before advancing the sequence; readers re-check each slot's sequence, so an entry
+     * overwritten mid-read is skipped instead of returned out of place.
+     */
+    private static final class ChannelBuffer {
+        private final AtomicReferenceArray<Slot> slots;
+        private final int capacity;
+        private final AtomicReference<CompletableFuture<Void>> warming = new AtomicReference<>();
+        private volatile long sequence;
+        private volatile boolean warm;
+        private volatile boolean olderExist;
+        private volatile long lastAccess = System.currentTimeMillis();
+        private long bytes;
+        private boolean removed;
+        private final Set<Long> retractedIds = new HashSet<>();
+
+        ChannelBuffer(int capacity) {
+            this.capacity = capacity;
+            this.slots = new AtomicReferenceArray<>(capacity);
+        }
+
+        /**
+         * @return change in bytes held
+         */
+        synchronized long append(MessageResponse entry) {
+            if (removed) {
+                return 0;
+            }
+            long id = idOf(entry);
+            if (retractedIds.contains(id)) {
+                return 0;
+            }
+            long end = sequence;
+            for (long seq = Math.max(0, end - capacity); seq < end; seq++) {
+                Slot slot = slots.get((int) (seq % capacity));
+                if (slot != null && slot.id() == id) {
+                    return 0;
+                }
+            }
+            long size = sizeOf(entry);
+            int index = (int) (end % capacity);
+            Slot old = slots.get(index);
+            slots.set(index, new Slot(end, id, entry, size));
+            sequence = end + 1;
+            if (old != null) {
+                olderExist = true;
+            }
+            long delta = size - (old != null ? old.size() : 0);
+            bytes += delta;
+            return delta;
+        }
+
+        /**
+         * Merge the newest messages from the database (newest first) with whatever was appended meanwhile
+         * @return change in bytes held
+         */
+        synchronized long seed(List<MessageResponse> newestFirst, boolean moreInDb) {
+            if (removed) {
+                warm = true;
+                return 0;
+            }
+            Map<Long, MessageResponse> merged = new TreeMap<>();
+            for (MessageResponse entry : newestFirst) {
+                merged.put(idOf(entry), entry);
+            }
+            for (MessageResponse entry : snapshot()) {
+                merged.put(idOf(entry), entry);
+            }
+            List<MessageResponse> ordered = new ArrayList<>(merged.values());
+            boolean truncated = ordered.size() > capacity;
+            if (truncated) {
+                ordered = ordered.subList(ordered.size() - capacity, ordered.size());
+            }
+
+            long before = bytes;
+            refill(ordered);
+            olderExist = moreInDb || truncated || olderExist;
+            warm = true;
+            return bytes - before;
+        }
+
+        /**
+         * Remove a retracted message, and keep it from being appended if its broadcast arrives later
+         * @return change in bytes held
+         */
+        synchronized long drop(long id) {
+            if (removed) {
+                return 0;
+            }
+            retractedIds.add(id);
+            List<MessageResponse> entries = snapshot();
+            if (!entries.removeIf(entry -> idOf(entry) == id)) {
+                return 0;
+            }
+            long before = bytes;
+            refill(entries);
+            return bytes - before;
+        }
+
+        /**
+         * Replace the ring's contents with entries (oldest first, at most capacity)
+         */
+        private void refill(List<MessageResponse> ordered) {
+            bytes = 0;
+            for (int i = 0; i < capacity; i++) {
+                slots.set(i, null);
+            }
+            for (int i = 0; i < ordered.size(); i++) {
+                MessageResponse entry = ordered.get(i);
+                long size = sizeOf(entry);
+                slots.set(i, new Slot(i, idOf(entry), entry, size));
+                bytes += size;
+            }
+            sequence = ordered.size();
+        }
+
+        /**
+         * Entries currently in the ring, oldest first
+         */
+        List<MessageResponse> snapshot() {
+            long end = sequence;
+            List<Slot> found = new ArrayList<>(capacity);
+            for (long seq = Math.max(0, end - capacity); seq < end; seq++) {
+                Slot slot = slots.get((int) (seq % capacity));
+                if (slot != null && slot.sequence() == seq) {
+                    found.add(slot);
+                }
+            }
+            // Sends on different threads may append slightly out of id order
+            found.sort(Comparator.comparingLong(Slot::id));
+            List<MessageResponse> entries = new ArrayList<>(found.size());
+            for (Slot slot : found) {
+                entries.add(slot.entry());
+            }
+            return entries;
+        }
+
+        /**
+         * Mark the buffer dropped from the cache so late writers stop counting against the budget
+         * @return bytes it held
+         */
+        synchronized long retire() {
+            removed = true;
+            return bytes;
+        }
+    }
+}
@@ -0,0 +1,359 @@
+package com.example.webapp.service;
+
+import com.example.webapp.dto.MessageResponse;
+import com.example.webapp.entity.Message;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.messaging.MessagingException;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.stereotype.Service;
+
+import java.sql.Connection;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Write-behind persistence for chat messages.
+ * Messages get their id up front from a block reserved on the messages id sequence,
+ * so they can be broadcast right away, and a single background thread inserts
+ * them in multi-row batches. The queue is bounded: when it is full, senders wait
+ * up to offer-timeout-ms and are then rejected. Whatever is queued at shutdown
+ * is written before the application stops. A message that still cannot be inserted
+ * on its own is retracted from its channel, since members have already seen it.
+ */
+@Service
+@Slf4j
+@ManagedResource(objectName = "webapp:type=ChatMessageWriter", description = "Write-behind chat message persistence")
+public class ChatMessageWriter {
+
+    /**
+     * Inserts the batch and, in the same statement, adds task chat messages to their task's counters
+     * (one row update per task in the batch)
+     */
+    private static final String INSERT_SQL =
+            "WITH inserted AS (" +
+            "    INSERT INTO messages (id, sender_id, content, channel_type, channel_id, created_at) " +
+            "    SELECT * FROM unnest(?::bigint[], ?::bigint[], ?::text[], ?::text[], ?::bigint[], ?::text[]::timestamp[]) " +
+            "    RETURNING channel_type, channel_id, created_at) " +
+            "UPDATE tasks t SET message_count = t.message_count + a.messages, " +
+            "    last_activity_at = CASE WHEN t.last_activity_at IS NOT NULL THEN GREATEST(t.last_activity_at, a.last_at) END " +
+            "FROM (SELECT channel_id, COUNT(*) AS messages, MAX(created_at) AS last_at FROM inserted " +
+            "      WHERE channel_type = 'task' GROUP BY channel_id) a " +
+            "WHERE t.id = a.channel_id";
+
+    private static final String RESERVE_IDS_SQL =
+            "SELECT nextval(pg_get_serial_sequence('messages', 'id')) FROM generate_series(1, ?)";
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    /**
+     * Lazy: the messaging template depends on the broker, which is configured after the services
+     */
+    @Autowired
+    @Lazy
+    private SimpMessagingTemplate messagingTemplate;
+
+    @Value("${app.chat.write-behind.enabled:false}")
+    private boolean enabled;
+
+    @Value("${app.chat.write-behind.queue-capacity:10000}")
+    private int queueCapacity;
+
+    @Value("${app.chat.write-behind.batch-size:200}")
+    private int batchSize;
+
+    @Value("${app.chat.write-behind.id-block-size:100}")
+    private int idBlockSize;
+
+    /**
+     * With several nodes each reserving its own block, ids would stop following send order
+     */
+    @Value("${app.websocket.broker:simple}")
+    private String brokerMode;
+
+    /**
+     * How long a sender waits for queue space before the message is rejected
+     */
+    @Value("${app.chat.write-behind.offer-timeout-ms:500}")
+    private long offerTimeoutMs;
+
+    @Value("${app.chat.write-behind.shutdown-timeout-ms:30000}")
+    private long shutdownTimeoutMs;
+
+    /**
+     * Timestamps are written the way Hibernate writes them (hibernate.jdbc.time_zone)
+     */
+    @Value("${spring.jpa.properties.hibernate.jdbc.time_zone:}")
+    private String jdbcTimeZone;
+
+    private BlockingQueue<Message> queue;
+    private Thread writerThread;
+    private volatile boolean running;
+    private final Deque<Long> reservedIds = new ArrayDeque<>();
+
+    /**
+     * Senders check running and queue under the read lock; stop() clears running under the
+     * write lock, so once it has, every queued message is one the writer will still drain
+     */
+    private final ReadWriteLock runningLock = new ReentrantReadWriteLock();
+
+    private final AtomicLong writtenMessages = new AtomicLong();
+    private final AtomicLong rejectedMessages = new AtomicLong();
+    private final AtomicLong failedMessages = new AtomicLong();
+    private final AtomicLong flushes = new AtomicLong();
+    private final AtomicLong flushNanosTotal = new AtomicLong();
+    private volatile long lastFlushNanos;
+    private volatile long maxFlushNanos;
+
+    @PostConstruct
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+        if ("postgres".equals(brokerMode) && idBlockSize > 1) {
+            log.info("Multi-node broker in use; reserving chat message ids one at a time to keep them in send order");
+            idBlockSize = 1;
+        }
+        queue = new ArrayBlockingQueue<>(queueCapacity);
+        running = true;
+        writerThread = new Thread(this::run, "chat-message-writer");
+        writerThread.start();
+        log.info("Chat write-behind enabled (queue {}, batch {}, id block {})", queueCapacity, batchSize, idBlockSize);
+    }
+
+    /**
+     * Write everything still queued before the application (and its DataSource) goes away
+     */
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        if (writerThread == null) {
+            return;
+        }
+        runningLock.writeLock().lock();
+        try {
+            running = false;
+        } finally {
+            runningLock.writeLock().unlock();
+        }
+        writerThread.join(shutdownTimeoutMs);
+        if (writerThread.isAlive()) {
+            log.error("Chat writer did not finish within {} ms; {} message(s) not persisted",
+                    shutdownTimeoutMs, queue.size());
+        } else {
+            log.info("Chat writer stopped; {} message(s) written in total", writtenMessages.get());
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Assign an id and queue the message for insertion
+     * @return the message with its id set
+     * @throws IllegalStateException if the queue stays full for offer-timeout-ms
+     */
+    public Message submit(Message message) {
+        message.setId(nextId());
+        runningLock.readLock().lock();
+        try {
+            if (running) {
+                if (!queue.offer(message, offerTimeoutMs, TimeUnit.MILLISECONDS)) {
+                    rejectedMessages.incrementAndGet();
+                    log.warn("Chat write queue full ({} messages); rejecting message {}", queue.size(), message.getId());
+                    throw new IllegalStateException("Chat is busy, please retry");
+                }
+                return message;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while queueing chat message");
+        } finally {
+            runningLock.readLock().unlock();
+        }
+        // Shutting down; write directly rather than queue behind a stopping writer
+        write(List.of(message));
+        return message;
+    }
+
+    private synchronized long nextId() {
+        if (reservedIds.isEmpty()) {
+            reservedIds.addAll(jdbcTemplate.queryForList(RESERVE_IDS_SQL, Long.class, idBlockSize));
+        }
+        return reservedIds.removeFirst();
+    }
+
+    private void run() {
+        List<Message> batch = new ArrayList<>(batchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                Message first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, batchSize - 1);
+                write(batch);
+            } catch (InterruptedException e) {
+                // Keep draining; stop() ends the loop through the running flag
+                log.warn("Chat writer interrupted; continuing until the queue is empty");
+            } catch (RuntimeException e) {
+                log.error("Chat writer failed to write {} message(s)", batch.size(), e);
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void write(List<Message> batch) {
+        long start = System.nanoTime();
+        try {
+            insert(batch);
+            writtenMessages.addAndGet(batch.size());
+        } catch (DataAccessException e) {
+            // One bad row (e.g. a deleted sender) must not take the rest of the batch with it
+            log.warn("Batch insert of {} chat message(s) failed, retrying one by one: {}", batch.size(), e.getMessage());
+            for (Message message : batch) {
+                try {
+                    insert(List.of(message));
+                    writtenMessages.incrementAndGet();
+                } catch (DataAccessException rowError) {
+                    failedMessages.incrementAndGet();
+                    log.error("Dropping chat message {} in {}/{}: {}", message.getId(),
+                            message.getChannelType(), message.getChannelId(), rowError.getMessage());
+                    retract(message);
+                }
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        flushes.incrementAndGet();
+        flushNanosTotal.addAndGet(elapsed);
+        lastFlushNanos = elapsed;
+        if (elapsed > maxFlushNanos) {
+            maxFlushNanos = elapsed;
+        }
+    }
+
+    /**
+     * Withdraw a broadcast message that was never stored. The history cache of every node
+     * sees the frame on the broker channel and drops the message too.
+     */
+    private void retract(Message message) {
+        MessageResponse retraction = MessageResponse.builder()
+                .id(String.valueOf(message.getId()))
+                .channelType(message.getChannelType())
+                .channelId(String.valueOf(message.getChannelId()))
+                .retracted(true)
+                .build();
+        try {
+            messagingTemplate.convertAndSend(
+                    "/topic/chat/" + message.getChannelType() + "/" + message.getChannelId(), retraction);
+        } catch (MessagingException e) {
+            log.error("Failed to retract chat message {}: {}", message.getId(), e.getMessage());
+        }
+    }
+
+    private void insert(List<Message> batch) {
+        int size = batch.size();
+        Long[] ids = new Long[size];
+        Long[] senderIds = new Long[size];
+        String[] contents = new String[size];
+        String[] channelTypes = new String[size];
+        Long[] channelIds = new Long[size];
+        String[] createdAts = new String[size];
+        for (int i = 0; i < size; i++) {
+            Message message = batch.get(i);
+            ids[i] = message.getId();
+            senderIds[i] = message.getSenderId();
+            contents[i] = message.getContent();
+            channelTypes[i] = message.getChannelType();
+            channelIds[i] = message.getChannelId();
+            createdAts[i] = toJdbcTimestamp(message.getCreatedAt());
+        }
+
+        jdbcTemplate.update(INSERT_SQL, ps -> {
+            Connection connection = ps.getConnection();
+            ps.setArray(1, connection.createArrayOf("bigint", ids));
+            ps.setArray(2, connection.createArrayOf("bigint", senderIds));
+            ps.setArray(3, connection.createArrayOf("text", contents));
+            ps.setArray(4, connection.createArrayOf("text", channelTypes));
+            ps.setArray(5, connection.createArrayOf("bigint", channelIds));
+            ps.setArray(6, connection.createArrayOf("text", createdAts));
+        });
+    }
+
+    private String toJdbcTimestamp(LocalDateTime time) {
+        if (jdbcTimeZone == null || jdbcTimeZone.isBlank()) {
+            return time.toString();
+        }
+        return time.atZone(ZoneId.systemDefault())
+                .withZoneSameInstant(ZoneId.of(jdbcTimeZone))
+                .toLocalDateTime()
+                .toString();
+    }
+
+    @ManagedAttribute(description = "Messages waiting to be written")
+    public int getQueueDepth() {
+        return queue != null ? queue.size() : 0;
+    }
+
+    @ManagedAttribute(description = "Maximum number of queued messages")
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    @ManagedAttribute(description = "Messages written since startup")
+    public long getWrittenMessages() {
+        return writtenMessages.get();
+    }
+
+    @ManagedAttribute(description = "Messages rejected because the queue was full")
+    public long getRejectedMessages() {
+        return rejectedMessages.get();
+    }
+
+    @ManagedAttribute(description = "Messages dropped and retracted after a failed insert")
+    public long getFailedMessages() {
+        return failedMessages.get();
+    }
+
+    @ManagedAttribute(description = "Batches written since startup")
+    public long getFlushCount() {
+        return flushes.get();
+    }
+
+    @ManagedAttribute(description = "Duration of the last batch insert (ms)")
+    public double getLastFlushMillis() {
+        return lastFlushNanos / 1_000_000.0;
+    }
+
+    @ManagedAttribute(description = "Longest batch insert since startup (ms)")
+    public double getMaxFlushMillis() {
+        return maxFlushNanos / 1_000_000.0;
+    }
+
+    @ManagedAttribute(description = "Average batch insert duration (ms)")
+    public double getAverageFlushMillis() {
+        long count = flushes.get();
+        return count > 0 ? flushNanosTotal.get() / 1_000_000.0 / count : 0;
+    }
+}
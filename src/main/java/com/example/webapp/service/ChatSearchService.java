@@ -0,0 +1,72 @@
+package com.example.webapp.service;
+
+import com.example.webapp.repository.MessageRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import java.util.List;
+
+/**
+ * Full-text search over chat messages.
+ * Matching uses a GIN index on to_tsvector(content), which ddl-auto cannot declare;
+ * it is created at startup (concurrently, so writes are not blocked) on PostgreSQL.
+ */
+@Service
+@Slf4j
+public class ChatSearchService {
+
+    private static final String CREATE_INDEX_SQL =
+            "CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_message_content_search ON messages " +
+            "USING gin (to_tsvector(" + MessageRepository.SEARCH_CONFIG + ", content))";
+
+    @Autowired
+    private MessageRepository messageRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Value("${app.chat.search.create-index:true}")
+    private boolean createIndex;
+
+    /**
+     * Search the channels the user can access; one query resolves access, matches and snippets
+     * @param userEmail Email of the searching user
+     * @param query Search terms
+     * @param channelType Only search this channel type (optional)
+     * @param channelId Only search this channel (optional)
+     * @param beforeId Only return messages older than this id (null for the newest)
+     * @param limit Maximum number of hits; one more is fetched to detect further pages
+     * @return Hits, newest first (at most limit + 1)
+     */
+    public List<MessageRepository.SearchHit> search(String userEmail, String query, String channelType,
+                                                    Long channelId, Long beforeId, int limit) {
+        log.debug("User {} searching chat for '{}' ({}/{}, before {})", userEmail, query, channelType, channelId, beforeId);
+        return messageRepository.search(userEmail, query, channelType, channelId, beforeId, limit + 1);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void createSearchIndex() {
+        if (!createIndex) {
+            return;
+        }
+        try {
+            String database = jdbcTemplate.execute((ConnectionCallback<String>) c -> c.getMetaData().getDatabaseProductName());
+            if (!"PostgreSQL".equals(database)) {
+                log.info("Chat search index not created: {} is not PostgreSQL", database);
+                return;
+            }
+            long start = System.currentTimeMillis();
+            jdbcTemplate.execute(CREATE_INDEX_SQL);
+            log.info("Chat search index ready in {} ms", System.currentTimeMillis() - start);
+        } catch (DataAccessException e) {
+            log.warn("Could not create chat search index: {}", e.getMessage());
+        }
+    }
+}
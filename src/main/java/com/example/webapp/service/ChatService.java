@@ -9,12 +9,12 @@ import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Slice;
 import org.springframework.data.domain.Sort;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import java.time.LocalDateTime;
-import java.util.Collections;
-import java.util.List;
 import java.util.Optional;
 
 /**
@@ -35,6 +35,15 @@ public class ChatService {
     
     @Autowired
     private PermissionService permissionService;
+
+    @Autowired
+    private ChatMessageWriter chatMessageWriter;
+
+    @Autowired
+    private TaskActivityService taskActivityService;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
     
     /**
      * Get message history for a channel
@@ -51,28 +60,60 @@ public class ChatService {
         // Verify user has access to this channel
         verifyChannelAccess(channelType, channelId, userEmail);
         
-        // Fetch messages with pagination
-        PageRequest pageRequest = PageRequest.of(page, size, Sort.by(Sort.Direction.DESC, "createdAt"));
-        return messageRepository.findByChannelTypeAndChannelIdOrderByCreatedAtDesc(channelType, channelId, pageRequest);
+        // Fetch messages with pagination; ids are monotonic, so id order is time order
+        PageRequest pageRequest = PageRequest.of(page, size, Sort.by(Sort.Direction.DESC, "id"));
+        return messageRepository.findByChannelTypeAndChannelId(channelType, channelId, pageRequest);
     }
     
     /**
-     * Get recent messages for WebSocket connection
+     * Get a page of history older than a message (keyset pagination)
      * @param channelType Type of channel
      * @param channelId ID of the channel
-     * @param userEmail Email of the user
-     * @return List of recent messages (up to 50)
+     * @param userEmail Email of the requesting user
+     * @param beforeId Only return messages older than this id (null for the newest messages)
+     * @param limit Maximum number of messages
+     * @return Slice of messages, newest first
+     * @throws IllegalArgumentException if the user has no access to the channel
      */
-    public List<Message> getRecentMessages(String channelType, Long channelId, String userEmail) {
-        log.info("User {} joining {} channel {}", userEmail, channelType, channelId);
-        
-        // Verify user has access to this channel
+    public Slice<Message> getMessageHistoryBefore(String channelType, Long channelId, String userEmail,
+                                                  Long beforeId, int limit) {
         verifyChannelAccess(channelType, channelId, userEmail);
+        return getHistoryBefore(channelType, channelId, beforeId, limit);
+    }
+    
+    /**
+     * Get a page of history for WebSocket clients, newest first
+     * Access must already be granted (see ChatAuthorizationService)
+     * @param channelType Type of channel
+     * @param channelId ID of the channel
+     * @param beforeId Only return messages older than this id (null for the newest messages)
+     * @param limit Maximum number of messages
+     * @return Slice of messages, newest first
+     */
+    public Slice<Message> getHistoryBefore(String channelType, Long channelId, Long beforeId, int limit) {
+        log.debug("Loading {} channel {} history before {}", channelType, channelId, beforeId);
         
-        // Fetch recent messages
-        List<Message> messages = messageRepository.findTop50ByChannelTypeAndChannelIdOrderByCreatedAtDesc(channelType, channelId);
-        Collections.reverse(messages); // Reverse to get chronological order
-        return messages;
+        PageRequest pageRequest = PageRequest.of(0, limit);
+        return beforeId == null
+                ? messageRepository.findByChannelTypeAndChannelIdOrderByIdDesc(channelType, channelId, pageRequest)
+                : messageRepository.findByChannelTypeAndChannelIdAndIdLessThanOrderByIdDesc(
+                        channelType, channelId, beforeId, pageRequest);
+    }
+
+    /**
+     * Get the newest messages after a message id, for WebSocket clients resuming a channel
+     * Access must already be granted (see ChatAuthorizationService)
+     * @param channelType Type of channel
+     * @param channelId ID of the channel
+     * @param afterId Last message id the client has
+     * @param limit Maximum number of messages
+     * @return Slice of messages, newest first; hasNext means the gap holds more than limit messages
+     */
+    public Slice<Message> getHistoryAfter(String channelType, Long channelId, Long afterId, int limit) {
+        log.debug("Loading {} channel {} history after {}", channelType, channelId, afterId);
+
+        return messageRepository.findByChannelTypeAndChannelIdAndIdGreaterThanOrderByIdDesc(
+                channelType, channelId, afterId, PageRequest.of(0, limit));
     }
     
     /**
@@ -87,11 +128,7 @@ public class ChatService {
         log.info("User {} sending message to {} channel {}", senderEmail, channelType, channelId);
         
         // Verify user has access to this channel
-        verifyChannelAccess(channelType, channelId, senderEmail);
-        
-        // Get sender's name
-        User sender = userRepository.findByEmail(senderEmail)
-                .orElseThrow(() -> new IllegalArgumentException("User not found"));
+        User sender = verifyChannelAccess(channelType, channelId, senderEmail);
         
         // Create and save message
         Message message = Message.builder()
@@ -103,7 +140,47 @@ public class ChatService {
                 .createdAt(LocalDateTime.now())
                 .build();
         
-        return messageRepository.save(message);
+        return persist(message);
+    }
+    
+    /**
+     * Save a message for a sender whose channel access was already granted; no permission queries
+     * @param channelType Type of channel
+     * @param channelId ID of the channel
+     * @param senderId ID of the sender
+     * @param text Message text
+     * @return Saved message (sender not loaded)
+     */
+    public Message saveAuthorizedMessage(String channelType, Long channelId, Long senderId, String text) {
+        Message message = Message.builder()
+                .channelType(channelType)
+                .channelId(channelId)
+                .senderId(senderId)
+                .content(text)
+                .createdAt(LocalDateTime.now())
+                .build();
+        
+        return persist(message);
+    }
+    
+    /**
+     * Insert a message, or hand it to the write-behind writer when enabled
+     * (the id is assigned immediately either way); task chat messages also count
+     * towards the task's message counter
+     * @throws IllegalStateException if the write-behind queue is full
+     */
+    private Message persist(Message message) {
+        if (chatMessageWriter.isEnabled()) {
+            return chatMessageWriter.submit(message);
+        }
+        if (!"task".equals(message.getChannelType())) {
+            return messageRepository.save(message);
+        }
+        return transactionTemplate.execute(status -> {
+            Message saved = messageRepository.save(message);
+            taskActivityService.applyMessageDelta(saved.getChannelId(), 1, saved.getCreatedAt());
+            return saved;
+        });
     }
     
     /**
@@ -111,17 +188,18 @@ public class ChatService {
      * @param channelType Type of channel ("team", "task", or "project")
      * @param channelId ID of the channel
      * @param userEmail Email of the user
+     * @return The user
      * @throws IllegalArgumentException if user doesn't have access
      */
-    private void verifyChannelAccess(String channelType, Long channelId, String userEmail) {
+    public User verifyChannelAccess(String channelType, Long channelId, String userEmail) {
         // Get user ID from email
         User user = userRepository.findByEmail(userEmail)
                 .orElseThrow(() -> new IllegalArgumentException("User not found"));
         Long userId = user.getId();
         
         if ("team".equals(channelType)) {
-            // Check if user is a team member (by email)
-            if (!permissionService.isTeamMemberByEmail(channelId, userEmail)) {
+            // Check if user is a team member
+            if (!permissionService.isTeamMember(channelId, userId)) {
                 log.warn("User {} denied access to team channel {}", userEmail, channelId);
                 throw new IllegalArgumentException("User is not a member of this team");
             }
@@ -151,5 +229,6 @@ public class ChatService {
         } else {
             throw new IllegalArgumentException("Invalid channel type: " + channelType);
         }
+        return user;
     }
 }
@@ -0,0 +1,198 @@
+package com.example.webapp.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.user.SimpSession;
+import org.springframework.messaging.simp.user.SimpUser;
+import org.springframework.messaging.simp.user.SimpUserRegistry;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.web.socket.messaging.SessionConnectedEvent;
+import org.springframework.web.socket.messaging.SessionDisconnectEvent;
+
+import java.security.Principal;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Which users have a WebSocket session on any node.
+ * Local sessions come from Spring's SimpUserRegistry. With the postgres broker
+ * each node also announces session changes over the bus, plus a full snapshot
+ * every heartbeat; nodes not heard from within node-timeout-ms are forgotten.
+ * Without the bus only local sessions are known.
+ */
+@Service
+@Slf4j
+public class ClusterUserRegistry {
+
+    private static final String SNAPSHOT_EVENT = "registry-snapshot";
+    private static final String SNAPSHOT_REQUEST_EVENT = "registry-request";
+    private static final String SESSION_UP_EVENT = "session-up";
+    private static final String SESSION_DOWN_EVENT = "session-down";
+
+    @Autowired
+    private SimpUserRegistry localUserRegistry;
+
+    @Autowired
+    private ObjectProvider<PostgresMessageBus> messageBus;
+
+    @Value("${app.websocket.registry.node-timeout-ms:30000}")
+    private long nodeTimeoutMs;
+
+    /**
+     * Sessions of other nodes: node id, then user name, then session ids
+     */
+    private final Map<String, RemoteNode> remoteNodes = new ConcurrentHashMap<>();
+
+    /**
+     * Until then remote snapshots may still be missing, so every user counts as online
+     */
+    private volatile long warmUntil;
+
+    @PostConstruct
+    public void init() {
+        PostgresMessageBus bus = messageBus.getIfAvailable();
+        if (bus == null) {
+            return;
+        }
+        bus.onEvent(SNAPSHOT_EVENT, this::onSnapshot);
+        bus.onEvent(SNAPSHOT_REQUEST_EVENT, (node, body) -> {
+            if (!node.equals(bus.getNodeId())) {
+                publishSnapshot();
+            }
+        });
+        bus.onEvent(SESSION_UP_EVENT, (node, body) -> remote(node)
+                .add(body.path("user").asText(), body.path("session").asText()));
+        bus.onEvent(SESSION_DOWN_EVENT, (node, body) -> remote(node)
+                .remove(body.path("user").asText(), body.path("session").asText()));
+        warmUntil = System.currentTimeMillis() + nodeTimeoutMs;
+        bus.publishEvent(SNAPSHOT_REQUEST_EVENT, Map.of());
+    }
+
+    /**
+     * Whether the user has a session on this or any other live node
+     */
+    public boolean isOnline(String userName) {
+        if (localUserRegistry.getUser(userName) != null) {
+            return true;
+        }
+        long now = System.currentTimeMillis();
+        if (now < warmUntil) {
+            return true;
+        }
+        for (RemoteNode node : remoteNodes.values()) {
+            if (node.expiresAt > now && node.users.containsKey(userName)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Names of all users with a session on this or any other live node
+     */
+    public Set<String> getOnlineUsers() {
+        Set<String> users = new HashSet<>();
+        for (SimpUser user : localUserRegistry.getUsers()) {
+            users.add(user.getName());
+        }
+        long now = System.currentTimeMillis();
+        for (RemoteNode node : remoteNodes.values()) {
+            if (node.expiresAt > now) {
+                users.addAll(node.users.keySet());
+            }
+        }
+        return users;
+    }
+
+    @EventListener
+    public void onSessionConnected(SessionConnectedEvent event) {
+        Principal user = event.getUser();
+        String sessionId = SimpMessageHeaderAccessor.getSessionId(event.getMessage().getHeaders());
+        if (user != null && sessionId != null) {
+            messageBus.ifAvailable(bus -> bus.publishEvent(SESSION_UP_EVENT,
+                    Map.of("user", user.getName(), "session", sessionId)));
+        }
+    }
+
+    @EventListener
+    public void onSessionDisconnect(SessionDisconnectEvent event) {
+        Principal user = event.getUser();
+        if (user != null) {
+            messageBus.ifAvailable(bus -> bus.publishEvent(SESSION_DOWN_EVENT,
+                    Map.of("user", user.getName(), "session", event.getSessionId())));
+        }
+    }
+
+    /**
+     * Re-announce local sessions so other nodes recover from missed events and know this node is alive
+     */
+    @Scheduled(fixedDelayString = "${app.websocket.registry.heartbeat-ms:10000}")
+    public void publishSnapshot() {
+        messageBus.ifAvailable(bus -> {
+            Map<String, List<String>> sessions = new HashMap<>();
+            for (SimpUser user : localUserRegistry.getUsers()) {
+                sessions.put(user.getName(), user.getSessions().stream().map(SimpSession::getId).toList());
+            }
+            bus.publishEvent(SNAPSHOT_EVENT, Map.of("sessions", sessions));
+        });
+        long now = System.currentTimeMillis();
+        remoteNodes.values().removeIf(node -> node.expiresAt <= now);
+    }
+
+    private void onSnapshot(String nodeId, JsonNode body) {
+        Map<String, Set<String>> users = new ConcurrentHashMap<>();
+        Iterator<Map.Entry<String, JsonNode>> fields = body.path("sessions").fields();
+        while (fields.hasNext()) {
+            Map.Entry<String, JsonNode> entry = fields.next();
+            Set<String> sessionIds = ConcurrentHashMap.newKeySet();
+            entry.getValue().forEach(id -> sessionIds.add(id.asText()));
+            if (!sessionIds.isEmpty()) {
+                users.put(entry.getKey(), sessionIds);
+            }
+        }
+        RemoteNode node = remote(nodeId);
+        node.users.keySet().retainAll(users.keySet());
+        node.users.putAll(users);
+    }
+
+    /**
+     * Get (and mark alive) a remote node; events from this node are ignored via a throwaway entry
+     */
+    private RemoteNode remote(String nodeId) {
+        PostgresMessageBus bus = messageBus.getIfAvailable();
+        if (bus != null && nodeId.equals(bus.getNodeId())) {
+            return new RemoteNode();
+        }
+        RemoteNode node = remoteNodes.computeIfAbsent(nodeId, id -> new RemoteNode());
+        node.expiresAt = System.currentTimeMillis() + nodeTimeoutMs;
+        return node;
+    }
+
+    private static class RemoteNode {
+        private final Map<String, Set<String>> users = new ConcurrentHashMap<>();
+        private volatile long expiresAt;
+
+        void add(String user, String sessionId) {
+            users.computeIfAbsent(user, u -> ConcurrentHashMap.newKeySet()).add(sessionId);
+        }
+
+        void remove(String user, String sessionId) {
+            users.computeIfPresent(user, (u, sessionIds) -> {
+                sessionIds.remove(sessionId);
+                return sessionIds.isEmpty() ? null : sessionIds;
+            });
+        }
+    }
+}
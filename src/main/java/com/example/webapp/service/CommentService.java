@@ -1,6 +1,8 @@
 package com.example.webapp.service;
 
 import com.example.webapp.dto.AddCommentRequest;
+import com.example.webapp.dto.CommentResponse;
+import com.example.webapp.dto.CommentThreadResponse;
 import com.example.webapp.entity.Comment;
 import com.example.webapp.entity.Task;
 import com.example.webapp.repository.CommentRepository;
@@ -10,9 +12,15 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Sort;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
 import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Service for Comment management operations
@@ -30,9 +38,13 @@ public class CommentService {
     @Autowired
     private ProjectService projectService;
     
+    @Autowired
+    private TaskActivityService taskActivityService;
+    
     /**
-     * Add a comment to a task (with project membership check)
+     * Add a comment to a task (with project membership check); the task's comment count changes with it
      */
+    @Transactional
     public Comment addComment(Long taskId, Long userId, AddCommentRequest request) {
         log.info("User {} adding comment to task {}", userId, taskId);
         
@@ -66,6 +78,7 @@ public class CommentService {
                 .build();
         
         Comment savedComment = commentRepository.save(comment);
+        taskActivityService.applyCommentDelta(taskId, 1, savedComment.getCreatedAt());
         log.info("Comment created with ID: {}", savedComment.getId());
         
         return savedComment;
@@ -103,6 +116,75 @@ public class CommentService {
         return commentRepository.findByTaskIdOrderByCreatedAtDesc(taskId);
     }
     
+    /**
+     * Check whether a user may read a task's comments, in one query
+     * @return null if the task does not exist
+     */
+    public Boolean canReadComments(Long taskId, String userEmail) {
+        return commentRepository.canReadTaskComments(taskId, userEmail);
+    }
+
+    /**
+     * Get a page of root comments with their reply trees in one query (access must be checked by the caller)
+     * @param taskId The task ID
+     * @param parentId Page the replies of this comment instead (null for the task's top-level comments)
+     * @param limit Maximum number of root comments
+     * @param cursor nextCursor of the previous page (null for the newest comments)
+     * @throws IllegalArgumentException if the cursor is malformed
+     */
+    public CommentThreadResponse getThread(Long taskId, Long parentId, int limit, String cursor) {
+        log.info("Fetching comment thread for task: {}", taskId);
+
+        LocalDateTime beforeCreatedAt = null;
+        Long beforeId = null;
+        if (cursor != null && !cursor.isEmpty()) {
+            int separator = cursor.lastIndexOf('_');
+            try {
+                beforeCreatedAt = LocalDateTime.parse(cursor.substring(0, Math.max(separator, 0)));
+                beforeId = Long.parseLong(cursor.substring(separator + 1));
+            } catch (DateTimeParseException | NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid cursor");
+            }
+        }
+
+        List<CommentRepository.ThreadRow> rows = commentRepository.findThreadPage(taskId, parentId, beforeCreatedAt, beforeId, limit);
+
+        // Rows come level by level, each level oldest first, so parents are seen before their replies
+        Map<Long, CommentResponse> byId = new HashMap<>();
+        List<CommentResponse> roots = new ArrayList<>();
+        boolean hasMore = false;
+        for (CommentRepository.ThreadRow row : rows) {
+            hasMore = Boolean.TRUE.equals(row.getHasMore());
+            CommentResponse comment = CommentResponse.builder()
+                    .id(String.valueOf(row.getId()))
+                    .taskId(String.valueOf(row.getTaskId()))
+                    .authorId(String.valueOf(row.getUserId()))
+                    .text(row.getContent())
+                    .createdAt(row.getCreatedAt())
+                    .parentId(row.getParentId() != null ? String.valueOf(row.getParentId()) : null)
+                    .replies(new ArrayList<>())
+                    .hasMoreReplies(Boolean.TRUE.equals(row.getHasMoreReplies()) ? true : null)
+                    .build();
+            byId.put(row.getId(), comment);
+            if (row.getDepth() == 0) {
+                roots.add(comment);
+            } else {
+                CommentResponse parent = byId.get(row.getParentId());
+                if (parent != null) {
+                    parent.getReplies().add(comment);
+                }
+            }
+        }
+        Collections.reverse(roots);
+
+        CommentResponse oldest = roots.isEmpty() ? null : roots.get(roots.size() - 1);
+        return CommentThreadResponse.builder()
+                .comments(roots)
+                .hasMore(hasMore)
+                .nextCursor(hasMore && oldest != null ? oldest.getCreatedAt() + "_" + oldest.getId() : null)
+                .build();
+    }
+    
     /**
      * Get replies to a specific comment
      */
@@ -112,9 +194,9 @@ public class CommentService {
     }
     
     /**
-     * Count comments for a task
+     * Count comments for a task (reads the task's comment counter)
      */
     public long countComments(Long taskId) {
-        return commentRepository.countByTaskId(taskId);
+        return taskActivityService.getCommentCount(taskId);
     }
 }
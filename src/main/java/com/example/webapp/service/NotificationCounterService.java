@@ -0,0 +1,211 @@
+package com.example.webapp.service;
+
+import com.example.webapp.entity.NotificationUserState;
+import com.example.webapp.entity.TeamNotificationCursor;
+import com.example.webapp.repository.NotificationUserStateRepository;
+import com.example.webapp.repository.TeamNotificationCursorRepository;
+import com.example.webapp.repository.TeamNotificationEventRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.Ordered;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Maintains per-user notification read state: the unread counter and the
+ * "read up to" watermark. Both live in notification_user_state and are changed
+ * in the same transaction as the notification rows; an in-process cache sits in
+ * front of them and a periodic job repairs counter drift.
+ * Team notification events count towards each recipient's counter the same way:
+ * incremented when the event is written, reduced when a per-team read cursor moves
+ * past it and zeroed with the watermark.
+ * Writers lock the user's state row before inserting and keep it until commit, and
+ * markAllRead takes the same lock before reading the newest id, so the watermark never
+ * moves past a row whose counter change is not applied yet.
+ */
+@Service
+@Slf4j
+public class NotificationCounterService {
+
+    @Autowired
+    private NotificationUserStateRepository userStateRepository;
+
+    @Autowired
+    private TeamNotificationEventRepository teamEventRepository;
+
+    @Autowired
+    private TeamNotificationCursorRepository teamCursorRepository;
+
+    /**
+     * How long a cached state is trusted; bounds staleness when another node changed it
+     */
+    @Value("${app.notifications.unread-cache-ttl-ms:30000}")
+    private long cacheTtlMs;
+
+    private final Map<Long, CachedState> cache = new ConcurrentHashMap<>();
+
+    /**
+     * Get the unread count for a user (cache, then a primary-key lookup)
+     */
+    @Transactional
+    public long getUnreadCount(Long userId) {
+        return state(userId).unreadCount();
+    }
+
+    /**
+     * Get the id up to which all of the user's notifications are read (0 if never marked)
+     */
+    @Transactional
+    public long getReadUpToId(Long userId) {
+        return state(userId).readUpToId();
+    }
+
+    /**
+     * Mark everything the user has as read by moving the watermark; one single-row upsert
+     */
+    @Transactional
+    public void markAllRead(Long userId) {
+        // Waits for writers holding the lock; the upsert then sees what they committed
+        lock(userId);
+        userStateRepository.markAllRead(userId);
+        evictAfterCompletion(List.of(userId));
+    }
+
+    /**
+     * Mark a team event read for the user by moving their cursor for that team;
+     * older events of the same team become read as well and leave the counter
+     */
+    @Transactional
+    public void markTeamEventRead(Long userId, Long teamId, Long eventId) {
+        // Concurrent cursor moves of the same user must not subtract the same events twice
+        lock(userId);
+        long newlyRead = teamEventRepository.countUnreadForUserUpTo(userId, teamId, eventId);
+        if (teamCursorRepository.advance(userId, teamId, eventId) > 0) {
+            applyDelta(userId, -newlyRead);
+        }
+    }
+
+    /**
+     * Get the user's read cursors for team events, keyed by team id
+     */
+    public Map<Long, Long> getTeamReadCursors(Long userId) {
+        Map<Long, Long> cursors = new HashMap<>();
+        for (TeamNotificationCursor cursor : teamCursorRepository.findByUserId(userId)) {
+            cursors.put(cursor.getTeamId(), cursor.getReadUpToId());
+        }
+        return cursors;
+    }
+
+    /**
+     * Apply a change to the user's unread count within the current transaction.
+     * The cached value is dropped now and again once the transaction completes.
+     */
+    @Transactional
+    public void applyDelta(Long userId, long delta) {
+        if (delta == 0) {
+            return;
+        }
+        userStateRepository.applyUnreadDelta(userId, delta);
+        evictAfterCompletion(List.of(userId));
+    }
+
+    /**
+     * Lock the users' state rows, creating missing ones, before notifications for them are
+     * inserted in the current transaction; applyDelta then counts the new rows
+     */
+    @Transactional
+    public void lockForInsert(Collection<Long> userIds) {
+        // One order for every writer, so transactions with overlapping recipients cannot deadlock
+        for (Long userId : new TreeSet<>(userIds)) {
+            lock(userId);
+        }
+    }
+
+    /**
+     * Periodically repair counters that drifted (e.g. rows removed outside the service)
+     */
+    @Scheduled(
+            initialDelayString = "${app.notifications.unread-reconcile-initial-delay-ms:60000}",
+            fixedDelayString = "${app.notifications.unread-reconcile-interval-ms:3600000}")
+    @Transactional
+    public void reconcile() {
+        int repaired = userStateRepository.reconcileUnreadCounts();
+        cache.clear();
+        if (repaired > 0) {
+            log.info("Reconciled {} unread notification counter(s)", repaired);
+        }
+    }
+
+    /**
+     * Drop all cached state, e.g. after rows were removed in bulk
+     */
+    public void evictAll() {
+        cache.clear();
+    }
+
+    private CachedState state(Long userId) {
+        long now = System.currentTimeMillis();
+        CachedState cached = cache.get(userId);
+        if (cached != null && cached.expiresAt() > now) {
+            return cached;
+        }
+
+        NotificationUserState state = userStateRepository.findById(userId).orElse(null);
+        if (state == null) {
+            userStateRepository.seedUnreadCount(userId);
+            state = userStateRepository.findById(userId).orElse(null);
+        }
+        CachedState loaded = state != null
+                ? new CachedState(state.getUnreadCount(),
+                        state.getReadUpToId() != null ? state.getReadUpToId() : 0L,
+                        now + cacheTtlMs)
+                : new CachedState(0L, 0L, now + cacheTtlMs);
+        cache.put(userId, loaded);
+        return loaded;
+    }
+
+    private void lock(Long userId) {
+        if (userStateRepository.lockById(userId).isEmpty()) {
+            userStateRepository.seedUnreadCount(userId);
+            userStateRepository.lockById(userId);
+        }
+    }
+
+    private void evictAfterCompletion(Collection<Long> userIds) {
+        userIds.forEach(cache::remove);
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public int getOrder() {
+                // Run before other after-commit callbacks (e.g. pushes) that read the count
+                return Ordered.HIGHEST_PRECEDENCE;
+            }
+
+            @Override
+            public void afterCommit() {
+                userIds.forEach(cache::remove);
+            }
+
+            @Override
+            public void afterCompletion(int status) {
+                userIds.forEach(cache::remove);
+            }
+        });
+    }
+
+    private record CachedState(long unreadCount, long readUpToId, long expiresAt) {
+    }
+}
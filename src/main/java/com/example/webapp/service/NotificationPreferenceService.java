@@ -0,0 +1,134 @@
+package com.example.webapp.service;
+
+import com.example.webapp.entity.NotificationDeliveryMode;
+import com.example.webapp.entity.NotificationPreference;
+import com.example.webapp.repository.NotificationDigestRepository;
+import com.example.webapp.repository.NotificationPreferenceRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Per-user notification preferences (off, in-app, digest) by type and optionally project.
+ * Consulted before every notification is written, so lookups go through an
+ * in-process cache of each user's (small) preference list.
+ */
+@Service
+@Slf4j
+public class NotificationPreferenceService {
+
+    @Autowired
+    private NotificationPreferenceRepository preferenceRepository;
+
+    @Autowired
+    private NotificationDigestRepository digestRepository;
+
+    /**
+     * How long cached preferences are trusted; bounds staleness when another node changed them
+     */
+    @Value("${app.notifications.preference-cache-ttl-ms:60000}")
+    private long cacheTtlMs;
+
+    private final Map<Long, CachedPreferences> cache = new ConcurrentHashMap<>();
+
+    /**
+     * Get all preferences of a user
+     */
+    public List<NotificationPreference> getPreferences(Long userId) {
+        return preferenceRepository.findByUserId(userId);
+    }
+
+    /**
+     * Resolve the delivery mode for a notification: project-specific preference,
+     * then the type-wide one, then in-app
+     */
+    public NotificationDeliveryMode resolve(Long userId, String type, Long projectId) {
+        NotificationDeliveryMode typeWide = null;
+        for (NotificationPreference preference : preferences(userId)) {
+            if (!preference.getType().equals(type)) {
+                continue;
+            }
+            if (preference.getProjectId() == null) {
+                typeWide = preference.getMode();
+            } else if (preference.getProjectId().equals(projectId)) {
+                return preference.getMode();
+            }
+        }
+        return typeWide != null ? typeWide : NotificationDeliveryMode.IN_APP;
+    }
+
+    /**
+     * Decide whether to write an in-app notification; digest-mode events are
+     * added to the user's pending digest instead
+     * @return true if the caller should write the notification
+     */
+    @Transactional
+    public boolean deliverInApp(Long userId, String type, String title, String message, Long projectId) {
+        NotificationDeliveryMode mode = resolve(userId, type, projectId);
+        if (mode == NotificationDeliveryMode.DIGEST) {
+            digestRepository.record(userId, type, title, message, LocalDateTime.now());
+        }
+        return mode == NotificationDeliveryMode.IN_APP;
+    }
+
+    /**
+     * Create or update a preference (projectId null applies to all projects)
+     */
+    @Transactional
+    public NotificationPreference setPreference(Long userId, String type, Long projectId, NotificationDeliveryMode mode) {
+        if (type == null || type.isBlank()) {
+            throw new IllegalArgumentException("Notification type is required");
+        }
+        if (mode == null) {
+            throw new IllegalArgumentException("Delivery mode is required");
+        }
+
+        NotificationPreference preference = find(userId, type, projectId)
+                .orElseGet(() -> NotificationPreference.builder()
+                        .userId(userId)
+                        .type(type)
+                        .projectId(projectId)
+                        .build());
+        preference.setMode(mode);
+        NotificationPreference saved = preferenceRepository.save(preference);
+        cache.remove(userId);
+        return saved;
+    }
+
+    /**
+     * Remove a preference, falling back to the type-wide setting or in-app
+     */
+    @Transactional
+    public void removePreference(Long userId, String type, Long projectId) {
+        find(userId, type, projectId).ifPresent(preferenceRepository::delete);
+        cache.remove(userId);
+    }
+
+    private Optional<NotificationPreference> find(Long userId, String type, Long projectId) {
+        return projectId != null
+                ? preferenceRepository.findByUserIdAndTypeAndProjectId(userId, type, projectId)
+                : preferenceRepository.findByUserIdAndTypeAndProjectIdIsNull(userId, type);
+    }
+
+    private List<NotificationPreference> preferences(Long userId) {
+        long now = System.currentTimeMillis();
+        CachedPreferences cached = cache.get(userId);
+        if (cached != null && cached.expiresAt() > now) {
+            return cached.preferences();
+        }
+        List<NotificationPreference> loaded = List.copyOf(preferenceRepository.findByUserId(userId));
+        cache.put(userId, new CachedPreferences(loaded, now + cacheTtlMs));
+        return loaded;
+    }
+
+    private record CachedPreferences(List<NotificationPreference> preferences, long expiresAt) {
+    }
+}
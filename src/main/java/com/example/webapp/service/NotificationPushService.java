@@ -0,0 +1,319 @@
+package com.example.webapp.service;
+
+import com.example.webapp.config.WebSocketFlowControl;
+import com.example.webapp.dto.NotificationPushResponse;
+import com.example.webapp.dto.NotificationResponse;
+import com.example.webapp.entity.Notification;
+import com.example.webapp.entity.TeamNotificationEvent;
+import com.example.webapp.entity.User;
+import com.example.webapp.repository.NotificationRepository;
+import com.example.webapp.repository.TeamNotificationEventRepository;
+import com.example.webapp.repository.UserRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * Pushes new notifications and unread counts to /user/queue/notifications.
+ * Pushes are deferred until the surrounding transaction commits so clients
+ * never see a notification that was rolled back; recipients and unread counts are
+ * read just before the commit, while the transaction can still be used.
+ */
+@Service
+@Slf4j
+public class NotificationPushService {
+
+    public static final String DESTINATION = "/queue/notifications";
+
+    /**
+     * Maximum number of missed notifications replayed on resume; beyond this the client is told to resync
+     */
+    private static final int RESUME_LIMIT = 50;
+
+    @Autowired
+    private SimpMessagingTemplate messagingTemplate;
+
+    @Autowired
+    private NotificationRepository notificationRepository;
+
+    @Autowired
+    private TeamNotificationEventRepository teamEventRepository;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private NotificationCounterService notificationCounterService;
+
+    /**
+     * Ids are drawn before their transaction commits, so a row with an id below the token can
+     * become visible after the token was handed out. Resume also replays rows below the token
+     * created up to this long before the token's own row; clients drop what they already have by id.
+     */
+    @Value("${app.notifications.resume-overlap-seconds:30}")
+    private long resumeOverlapSeconds;
+
+    /**
+     * Push a newly created notification (and the recipient's unread count) after commit
+     */
+    public void pushCreated(Notification notification) {
+        PendingPushes pending = pending();
+        if (pending == null) {
+            deliver(prepare(List.of(notification), List.of(), Set.of(notification.getUserId())));
+            return;
+        }
+        pending.created.add(notification);
+        pending.countChanged.add(notification.getUserId());
+    }
+
+    /**
+     * Push an existing notification whose content changed (e.g. coalesced) after commit.
+     * It keeps its id, so it carries no resume token: the client's resume point must not move back.
+     */
+    public void pushUpdated(Notification notification) {
+        PendingPushes pending = pending();
+        if (pending == null) {
+            deliver(prepare(List.of(), List.of(notification), Set.of(notification.getUserId())));
+            return;
+        }
+        pending.updated.add(notification);
+        pending.countChanged.add(notification.getUserId());
+    }
+
+    /**
+     * Push the user's unread count after commit (e.g. after marking notifications read)
+     */
+    public void pushUnreadCount(Long userId) {
+        PendingPushes pending = pending();
+        if (pending == null) {
+            deliver(prepare(List.of(), List.of(), Set.of(userId)));
+            return;
+        }
+        pending.countChanged.add(userId);
+    }
+
+    /**
+     * Replay what a reconnecting session missed since resumeToken, plus rows below the token
+     * that may have committed after it was handed out (already delivered ones may be sent again).
+     * When more than RESUME_LIMIT are missing, the newest are sent and the client is told to resync.
+     * Without a token only the unread count and the latest token are sent.
+     */
+    public void resume(Long userId, String userEmail, String sessionId, String resumeToken) {
+        Long sinceId = parseResumeToken(resumeToken);
+        NotificationPushResponse.NotificationPushResponseBuilder frame = NotificationPushResponse.builder()
+                .type("resume")
+                .unreadCount(notificationCounterService.getUnreadCount(userId));
+
+        if (sinceId == null) {
+            // Team events share the notifications id sequence, so one token covers both feeds
+            long latestId = Math.max(notificationRepository.findLatestIdByUserId(userId).orElse(0L),
+                    teamEventRepository.findLatestIdForUser(userId).orElse(0L));
+            frame.notifications(List.of())
+                    .resumeToken(latestId > 0 ? String.valueOf(latestId) : null);
+        } else {
+            List<Notification> missed = newestFirst(userId,
+                    notificationRepository.findByUserIdAndIdGreaterThanOrderByIdDesc(
+                            userId, sinceId, PageRequest.of(0, RESUME_LIMIT + 1)),
+                    teamEventRepository.findForUserAfter(userId, sinceId, RESUME_LIMIT + 1));
+            boolean resync = missed.size() > RESUME_LIMIT;
+            if (resync) {
+                missed = missed.subList(0, RESUME_LIMIT);
+            }
+            long latestId = missed.isEmpty() ? sinceId : Math.max(sinceId, missed.get(0).getId());
+
+            List<Notification> replay = new ArrayList<>(missed);
+            replay.addAll(lateCommitted(userId, sinceId));
+            replay.sort(Comparator.comparing(Notification::getId));
+            long readUpToId = notificationCounterService.getReadUpToId(userId);
+            frame.notifications(replay.stream().map(n -> toResponse(n, readUpToId)).toList())
+                    .resumeToken(String.valueOf(latestId))
+                    .resync(resync);
+        }
+
+        SimpMessageHeaderAccessor headers = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+        headers.setSessionId(sessionId);
+        headers.setLeaveMutable(true);
+        messagingTemplate.convertAndSendToUser(userEmail, DESTINATION, frame.build(), headers.getMessageHeaders());
+    }
+
+    /**
+     * Rows at or below the token created shortly before the token's own row: the only ones that
+     * can have committed after it. Bounded by RESUME_LIMIT and not counted towards a resync.
+     */
+    private List<Notification> lateCommitted(Long userId, long tokenId) {
+        Optional<LocalDateTime> tokenCreatedAt = notificationRepository.findCreatedAtById(tokenId)
+                .or(() -> teamEventRepository.findCreatedAtById(tokenId));
+        if (tokenCreatedAt.isEmpty() || resumeOverlapSeconds <= 0) {
+            return List.of();
+        }
+        LocalDateTime since = tokenCreatedAt.get().minusSeconds(resumeOverlapSeconds);
+        List<Notification> late = newestFirst(userId,
+                notificationRepository.findCreatedSinceUpTo(userId, tokenId, since, PageRequest.of(0, RESUME_LIMIT)),
+                teamEventRepository.findForUserCreatedSinceUpTo(userId, tokenId, since, RESUME_LIMIT));
+        return late.size() > RESUME_LIMIT ? late.subList(0, RESUME_LIMIT) : late;
+    }
+
+    /**
+     * Merge personal notifications and team events (as seen by the user) newest first
+     */
+    private List<Notification> newestFirst(Long userId, List<Notification> personal, List<TeamNotificationEvent> events) {
+        List<Notification> merged = new ArrayList<>(personal);
+        if (!events.isEmpty()) {
+            Map<Long, Long> cursors = notificationCounterService.getTeamReadCursors(userId);
+            for (TeamNotificationEvent e : events) {
+                merged.add(NotificationService.toNotification(e, userId,
+                        e.getId() <= cursors.getOrDefault(e.getTeamId(), 0L)));
+            }
+        }
+        merged.sort(Comparator.comparing(Notification::getId).reversed());
+        return merged;
+    }
+
+    private Long parseResumeToken(String resumeToken) {
+        if (resumeToken == null || resumeToken.isBlank()) {
+            return null;
+        }
+        try {
+            return Long.parseLong(resumeToken.trim());
+        } catch (NumberFormatException e) {
+            log.warn("Ignoring malformed notification resume token '{}'", resumeToken);
+            return null;
+        }
+    }
+
+    /**
+     * Collect pushes for the current transaction, or null when there is no transaction to wait for
+     */
+    private PendingPushes pending() {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            return null;
+        }
+        PendingPushes pending = (PendingPushes) TransactionSynchronizationManager.getResource(this);
+        if (pending == null) {
+            pending = new PendingPushes();
+            TransactionSynchronizationManager.bindResource(this, pending);
+            TransactionSynchronizationManager.registerSynchronization(pending);
+        }
+        return pending;
+    }
+
+    /**
+     * Resolve recipients and unread counts into the frames to send
+     */
+    private List<Push> prepare(List<Notification> created, List<Notification> updated, Set<Long> countChanged) {
+        List<Push> pushes = new ArrayList<>();
+        try {
+            Map<Long, String> emails = new HashMap<>();
+            for (User user : userRepository.findAllById(countChanged)) {
+                emails.put(user.getId(), user.getEmail());
+            }
+
+            for (Notification n : created) {
+                String email = emails.get(n.getUserId());
+                if (email != null) {
+                    pushes.add(new Push(email, NotificationPushResponse.builder()
+                            .type("notification")
+                            .notification(toResponse(n, 0L))
+                            .resumeToken(String.valueOf(n.getId()))
+                            .build(), Map.of(WebSocketFlowControl.NOTIFICATION_ID_HEADER, n.getId())));
+                }
+            }
+
+            for (Notification n : updated) {
+                String email = emails.get(n.getUserId());
+                if (email != null) {
+                    pushes.add(new Push(email, NotificationPushResponse.builder()
+                            .type("notification")
+                            .notification(toResponse(n, 0L))
+                            .build(), Map.of()));
+                }
+            }
+
+            for (Long userId : countChanged) {
+                String email = emails.get(userId);
+                if (email != null) {
+                    pushes.add(new Push(email, NotificationPushResponse.builder()
+                            .type("unread-count")
+                            .unreadCount(notificationCounterService.getUnreadCount(userId))
+                            .build(), Map.of()));
+                }
+            }
+        } catch (Exception e) {
+            // Push is best-effort and must not fail the transaction; clients recover through resume
+            log.warn("Failed to prepare notification pushes for {} user(s): {}", countChanged.size(), e.getMessage());
+            return List.of();
+        }
+        return pushes;
+    }
+
+    private void deliver(List<Push> pushes) {
+        try {
+            for (Push push : pushes) {
+                messagingTemplate.convertAndSendToUser(push.email(), DESTINATION, push.frame(), push.headers());
+            }
+        } catch (Exception e) {
+            // Push is best-effort; clients recover through resume
+            log.warn("Failed to push {} notification frame(s): {}", pushes.size(), e.getMessage());
+        }
+    }
+
+    private NotificationResponse toResponse(Notification n, long readUpToId) {
+        return NotificationResponse.builder()
+                .id(n.getId())
+                .type(n.getType())
+                .title(n.getTitle())
+                .message(n.getMessage())
+                .referenceId(n.getReferenceId())
+                .referenceType(n.getReferenceType())
+                .secondaryReferenceId(n.getSecondaryReferenceId())
+                .read(NotificationService.isRead(n, readUpToId))
+                .createdAt(n.getCreatedAt())
+                .build();
+    }
+
+    private class PendingPushes implements TransactionSynchronization {
+        private final List<Notification> created = new ArrayList<>();
+        private final List<Notification> updated = new ArrayList<>();
+        private final Set<Long> countChanged = new LinkedHashSet<>();
+        private List<Push> prepared = List.of();
+
+        /**
+         * Read while the transaction is still active; after commit, repository calls would
+         * join a transaction that has already completed
+         */
+        @Override
+        public void beforeCommit(boolean readOnly) {
+            prepared = prepare(created, updated, countChanged);
+        }
+
+        @Override
+        public void afterCommit() {
+            deliver(prepared);
+        }
+
+        @Override
+        public void afterCompletion(int status) {
+            TransactionSynchronizationManager.unbindResourceIfPossible(NotificationPushService.this);
+        }
+    }
+
+    private record Push(String email, NotificationPushResponse frame, Map<String, Object> headers) {
+    }
+}
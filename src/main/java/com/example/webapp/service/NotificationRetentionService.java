@@ -0,0 +1,102 @@
+package com.example.webapp.service;
+
+import com.example.webapp.repository.NotificationArchiveRepository;
+import com.example.webapp.repository.TeamNotificationEventRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.util.function.IntSupplier;
+
+/**
+ * Retention job for the notifications table.
+ * Read notifications older than read-days, and all notifications older than
+ * max-days, are moved to notifications_archive in small batches so the job
+ * never holds long locks on the live table. Team notification events have no
+ * per-recipient read state and are deleted once older than max-days.
+ */
+@Service
+@Slf4j
+public class NotificationRetentionService {
+
+    @Autowired
+    private NotificationArchiveRepository notificationArchiveRepository;
+
+    @Autowired
+    private TeamNotificationEventRepository teamEventRepository;
+
+    @Autowired
+    private NotificationCounterService notificationCounterService;
+
+    @Value("${app.notifications.retention.enabled:true}")
+    private boolean enabled;
+
+    @Value("${app.notifications.retention.read-days:30}")
+    private int readDays;
+
+    @Value("${app.notifications.retention.max-days:180}")
+    private int maxDays;
+
+    @Value("${app.notifications.retention.batch-size:500}")
+    private int batchSize;
+
+    /**
+     * Pause between batches so foreground traffic gets the database in between
+     */
+    @Value("${app.notifications.retention.batch-pause-ms:200}")
+    private long batchPauseMs;
+
+    @Scheduled(cron = "${app.notifications.retention.cron:0 30 3 * * *}")
+    public void archiveExpiredNotifications() {
+        if (!enabled) {
+            return;
+        }
+
+        LocalDateTime now = LocalDateTime.now();
+        LocalDateTime readCutoff = now.minusDays(readDays);
+        LocalDateTime expireCutoff = now.minusDays(maxDays);
+        log.info("Archiving notifications (read before {}, all before {})", readCutoff, expireCutoff);
+
+        long archived = runInBatches(() ->
+                notificationArchiveRepository.archiveBatch(readCutoff, expireCutoff, batchSize, now));
+        long purged = runInBatches(() ->
+                teamEventRepository.deleteBatchCreatedBefore(expireCutoff, batchSize));
+
+        if (archived > 0 || purged > 0) {
+            // Unread rows may have been removed; drop cached counts
+            notificationCounterService.evictAll();
+        }
+        log.info("Archived {} notification(s), deleted {} team notification event(s)", archived, purged);
+    }
+
+    /**
+     * Run batch until it returns less than a full batch
+     * @return total rows affected
+     */
+    private long runInBatches(IntSupplier batch) {
+        long total = 0;
+        int affected;
+        do {
+            affected = batch.getAsInt();
+            total += affected;
+            if (affected == batchSize && !pause()) {
+                break;
+            }
+        } while (affected == batchSize);
+        return total;
+    }
+
+    private boolean pause() {
+        try {
+            Thread.sleep(batchPauseMs);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.warn("Notification archival interrupted");
+            return false;
+        }
+    }
+}
@@ -1,103 +1,257 @@
 package com.example.webapp.service;
 
 import com.example.webapp.entity.Notification;
+import com.example.webapp.entity.NotificationDigest;
 import com.example.webapp.entity.Project;
 import com.example.webapp.entity.Task;
 import com.example.webapp.entity.Team;
+import com.example.webapp.entity.TeamNotificationEvent;
 import com.example.webapp.entity.User;
+import com.example.webapp.repository.NotificationDigestRepository;
 import com.example.webapp.repository.NotificationRepository;
+import com.example.webapp.repository.TeamNotificationEventRepository;
 import com.example.webapp.repository.TeamRepository;
 import com.example.webapp.repository.UserRepository;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DataAccessException;
 import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.PageRequest;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
 import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 
+/**
+ * Creates and reads notifications.
+ * Personal notifications are one row per recipient. Broadcasts to team leaders
+ * (PROJECT_CREATED, TASK_CREATED) are stored once per team as a TeamNotificationEvent
+ * together with the ids of its recipients, and merged into each recipient's feed at
+ * read time. Every notification is checked against the recipient's preferences
+ * before anything is written.
+ */
 @Service
 @Slf4j
 public class NotificationService {
 
+    /**
+     * Feed order: newest first, id as tie-breaker
+     */
+    private static final Comparator<Notification> NEWEST_FIRST = Comparator
+            .comparing(Notification::getCreatedAt, Comparator.reverseOrder())
+            .thenComparing(Notification::getId, Comparator.reverseOrder());
+
+    /**
+     * Team events are looked up by recipient; ddl-auto cannot declare a GIN index
+     */
+    private static final String CREATE_RECIPIENT_INDEX_SQL =
+            "CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_team_notification_event_recipients " +
+            "ON team_notification_events USING gin (recipient_ids)";
+
     @Autowired
     private NotificationRepository notificationRepository;
 
+    @Autowired
+    private TeamNotificationEventRepository teamEventRepository;
+
     @Autowired
     private TeamRepository teamRepository;
 
     @Autowired
     private UserRepository userRepository;
 
+    @Autowired
+    private NotificationPushService notificationPushService;
+
+    @Autowired
+    private NotificationCounterService notificationCounterService;
+
+    @Autowired
+    private NotificationPreferenceService notificationPreferenceService;
+
+    @Autowired
+    private NotificationDigestRepository notificationDigestRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    /**
+     * Repeated events for the same recipient, type and reference within this window
+     * update the existing unread notification instead of adding a row (0 disables)
+     */
+    @Value("${app.notifications.coalesce-window-seconds:300}")
+    private long coalesceWindowSeconds;
+
     /**
      * Get notifications for a user with pagination
+     * Merges the first (page + 1) * size entries of the personal feed and of the user's team events
      */
     public Page<Notification> getNotifications(Long userId, int page, int size) {
-        return notificationRepository.findByUserIdOrderByCreatedAtDesc(userId, PageRequest.of(page, size));
+        int limit = (page + 1) * size;
+        Page<Notification> personal = notificationRepository.findByUserIdOrderByCreatedAtDesc(
+                userId, PageRequest.of(0, limit));
+        List<Notification> team = toNotifications(userId, teamEventRepository.findLatestForUser(userId, limit));
+        long total = personal.getTotalElements() + teamEventRepository.countForUser(userId);
+
+        return new PageImpl<>(merge(personal.getContent(), team, page * size, size), PageRequest.of(page, size), total);
     }
 
     /**
      * Get unread notifications for a user
      */
     public List<Notification> getUnreadNotifications(Long userId) {
-        return notificationRepository.findByUserIdAndReadFalseOrderByCreatedAtDesc(userId);
+        long readUpToId = notificationCounterService.getReadUpToId(userId);
+        List<Notification> personal = notificationRepository.findUnread(userId, readUpToId);
+        List<Notification> team = toNotifications(userId, teamEventRepository.findUnreadForUser(userId));
+        return merge(personal, team, 0, personal.size() + team.size());
     }
 
     /**
-     * Get unread notification count
+     * Get unread notification count (maintained counter, no COUNT query)
      */
     public long getUnreadCount(Long userId) {
-        return notificationRepository.countByUserIdAndReadFalse(userId);
+        return notificationCounterService.getUnreadCount(userId);
+    }
+
+    /**
+     * Get the user's read watermark; notifications with id <= this are read
+     */
+    public long getReadUpToId(Long userId) {
+        return notificationCounterService.getReadUpToId(userId);
+    }
+
+    /**
+     * Whether a notification is read, taking the user's watermark into account
+     */
+    public static boolean isRead(Notification notification, long readUpToId) {
+        return Boolean.TRUE.equals(notification.getRead())
+                || (notification.getId() != null && notification.getId() <= readUpToId);
+    }
+
+    /**
+     * Map team events to notifications for one recipient, applying their read cursors
+     */
+    private List<Notification> toNotifications(Long userId, List<TeamNotificationEvent> events) {
+        if (events.isEmpty()) {
+            return List.of();
+        }
+        Map<Long, Long> cursors = notificationCounterService.getTeamReadCursors(userId);
+        return events.stream()
+                .map(e -> toNotification(e, userId, e.getId() <= cursors.getOrDefault(e.getTeamId(), 0L)))
+                .toList();
+    }
+
+    /**
+     * A team event as seen by one recipient
+     */
+    public static Notification toNotification(TeamNotificationEvent event, Long userId, boolean read) {
+        return Notification.builder()
+                .id(event.getId())
+                .userId(userId)
+                .type(event.getType())
+                .title(event.getTitle())
+                .message(event.getMessage())
+                .referenceId(event.getReferenceId())
+                .referenceType(event.getReferenceType())
+                .secondaryReferenceId(event.getSecondaryReferenceId())
+                .read(read)
+                .createdAt(event.getCreatedAt())
+                .build();
+    }
+
+    /**
+     * Merge two newest-first lists, skipping the first skip entries and returning at most limit
+     */
+    private static List<Notification> merge(List<Notification> a, List<Notification> b, int skip, int limit) {
+        List<Notification> result = new ArrayList<>(Math.min(limit, a.size() + b.size()));
+        int i = 0;
+        int j = 0;
+        int position = 0;
+        while (result.size() < limit && (i < a.size() || j < b.size())) {
+            Notification next = j >= b.size() || (i < a.size() && NEWEST_FIRST.compare(a.get(i), b.get(j)) <= 0)
+                    ? a.get(i++)
+                    : b.get(j++);
+            if (position++ >= skip) {
+                result.add(next);
+            }
+        }
+        return result;
     }
 
     /**
      * Get recent notifications (top 10)
      */
     public List<Notification> getRecentNotifications(Long userId) {
-        return notificationRepository.findTop10ByUserIdOrderByCreatedAtDesc(userId);
+        List<Notification> personal = notificationRepository.findTop10ByUserIdOrderByCreatedAtDesc(userId);
+        List<Notification> team = toNotifications(userId, teamEventRepository.findLatestForUser(userId, 10));
+        return merge(personal, team, 0, 10);
     }
 
     /**
      * Mark a notification as read
+     * Only notifications above the watermark carry a per-row flag; a team event
+     * moves the user's cursor for that team instead
      */
+    @Transactional
     public void markAsRead(Long notificationId, Long userId) {
-        Optional<Notification> notification = notificationRepository.findById(notificationId);
-        if (notification.isPresent() && notification.get().getUserId().equals(userId)) {
-            Notification n = notification.get();
-            n.setRead(true);
-            notificationRepository.save(n);
+        if (notificationRepository.markRead(notificationId, userId) > 0) {
+            notificationCounterService.applyDelta(userId, -1);
+            notificationPushService.pushUnreadCount(userId);
+            return;
+        }
+        Optional<TeamNotificationEvent> event = teamEventRepository.findVisibleToUser(notificationId, userId);
+        if (event.isPresent()) {
+            notificationCounterService.markTeamEventRead(userId, event.get().getTeamId(), notificationId);
+            notificationPushService.pushUnreadCount(userId);
         }
     }
 
     /**
      * Mark all notifications as read for a user
+     * Moves the read watermark instead of updating every row
      */
+    @Transactional
     public void markAllAsRead(Long userId) {
-        List<Notification> unread = notificationRepository.findByUserIdAndReadFalseOrderByCreatedAtDesc(userId);
-        for (Notification n : unread) {
-            n.setRead(true);
-        }
-        notificationRepository.saveAll(unread);
+        notificationCounterService.markAllRead(userId);
+        notificationPushService.pushUnreadCount(userId);
     }
 
     /**
      * Create a notification
      */
-    private Notification createNotification(Long userId, String type, String title, String message, 
-                                            Long referenceId, String referenceType) {
-        return createNotification(userId, type, title, message, referenceId, referenceType, null);
+    private void createNotification(Long userId, String type, String title, String message,
+                                    Long referenceId, String referenceType) {
+        createNotification(userId, type, title, message, referenceId, referenceType, null);
     }
 
     /**
      * Create a notification with secondary reference (e.g., projectId for task notifications)
+     * Nothing is written if the recipient turned this type off or receives it as a digest
      */
-    private Notification createNotification(Long userId, String type, String title, String message, 
-                                            Long referenceId, String referenceType, Long secondaryReferenceId) {
+    private void createNotification(Long userId, String type, String title, String message,
+                                    Long referenceId, String referenceType, Long secondaryReferenceId) {
+        Long projectId = projectIdOf(referenceId, referenceType, secondaryReferenceId);
+        if (notificationPreferenceService.deliverInApp(userId, type, title, message, projectId)) {
+            insertNotification(userId, type, title, message, referenceId, referenceType, secondaryReferenceId);
+        }
+    }
+
+    private void insertNotification(Long userId, String type, String title, String message,
+                                    Long referenceId, String referenceType, Long secondaryReferenceId) {
         Notification notification = Notification.builder()
                 .userId(userId)
                 .type(type)
@@ -109,7 +263,147 @@ public class NotificationService {
                 .read(false)
                 .createdAt(LocalDateTime.now())
                 .build();
-        return notificationRepository.save(notification);
+        notificationCounterService.lockForInsert(List.of(userId));
+        Notification saved = notificationRepository.save(notification);
+        notificationCounterService.applyDelta(userId, 1);
+        notificationPushService.pushCreated(saved);
+    }
+
+    /**
+     * Create a notification, or fold it into the recipient's recent unread notification
+     * of the same type for the same reference (e.g. repeated status changes of one task)
+     */
+    private void createOrCoalesceNotification(Long userId, String type, String title, String message,
+                                              Long referenceId, String referenceType, Long secondaryReferenceId) {
+        Long projectId = projectIdOf(referenceId, referenceType, secondaryReferenceId);
+        if (!notificationPreferenceService.deliverInApp(userId, type, title, message, projectId)) {
+            return;
+        }
+        if (coalesceWindowSeconds > 0 && referenceId != null) {
+            LocalDateTime now = LocalDateTime.now();
+            Optional<Long> coalescedId = notificationRepository.coalesce(userId, type, referenceId, title, message,
+                    now.minusSeconds(coalesceWindowSeconds), now);
+            if (coalescedId.isPresent()) {
+                // Still unread, so the counter is unchanged; push the refreshed row so clients replace it
+                Notification coalesced = Notification.builder()
+                        .id(coalescedId.get())
+                        .userId(userId)
+                        .type(type)
+                        .title(title)
+                        .message(message)
+                        .referenceId(referenceId)
+                        .referenceType(referenceType)
+                        .secondaryReferenceId(secondaryReferenceId)
+                        .read(false)
+                        .createdAt(now)
+                        .build();
+                notificationPushService.pushUpdated(coalesced);
+                return;
+            }
+        }
+        insertNotification(userId, type, title, message, referenceId, referenceType, secondaryReferenceId);
+    }
+
+    /**
+     * Store a broadcast once for the team and push it to the given recipients.
+     * Recipients who turned the type off or receive it as a digest are skipped, and
+     * nothing is written when nobody is left to notify in-app.
+     */
+    private void createTeamEvent(Long teamId, Set<Long> recipients, Long actorId, String type, String title,
+                                 String message, Long referenceId, String referenceType, Long secondaryReferenceId) {
+        Long projectId = projectIdOf(referenceId, referenceType, secondaryReferenceId);
+        Set<Long> inApp = new HashSet<>();
+        for (Long userId : recipients) {
+            if (notificationPreferenceService.deliverInApp(userId, type, title, message, projectId)) {
+                inApp.add(userId);
+            }
+        }
+        if (inApp.isEmpty()) {
+            return;
+        }
+        notificationCounterService.lockForInsert(inApp);
+        LocalDateTime now = LocalDateTime.now();
+        Long[] recipientIds = inApp.toArray(new Long[0]);
+        Long eventId = teamEventRepository.insertEvent(teamId, projectId, type, title, message, referenceId,
+                referenceType, secondaryReferenceId, actorId, recipientIds, now);
+
+        for (Long userId : inApp) {
+            notificationCounterService.applyDelta(userId, 1);
+        }
+        TeamNotificationEvent event = TeamNotificationEvent.builder()
+                .id(eventId)
+                .teamId(teamId)
+                .projectId(projectId)
+                .type(type)
+                .title(title)
+                .message(message)
+                .referenceId(referenceId)
+                .referenceType(referenceType)
+                .secondaryReferenceId(secondaryReferenceId)
+                .actorId(actorId)
+                .recipientIds(recipientIds)
+                .createdAt(now)
+                .build();
+        for (Long userId : inApp) {
+            notificationPushService.pushCreated(toNotification(event, userId, false));
+        }
+    }
+
+    /**
+     * Give team events written before their recipients were stored a recipient list, and
+     * index the lists on PostgreSQL (concurrently, so writes are not blocked)
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void prepareTeamEvents() {
+        try {
+            int backfilled = teamEventRepository.backfillRecipients();
+            if (backfilled > 0) {
+                log.info("Stored recipients of {} existing team notification event(s)", backfilled);
+            }
+            String database = jdbcTemplate.execute((ConnectionCallback<String>) c -> c.getMetaData().getDatabaseProductName());
+            if ("PostgreSQL".equals(database)) {
+                jdbcTemplate.execute(CREATE_RECIPIENT_INDEX_SQL);
+            }
+        } catch (DataAccessException e) {
+            log.warn("Could not prepare team notification events: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Project a notification is about: the reference itself for project notifications,
+     * the secondary reference for task notifications
+     */
+    private static Long projectIdOf(Long referenceId, String referenceType, Long secondaryReferenceId) {
+        return "project".equals(referenceType) ? referenceId : secondaryReferenceId;
+    }
+
+    /**
+     * Turn pending digests into one notification per user and type
+     */
+    @Scheduled(cron = "${app.notifications.digest.cron:0 0 8 * * *}")
+    @Transactional
+    public void sendDigests() {
+        List<NotificationDigest> digests = notificationDigestRepository.claimAll();
+        for (NotificationDigest digest : digests) {
+            long more = digest.getPendingCount() - 1;
+            String message = more > 0
+                    ? digest.getLastMessage() + " (and " + more + " more since " + digest.getFirstEventAt().toLocalDate() + ")"
+                    : digest.getLastMessage();
+            insertNotification(digest.getUserId(), "DIGEST", "Digest: " + digest.getLastTitle(), message,
+                    null, null, null);
+        }
+        if (!digests.isEmpty()) {
+            log.info("Sent {} notification digest(s)", digests.size());
+        }
+    }
+
+    /**
+     * Team leaders and owner except the user who caused the event
+     */
+    private Set<Long> getTeamEventRecipients(Long teamId, Long actorId) {
+        Set<Long> recipients = getTeamLeadersAndOwner(teamId);
+        recipients.remove(actorId);
+        return recipients;
     }
 
     /**
@@ -138,9 +432,10 @@ public class NotificationService {
 
     /**
      * Notify when a project is created
-     * - Leaders: Always notified
+     * - Leaders: Always notified (one team event)
      * - Members: Only if they're added as project members
      */
+    @Transactional
     public void notifyProjectCreated(Project project, Long creatorId) {
         log.info("Creating notifications for project: {}", project.getName());
         
@@ -148,15 +443,12 @@ public class NotificationService {
         String title = "New Project Created";
         String message = "Project '" + project.getName() + "' has been created";
 
-        // Notify team leaders if project belongs to a team
+        // Notify team leaders with a single team event if project belongs to a team
         if (project.getTeamId() != null) {
-            Set<Long> leaders = getTeamLeadersAndOwner(project.getTeamId());
-            for (Long leaderId : leaders) {
-                if (!leaderId.equals(creatorId) && notifiedUsers.add(leaderId)) {
-                    createNotification(leaderId, "PROJECT_CREATED", title, message, 
-                                      project.getId(), "project");
-                }
-            }
+            Set<Long> leaders = getTeamEventRecipients(project.getTeamId(), creatorId);
+            createTeamEvent(project.getTeamId(), leaders, creatorId, "PROJECT_CREATED", title, message,
+                           project.getId(), "project", null);
+            notifiedUsers.addAll(leaders);
         }
 
         // Notify project members (excluding creator)
@@ -174,6 +466,7 @@ public class NotificationService {
     /**
      * Notify when a member is added to a project
      */
+    @Transactional
     public void notifyMemberAddedToProject(Project project, Long addedMemberId, Long addedByUserId) {
         log.info("Notifying member {} added to project {}", addedMemberId, project.getName());
         
@@ -205,9 +498,10 @@ public class NotificationService {
 
     /**
      * Notify when a task is created
-     * - Leaders: Always notified
+     * - Leaders: Always notified (one team event)
      * - Assignees: Notified if assigned
      */
+    @Transactional
     public void notifyTaskCreated(Task task, Project project, Long creatorId) {
         log.info("Creating notifications for task: {}", task.getTitle());
         
@@ -215,15 +509,12 @@ public class NotificationService {
         String title = "New Task Created";
         String message = "Task '" + task.getTitle() + "' has been created in project '" + project.getName() + "'";
 
-        // Notify team leaders if project belongs to a team
+        // Notify team leaders with a single team event if project belongs to a team
         if (project.getTeamId() != null) {
-            Set<Long> leaders = getTeamLeadersAndOwner(project.getTeamId());
-            for (Long leaderId : leaders) {
-                if (!leaderId.equals(creatorId) && notifiedUsers.add(leaderId)) {
-                    createNotification(leaderId, "TASK_CREATED", title, message,
-                                      task.getId(), "task", project.getId());
-                }
-            }
+            Set<Long> leaders = getTeamEventRecipients(project.getTeamId(), creatorId);
+            createTeamEvent(project.getTeamId(), leaders, creatorId, "TASK_CREATED", title, message,
+                           task.getId(), "task", project.getId());
+            notifiedUsers.addAll(leaders);
         }
 
         // Notify assignees
@@ -244,7 +535,9 @@ public class NotificationService {
      * Notify when a task status changes
      * - Leaders: Always notified
      * - Assignees: Notified
+     * Repeated changes within the coalescing window update the recipient's pending notification
      */
+    @Transactional
     public void notifyTaskStatusChanged(Task task, Project project, String oldStatus, String newStatus, Long changedByUserId) {
         log.info("Creating notifications for task status change: {} -> {}", oldStatus, newStatus);
         
@@ -257,7 +550,7 @@ public class NotificationService {
             Set<Long> leaders = getTeamLeadersAndOwner(project.getTeamId());
             for (Long leaderId : leaders) {
                 if (!leaderId.equals(changedByUserId) && notifiedUsers.add(leaderId)) {
-                    createNotification(leaderId, "TASK_STATUS_CHANGED", title, message,
+                    createOrCoalesceNotification(leaderId, "TASK_STATUS_CHANGED", title, message,
                                       task.getId(), "task", project.getId());
                 }
             }
@@ -268,7 +561,7 @@ public class NotificationService {
             for (User assignee : task.getAssignees()) {
                 Long assigneeId = assignee.getId();
                 if (!assigneeId.equals(changedByUserId) && notifiedUsers.add(assigneeId)) {
-                    createNotification(assigneeId, "TASK_STATUS_CHANGED", title, message,
+                    createOrCoalesceNotification(assigneeId, "TASK_STATUS_CHANGED", title, message,
                                       task.getId(), "task", project.getId());
                 }
             }
@@ -278,6 +571,7 @@ public class NotificationService {
     /**
      * Notify when user is assigned to a task
      */
+    @Transactional
     public void notifyTaskAssigned(Task task, Project project, Set<User> newAssignees, Long assignedByUserId) {
         log.info("Creating notifications for task assignment: {}", task.getTitle());
         
@@ -295,6 +589,7 @@ public class NotificationService {
     /**
      * Notify when task due date is approaching (can be called by a scheduled job)
      */
+    @Transactional
     public void notifyTaskDueSoon(Task task, Long projectId) {
         if (task.getAssignees() != null) {
             for (User assignee : task.getAssignees()) {
@@ -0,0 +1,387 @@
+package com.example.webapp.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.messaging.support.NativeMessageHeaderAccessor;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.util.AntPathMatcher;
+import org.springframework.util.MimeType;
+
+import javax.sql.DataSource;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+import java.util.regex.Pattern;
+
+/**
+ * Relays broker messages between application nodes over PostgreSQL LISTEN/NOTIFY.
+ * Messages for the relayed destinations (chat topics and user destinations by
+ * default) are published with pg_notify instead of going to the local simple
+ * broker. Every node, the sender included, LISTENs on the channel and hands what
+ * it receives to its own broker, so all nodes deliver a channel's messages in
+ * the same (commit) order. Payloads too large for a notification are stored in
+ * broker_relay_payloads and only their id is sent.
+ * Nodes also use the bus for small events (see {@link #publishEvent}), e.g.
+ * user registry updates and membership changes.
+ */
+@Service
+@Slf4j
+@ConditionalOnProperty(name = "app.websocket.broker", havingValue = "postgres")
+public class PostgresMessageBus {
+
+    /**
+     * Header set on messages that came off the bus; they go straight to the local broker
+     */
+    public static final String RELAYED_HEADER = "relayed";
+
+    /**
+     * A channel interceptor cannot drop a message without failing the sender, so the
+     * local copy of a published message is sent here, where no broker handler listens
+     */
+    private static final String DISCARD_DESTINATION = "/relayed";
+
+    /**
+     * PostgreSQL rejects notification payloads of 8000 bytes or more
+     */
+    private static final int MAX_NOTIFY_BYTES = 7900;
+
+    private static final String SPILL_PREFIX = "@";
+    private static final String MESSAGE_KIND = "message";
+    private static final Pattern CHANNEL_NAME = Pattern.compile("[a-z_][a-z0-9_]*");
+
+    private static final String NOTIFY_SQL = "SELECT pg_notify(?, ?)";
+    private static final String SPILL_AND_NOTIFY_SQL =
+            "WITH p AS (INSERT INTO broker_relay_payloads (payload, created_at) VALUES (?, now()) RETURNING id) " +
+            "SELECT pg_notify(?, '" + SPILL_PREFIX + "' || id) FROM p";
+
+    @Autowired
+    private DataSource dataSource;
+
+    @Autowired
+    private DataSourceProperties dataSourceProperties;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    @Qualifier("brokerChannel")
+    private MessageChannel brokerChannel;
+
+    @Autowired
+    private ObjectProvider<ClusterUserRegistry> userRegistry;
+
+    @Value("${app.websocket.postgres.channel:ws_relay}")
+    private String channel;
+
+    @Value("${app.websocket.node-id:}")
+    private String nodeId;
+
+    @Value("${app.websocket.postgres.relay-destinations:/topic/chat/**,/user/**}")
+    private List<String> relayDestinations;
+
+    @Value("${app.websocket.postgres.poll-timeout-ms:500}")
+    private int pollTimeoutMs;
+
+    @Value("${app.websocket.postgres.reconnect-delay-ms:2000}")
+    private long reconnectDelayMs;
+
+    @Value("${app.websocket.postgres.payload-retention-minutes:5}")
+    private int payloadRetentionMinutes;
+
+    private final AntPathMatcher pathMatcher = new AntPathMatcher();
+    private final Map<String, BiConsumer<String, JsonNode>> eventHandlers = new ConcurrentHashMap<>();
+    private Thread listenerThread;
+    private volatile boolean running;
+
+    @PostConstruct
+    public void start() {
+        if (!CHANNEL_NAME.matcher(channel).matches()) {
+            throw new IllegalArgumentException("Invalid app.websocket.postgres.channel: " + channel);
+        }
+        if (nodeId == null || nodeId.isBlank()) {
+            nodeId = UUID.randomUUID().toString();
+        }
+        running = true;
+        listenerThread = new Thread(this::listen, "broker-relay-listener");
+        listenerThread.setDaemon(true);
+        listenerThread.start();
+        log.info("Broker relay over PostgreSQL channel '{}' started (node {})", channel, nodeId);
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        running = false;
+        if (listenerThread != null) {
+            listenerThread.join(pollTimeoutMs * 2L);
+        }
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    /**
+     * Route a message on its way to the local broker.
+     * @return the message if it should be delivered locally as is, or a copy addressed to no
+     *         one if it was published to the bus (or has no recipient on any node)
+     */
+    public Message<?> relay(Message<?> message) {
+        String destination = SimpMessageHeaderAccessor.getDestination(message.getHeaders());
+        if (destination == null || message.getHeaders().containsKey(RELAYED_HEADER)
+                || !isRelayed(destination)) {
+            return message;
+        }
+        if (SimpMessageHeaderAccessor.getSessionId(message.getHeaders()) != null) {
+            // Replies to one session, which is connected to this node
+            return message;
+        }
+        String user = userOf(destination);
+        if (user != null && !userRegistry.getObject().isOnline(user)) {
+            return discarded(message);
+        }
+
+        try {
+            ObjectNode envelope = envelope(MESSAGE_KIND);
+            envelope.put("d", destination);
+            MimeType contentType = contentTypeOf(message);
+            if (contentType != null) {
+                envelope.put("c", contentType.toString());
+            }
+            Object nativeHeaders = message.getHeaders().get(NativeMessageHeaderAccessor.NATIVE_HEADERS);
+            if (nativeHeaders instanceof Map<?, ?> map && !map.isEmpty()) {
+                envelope.set("h", objectMapper.valueToTree(map));
+            }
+            Object payload = message.getPayload();
+            if (payload instanceof byte[] bytes) {
+                if (isText(contentType)) {
+                    envelope.put("p", new String(bytes, StandardCharsets.UTF_8));
+                } else {
+                    envelope.put("b", Base64.getEncoder().encodeToString(bytes));
+                }
+            } else {
+                envelope.put("p", payload.toString());
+            }
+            publish(envelope);
+            return discarded(message);
+        } catch (SQLException | RuntimeException e) {
+            // Better to reach this node's clients than nobody
+            log.warn("Broker relay publish to {} failed, delivering locally only: {}", destination, e.getMessage());
+            return message;
+        }
+    }
+
+    /**
+     * Publish an event to the handlers registered for its kind on every node (this one included)
+     */
+    public void publishEvent(String kind, Object body) {
+        try {
+            ObjectNode envelope = envelope(kind);
+            envelope.set("e", objectMapper.valueToTree(body));
+            publish(envelope);
+        } catch (SQLException | RuntimeException e) {
+            log.warn("Broker relay event '{}' not published: {}", kind, e.getMessage());
+        }
+    }
+
+    /**
+     * Register the handler for an event kind; it receives the publishing node id and the event body
+     */
+    public void onEvent(String kind, BiConsumer<String, JsonNode> handler) {
+        eventHandlers.put(kind, handler);
+    }
+
+    /**
+     * Drop spilled payloads that every listener has had time to fetch
+     */
+    @Scheduled(fixedDelayString = "${app.websocket.postgres.payload-cleanup-interval-ms:60000}")
+    public void purgeSpilledPayloads() {
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement ps = connection.prepareStatement(
+                     "DELETE FROM broker_relay_payloads WHERE created_at < now() - make_interval(mins => ?)")) {
+            ps.setInt(1, payloadRetentionMinutes);
+            ps.executeUpdate();
+        } catch (SQLException e) {
+            log.warn("Failed to purge relayed payloads: {}", e.getMessage());
+        }
+    }
+
+    private ObjectNode envelope(String kind) {
+        ObjectNode envelope = objectMapper.createObjectNode();
+        envelope.put("n", nodeId);
+        envelope.put("k", kind);
+        return envelope;
+    }
+
+    /**
+     * Notify on a connection of our own: inside a transaction (or its after-commit
+     * callbacks) a notification on the transaction's connection would be delayed or lost
+     */
+    private void publish(ObjectNode envelope) throws SQLException {
+        String text = envelope.toString();
+        boolean spill = text.getBytes(StandardCharsets.UTF_8).length > MAX_NOTIFY_BYTES;
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement ps = connection.prepareStatement(spill ? SPILL_AND_NOTIFY_SQL : NOTIFY_SQL)) {
+            if (spill) {
+                ps.setString(1, text);
+                ps.setString(2, channel);
+            } else {
+                ps.setString(1, channel);
+                ps.setString(2, text);
+            }
+            ps.execute();
+        }
+    }
+
+    private void listen() {
+        while (running) {
+            try (Connection connection = DriverManager.getConnection(dataSourceProperties.determineUrl(),
+                    dataSourceProperties.determineUsername(), dataSourceProperties.determinePassword())) {
+                try (Statement statement = connection.createStatement()) {
+                    statement.execute("LISTEN " + channel);
+                }
+                PGConnection pgConnection = connection.unwrap(PGConnection.class);
+                log.info("Listening for relayed broker messages on '{}'", channel);
+                while (running) {
+                    PGNotification[] notifications = pgConnection.getNotifications(pollTimeoutMs);
+                    if (notifications == null) {
+                        continue;
+                    }
+                    for (PGNotification notification : notifications) {
+                        receive(connection, notification.getParameter());
+                    }
+                }
+            } catch (SQLException e) {
+                if (!running) {
+                    break;
+                }
+                // Messages published while disconnected are lost, as with a broker restart
+                log.warn("Broker relay listener connection failed, reconnecting in {} ms: {}",
+                        reconnectDelayMs, e.getMessage());
+                try {
+                    Thread.sleep(reconnectDelayMs);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    private void receive(Connection connection, String parameter) throws SQLException {
+        String text = parameter;
+        if (text.startsWith(SPILL_PREFIX)) {
+            text = fetchSpilled(connection, Long.parseLong(text.substring(SPILL_PREFIX.length())));
+            if (text == null) {
+                return;
+            }
+        }
+        try {
+            JsonNode envelope = objectMapper.readTree(text);
+            String kind = envelope.path("k").asText();
+            if (MESSAGE_KIND.equals(kind)) {
+                deliver(envelope);
+                return;
+            }
+            BiConsumer<String, JsonNode> handler = eventHandlers.get(kind);
+            if (handler != null) {
+                handler.accept(envelope.path("n").asText(), envelope.path("e"));
+            }
+        } catch (Exception e) {
+            log.error("Failed to handle relayed broker message", e);
+        }
+    }
+
+    private String fetchSpilled(Connection connection, long id) throws SQLException {
+        try (PreparedStatement ps = connection.prepareStatement("SELECT payload FROM broker_relay_payloads WHERE id = ?")) {
+            ps.setLong(1, id);
+            try (ResultSet rs = ps.executeQuery()) {
+                if (rs.next()) {
+                    return rs.getString(1);
+                }
+            }
+        }
+        log.warn("Relayed payload {} no longer exists", id);
+        return null;
+    }
+
+    private void deliver(JsonNode envelope) {
+        SimpMessageHeaderAccessor headers = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+        headers.setDestination(envelope.path("d").asText());
+        if (envelope.hasNonNull("c")) {
+            headers.setContentType(MimeType.valueOf(envelope.get("c").asText()));
+        }
+        envelope.path("h").fields().forEachRemaining(header ->
+                header.getValue().forEach(value -> headers.addNativeHeader(header.getKey(), value.asText())));
+        headers.setHeader(RELAYED_HEADER, Boolean.TRUE);
+        byte[] payload = envelope.hasNonNull("b")
+                ? Base64.getDecoder().decode(envelope.get("b").asText())
+                : envelope.path("p").asText().getBytes(StandardCharsets.UTF_8);
+        // Sent on the listener thread, so messages reach the broker in bus order
+        brokerChannel.send(MessageBuilder.createMessage(payload, headers.getMessageHeaders()));
+    }
+
+    private static Message<?> discarded(Message<?> message) {
+        SimpMessageHeaderAccessor headers = SimpMessageHeaderAccessor.create(SimpMessageType.OTHER);
+        headers.setDestination(DISCARD_DESTINATION);
+        return MessageBuilder.createMessage(message.getPayload(), headers.getMessageHeaders());
+    }
+
+    private boolean isRelayed(String destination) {
+        for (String pattern : relayDestinations) {
+            if (pathMatcher.match(pattern, destination)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String userOf(String destination) {
+        if (!destination.startsWith("/user/")) {
+            return null;
+        }
+        int end = destination.indexOf('/', "/user/".length());
+        return end > 0 ? destination.substring("/user/".length(), end) : null;
+    }
+
+    private static MimeType contentTypeOf(Message<?> message) {
+        Object contentType = message.getHeaders().get(MessageHeaders.CONTENT_TYPE);
+        if (contentType instanceof MimeType mimeType) {
+            return mimeType;
+        }
+        return contentType != null ? MimeType.valueOf(contentType.toString()) : null;
+    }
+
+    private static boolean isText(MimeType contentType) {
+        return contentType == null || "text".equals(contentType.getType())
+                || contentType.getSubtype().endsWith("json");
+    }
+}
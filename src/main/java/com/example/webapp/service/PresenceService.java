@@ -0,0 +1,238 @@
+package com.example.webapp.service;
+
+import com.example.webapp.dto.PresenceResponse;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.web.socket.messaging.SessionDisconnectEvent;
+import org.springframework.web.socket.messaging.SessionSubscribeEvent;
+import org.springframework.web.socket.messaging.SessionUnsubscribeEvent;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * In-memory presence of users in chat channels, kept on this node.
+ * A user is online in a channel while at least one of their sessions is
+ * subscribed to /topic/chat/{type}/{id} and holds a grant for that channel
+ * (checked on SUBSCRIBE by ChatSubscriptionGuard); subscriptions are reference-counted
+ * so several tabs or a reconnect overlapping the old session count once.
+ * Changes are collected and broadcast as diffs on /topic/presence/{type}/{id}
+ * every debounce interval; a leave and re-join within one interval cancel out.
+ * A user whose last subscription goes away stays online for reconnect-grace-ms,
+ * so a client reconnecting after a network blip causes no left/joined broadcast.
+ */
+@Service
+@Slf4j
+public class PresenceService {
+
+    public static final String CHAT_TOPIC_PREFIX = "/topic/chat/";
+    public static final String PRESENCE_TOPIC_PREFIX = "/topic/presence/";
+
+    @Autowired
+    private SimpMessagingTemplate messagingTemplate;
+
+    @Autowired
+    private ChatAuthorizationService chatAuthorizationService;
+
+    @Value("${app.chat.presence.reconnect-grace-ms:10000}")
+    private long reconnectGraceMs;
+
+    /**
+     * Presence by channel key ("type/id")
+     */
+    private final Map<String, ChannelPresence> channels = new ConcurrentHashMap<>();
+
+    /**
+     * Chat subscriptions by session id, then subscription id
+     */
+    private final Map<String, Map<String, Subscription>> sessions = new ConcurrentHashMap<>();
+
+    /**
+     * Users currently online in a channel
+     */
+    public List<String> getOnlineUsers(String channelType, Long channelId) {
+        ChannelPresence presence = channels.get(channelKey(channelType, channelId));
+        if (presence == null) {
+            return List.of();
+        }
+        synchronized (presence) {
+            List<String> online = new ArrayList<>(presence.users.keySet());
+            online.addAll(presence.leaving.keySet());
+            return online;
+        }
+    }
+
+    @EventListener
+    public void onSubscribe(SessionSubscribeEvent event) {
+        StompHeaderAccessor accessor = StompHeaderAccessor.wrap(event.getMessage());
+        String destination = accessor.getDestination();
+        if (destination == null || !destination.startsWith(CHAT_TOPIC_PREFIX)
+                || accessor.getUser() == null || accessor.getSessionId() == null
+                || accessor.getSubscriptionId() == null) {
+            return;
+        }
+        ChatAuthorizationService.Channel parsed =
+                ChatAuthorizationService.parseChannel(destination.substring(CHAT_TOPIC_PREFIX.length()));
+        if (parsed == null
+                || chatAuthorizationService.cachedGrant(accessor.getSessionAttributes(), parsed.type(), parsed.id()) == null) {
+            return;
+        }
+        String channel = channelKey(parsed.type(), parsed.id());
+        Subscription subscription = new Subscription(channel, accessor.getUser().getName());
+        Subscription previous = sessions.computeIfAbsent(accessor.getSessionId(), id -> new ConcurrentHashMap<>())
+                .put(accessor.getSubscriptionId(), subscription);
+        if (previous != null) {
+            release(previous);
+        }
+        // compute() so a channel being dropped as idle cannot swallow this subscription
+        channels.compute(channel, (c, presence) -> {
+            ChannelPresence target = presence != null ? presence : new ChannelPresence();
+            target.acquire(subscription.user());
+            return target;
+        });
+    }
+
+    @EventListener
+    public void onUnsubscribe(SessionUnsubscribeEvent event) {
+        StompHeaderAccessor accessor = StompHeaderAccessor.wrap(event.getMessage());
+        Map<String, Subscription> subscriptions = accessor.getSessionId() != null
+                ? sessions.get(accessor.getSessionId()) : null;
+        if (subscriptions == null || accessor.getSubscriptionId() == null) {
+            return;
+        }
+        Subscription subscription = subscriptions.remove(accessor.getSubscriptionId());
+        if (subscription != null) {
+            release(subscription);
+        }
+    }
+
+    @EventListener
+    public void onSessionDisconnect(SessionDisconnectEvent event) {
+        Map<String, Subscription> subscriptions = sessions.remove(event.getSessionId());
+        if (subscriptions != null) {
+            subscriptions.values().forEach(this::release);
+        }
+    }
+
+    /**
+     * Broadcast what changed since the last run and drop channels nobody is in
+     */
+    @Scheduled(fixedDelayString = "${app.chat.presence.debounce-ms:1000}")
+    public void broadcastChanges() {
+        long now = System.currentTimeMillis();
+        for (Map.Entry<String, ChannelPresence> entry : channels.entrySet()) {
+            ChannelPresence presence = entry.getValue();
+            List<String> joined;
+            List<String> left;
+            int onlineCount;
+            if (presence.isIdle()) {
+                // Re-checked under the map's lock; a subscribe may have arrived since
+                channels.computeIfPresent(entry.getKey(), (c, p) -> p.isIdle() ? null : p);
+                continue;
+            }
+            synchronized (presence) {
+                presence.expireLeaving(now);
+                if (presence.joined.isEmpty() && presence.left.isEmpty()) {
+                    continue;
+                }
+                joined = new ArrayList<>(presence.joined);
+                left = new ArrayList<>(presence.left);
+                onlineCount = presence.users.size() + presence.leaving.size();
+                presence.joined.clear();
+                presence.left.clear();
+            }
+
+            String channel = entry.getKey();
+            int slash = channel.indexOf('/');
+            try {
+                messagingTemplate.convertAndSend(PRESENCE_TOPIC_PREFIX + channel, PresenceResponse.builder()
+                        .channelType(slash > 0 ? channel.substring(0, slash) : channel)
+                        .channelId(slash > 0 ? channel.substring(slash + 1) : null)
+                        .joined(joined)
+                        .left(left)
+                        .onlineCount(onlineCount)
+                        .build());
+            } catch (Exception e) {
+                log.warn("Failed to broadcast presence for {}: {}", channel, e.getMessage());
+            }
+        }
+    }
+
+    private void release(Subscription subscription) {
+        long leaveAt = System.currentTimeMillis() + reconnectGraceMs;
+        channels.computeIfPresent(subscription.channel(), (c, presence) -> {
+            presence.release(subscription.user(), leaveAt);
+            return presence;
+        });
+    }
+
+    private static String channelKey(String channelType, Long channelId) {
+        return channelType + "/" + channelId;
+    }
+
+    private record Subscription(String channel, String user) {
+    }
+
+    /**
+     * Subscription counts per user, users in their reconnect grace period and the diff
+     * not yet broadcast; guarded by its own monitor
+     */
+    private static class ChannelPresence {
+        private final Map<String, Integer> users = new HashMap<>();
+        /**
+         * Users without subscriptions who still count as online, with the time they leave
+         */
+        private final Map<String, Long> leaving = new HashMap<>();
+        private final Set<String> joined = new LinkedHashSet<>();
+        private final Set<String> left = new LinkedHashSet<>();
+
+        synchronized void acquire(String user) {
+            if (users.merge(user, 1, Integer::sum) == 1 && leaving.remove(user) == null && !left.remove(user)) {
+                joined.add(user);
+            }
+        }
+
+        synchronized void release(String user, long leaveAt) {
+            Integer count = users.get(user);
+            if (count == null) {
+                return;
+            }
+            if (count > 1) {
+                users.put(user, count - 1);
+            } else {
+                users.remove(user);
+                if (!joined.remove(user)) {
+                    leaving.put(user, leaveAt);
+                }
+            }
+        }
+
+        /**
+         * Announce users whose grace period has passed as left
+         */
+        synchronized void expireLeaving(long now) {
+            leaving.entrySet().removeIf(entry -> {
+                if (entry.getValue() > now) {
+                    return false;
+                }
+                left.add(entry.getKey());
+                return true;
+            });
+        }
+
+        synchronized boolean isIdle() {
+            return users.isEmpty() && leaving.isEmpty() && joined.isEmpty() && left.isEmpty();
+        }
+    }
+}
@@ -4,11 +4,13 @@ import com.example.webapp.dto.CreateProjectRequest;
 import com.example.webapp.entity.Project;
 import com.example.webapp.entity.Team;
 import com.example.webapp.entity.User;
+import com.example.webapp.event.MembershipChangedEvent;
 import com.example.webapp.repository.ProjectRepository;
 import com.example.webapp.repository.TeamRepository;
 import com.example.webapp.repository.UserRepository;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
@@ -42,6 +44,9 @@ public class ProjectService {
 
     @Autowired
     private com.example.webapp.repository.TagRepository tagRepository;
+
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
     
     /**
      * Create a new project with the given owner ID
@@ -284,6 +289,9 @@ public class ProjectService {
             throw new IllegalArgumentException("Only the project owner can delete the project");
         }
 
+        // Project and task channels of this project disappear
+        eventPublisher.publishEvent(MembershipChangedEvent.allUsers());
+
         // Clear member associations (join table)
         project.getMembers().clear();
         projectRepository.save(project);
@@ -353,6 +361,7 @@ public class ProjectService {
         // Remove from members
         project.getMembers().removeIf(m -> m.getId().equals(targetUserId));
         Project savedProject = projectRepository.save(project);
+        eventPublisher.publishEvent(MembershipChangedEvent.of(targetUserId));
         
         log.info("User {} removed from project {}", targetUserId, projectId);
         return savedProject;
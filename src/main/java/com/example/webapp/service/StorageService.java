@@ -6,11 +6,22 @@ import org.springframework.web.multipart.MultipartFile;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.BufferedOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.nio.file.StandardOpenOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
 import java.util.UUID;
 
 /**
@@ -41,24 +52,64 @@ public class StorageService {
      */
     public String storeFile(MultipartFile file, String filename, String subDir) throws IOException {
         log.info("Storing file: {} (size: {} bytes)", filename, file.getSize());
+        return store(file, subDir).key();
+    }
 
+    /**
+     * Store a file under a subdirectory of the upload directory without holding it in memory.
+     * The upload is streamed into a temporary file next to its target while its SHA-256 is
+     * computed, then moved into place atomically, so a key never names a partly written file.
+     * @return The storage key (relative to uploadDir), size and content hash
+     */
+    public StoredFile store(MultipartFile file, String subDir) throws IOException {
         Path baseDir = Paths.get(uploadDir).toAbsolutePath().normalize();
         Path targetDir = (subDir == null || subDir.isBlank()) ? baseDir : baseDir.resolve(subDir).normalize();
+        if (!targetDir.startsWith(baseDir)) {
+            throw new IOException("Resolved path escapes upload directory");
+        }
         Files.createDirectories(targetDir);
 
         String extension = guessExtension(file);
         String fileId = UUID.randomUUID().toString() + extension;
-
         Path filePath = targetDir.resolve(fileId).normalize();
-        if (!filePath.startsWith(baseDir)) {
-            throw new IOException("Resolved path escapes upload directory");
-        }
 
-        Files.write(filePath, file.getBytes(), StandardOpenOption.CREATE_NEW);
+        MessageDigest digest = sha256();
+        Path tempFile = Files.createTempFile(targetDir, ".upload-", ".tmp");
+        try {
+            long size;
+            try (InputStream in = new DigestInputStream(file.getInputStream(), digest);
+                 ReadableByteChannel source = Channels.newChannel(in);
+                 FileChannel target = FileChannel.open(tempFile, StandardOpenOption.WRITE)) {
+                size = target.transferFrom(source, 0, Long.MAX_VALUE);
+            }
+            Files.move(tempFile, filePath, StandardCopyOption.ATOMIC_MOVE);
 
-        String storageKey = (subDir == null || subDir.isBlank()) ? fileId : (subDir + "/" + fileId);
-        log.info("File stored with key: {} at {}", storageKey, filePath);
-        return storageKey;
+            String storageKey = (subDir == null || subDir.isBlank()) ? fileId : (subDir + "/" + fileId);
+            String hash = HexFormat.of().formatHex(digest.digest());
+            log.info("File stored with key: {} at {} ({} bytes, sha256 {})", storageKey, filePath, size, hash);
+            return new StoredFile(storageKey, size, hash);
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+    
+    /**
+     * Write a file derived from a stored one (e.g. a thumbnail) under the given storage key;
+     * like store(), the content goes to a temporary file that is then moved into place atomically
+     * @param storageKey Key relative to uploadDir
+     * @param writer Writes the content
+     */
+    public void writeFile(String storageKey, ContentWriter writer) throws IOException {
+        Path filePath = resolveStorageKey(storageKey);
+        Path tempFile = Files.createTempFile(filePath.getParent(), ".upload-", ".tmp");
+        try {
+            try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(tempFile, StandardOpenOption.WRITE))) {
+                writer.write(out);
+            }
+            Files.move(tempFile, filePath, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
     }
     
     /**
@@ -113,6 +164,14 @@ public class StorageService {
         return filePath;
     }
 
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
     private String guessExtension(MultipartFile file) {
         String contentType = file.getContentType();
         if (contentType == null) return ".bin";
@@ -125,4 +184,18 @@ public class StorageService {
             default -> ".bin";
         };
     }
+
+    /**
+     * Writes the content of a file
+     */
+    @FunctionalInterface
+    public interface ContentWriter {
+        void write(OutputStream out) throws IOException;
+    }
+
+    /**
+     * A stored file: its storage key, size in bytes and hex SHA-256 of the content
+     */
+    public record StoredFile(String key, long size, String sha256) {
+    }
 }
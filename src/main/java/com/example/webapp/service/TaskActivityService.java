@@ -0,0 +1,84 @@
+package com.example.webapp.service;
+
+import com.example.webapp.repository.TaskRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * Maintains the activity columns on tasks (comment_count, message_count, last_activity_at)
+ * so task lists show activity without counting comments and messages per card.
+ * Counters change with a single-row update in the same transaction as the comment or
+ * message rows; the write-behind chat writer updates them in its insert statement.
+ * Tasks from before the counters existed have no last activity; they are counted once
+ * at startup, in small batches that lock the tasks they recount.
+ */
+@Service
+@Slf4j
+public class TaskActivityService {
+
+    @Autowired
+    private TaskRepository taskRepository;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Value("${app.tasks.activity-backfill-batch-size:500}")
+    private int backfillBatchSize;
+
+    /**
+     * Apply a change to the task's comment count within the current transaction
+     * @param at When the comments were written; last activity only moves forward
+     */
+    @Transactional
+    public void applyCommentDelta(Long taskId, int delta, LocalDateTime at) {
+        if (delta != 0) {
+            taskRepository.applyCommentDelta(taskId, delta, at);
+        }
+    }
+
+    /**
+     * Apply a change to the task's chat message count within the current transaction
+     * @param at When the messages were written; last activity only moves forward
+     */
+    @Transactional
+    public void applyMessageDelta(Long taskId, int delta, LocalDateTime at) {
+        if (delta != 0) {
+            taskRepository.applyMessageDelta(taskId, delta, at);
+        }
+    }
+
+    /**
+     * Get the task's comment count (a primary-key lookup; 0 if the task does not exist)
+     */
+    public long getCommentCount(Long taskId) {
+        return taskRepository.findCommentCountById(taskId).orElse(0);
+    }
+
+    /**
+     * Count the activity of tasks that were never counted; a no-op once every task has been
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void backfill() {
+        long counted = 0;
+        int batch;
+        do {
+            batch = transactionTemplate.execute(status -> {
+                List<Long> taskIds = taskRepository.lockUncountedBatch(backfillBatchSize);
+                return taskIds.isEmpty() ? 0 : taskRepository.backfillActivity(taskIds);
+            });
+            counted += batch;
+        } while (batch == backfillBatchSize);
+        if (counted > 0) {
+            log.info("Counted activity of {} existing task(s)", counted);
+        }
+    }
+}
@@ -5,9 +5,11 @@ import com.example.webapp.dto.UpdateTaskRequest;
 import com.example.webapp.entity.Task;
 import com.example.webapp.entity.Tag;
 import com.example.webapp.entity.User;
+import com.example.webapp.event.MembershipChangedEvent;
 import com.example.webapp.repository.TaskRepository;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.stereotype.Service;
@@ -52,6 +54,9 @@ public class TaskService {
     
     @Autowired
     private com.example.webapp.repository.UserRepository userRepository;
+
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
     
     /**
      * Create a new task in a project
@@ -75,6 +80,7 @@ public class TaskService {
                 .createdBy(userId)
                 .createdAt(LocalDateTime.now())
                 .updatedAt(LocalDateTime.now())
+                .lastActivityAt(LocalDateTime.now())
                 .assignees(new HashSet<>())
                 .tags(new HashSet<>())
                 .build();
@@ -181,6 +187,9 @@ public class TaskService {
         
         // Update assignees if provided
         if (request.getAssigneeIds() != null) {
+            Set<Long> previousAssigneeIds = task.getAssignees().stream()
+                    .map(User::getId)
+                    .collect(Collectors.toSet());
             if (request.getAssigneeIds().isEmpty()) {
                 task.setAssignees(new HashSet<>());
                 log.info("Cleared assignees for task {}", taskId);
@@ -193,6 +202,11 @@ public class TaskService {
                 task.setAssignees(assignees);
                 log.info("Updated assignees for task {} to {} users", taskId, assignees.size());
             }
+            task.getAssignees().forEach(assignee -> previousAssigneeIds.remove(assignee.getId()));
+            if (!previousAssigneeIds.isEmpty()) {
+                // Unassigned users may lose access to the task channel
+                eventPublisher.publishEvent(new MembershipChangedEvent(previousAssigneeIds));
+            }
         }
         
         task.setUpdatedAt(LocalDateTime.now());
@@ -329,6 +343,7 @@ public class TaskService {
         }
         
         taskRepository.deleteById(taskId);
+        eventPublisher.publishEvent(MembershipChangedEvent.allUsers());
         log.info("Task {} deleted successfully", taskId);
     }
     
@@ -2,6 +2,7 @@ package com.example.webapp.service;
 
 import com.example.webapp.entity.Team;
 import com.example.webapp.entity.User;
+import com.example.webapp.event.MembershipChangedEvent;
 import com.example.webapp.repository.TeamRepository;
 import com.example.webapp.repository.UserRepository;
 import com.example.webapp.repository.CommentRepository;
@@ -9,6 +10,7 @@ import com.example.webapp.repository.TagRepository;
 import com.example.webapp.repository.TaskRepository;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
@@ -42,6 +44,9 @@ public class TeamService {
 
     @Autowired
     private CommentRepository commentRepository;
+
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
     
     /**
      * Create a new team with the given manager
@@ -216,6 +221,7 @@ public class TeamService {
         // Remove from members
         team.getMembers().remove(user);
         Team savedTeam = teamRepository.save(team);
+        eventPublisher.publishEvent(MembershipChangedEvent.of(userId));
         
         log.info("User {} successfully left team {}", userId, teamId);
         return savedTeam;
@@ -317,6 +323,7 @@ public class TeamService {
         
         team.getLeaders().remove(targetUser);
         Team savedTeam = teamRepository.save(team);
+        eventPublisher.publishEvent(MembershipChangedEvent.of(targetUserId));
         
         log.info("User {} demoted from leader in team {}", targetUserId, teamId);
         return savedTeam;
@@ -375,6 +382,7 @@ public class TeamService {
         team.getLeaders().remove(targetUser);
         
         Team savedTeam = teamRepository.save(team);
+        eventPublisher.publishEvent(MembershipChangedEvent.of(targetUserId));
         
         log.info("User {} kicked from team {}", targetUserId, teamId);
         return savedTeam;
@@ -424,6 +432,9 @@ public class TeamService {
             throw new IllegalArgumentException("Only the team owner can delete the team");
         }
 
+        // Team, project and task channels of this team disappear
+        eventPublisher.publishEvent(MembershipChangedEvent.allUsers());
+
         // Remove member/leader associations to clear join tables
         team.getMembers().clear();
         team.getLeaders().clear();
@@ -0,0 +1,107 @@
+package com.example.webapp.service;
+
+import com.example.webapp.dto.TypingResponse;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Ephemeral typing indicators, kept in memory on this node and never stored.
+ * Clients report typing as often as they like; a user is announced on
+ * /topic/typing/{type}/{id} at most once per interval-ms per channel, and
+ * announced as stopped once no report came for expiry-ms (or right away when
+ * the client says so). Sending a message ends typing without a frame, since
+ * the message itself tells clients. The typing destination is droppable under
+ * backpressure (see WebSocketFlowControl).
+ */
+@Service
+@Slf4j
+public class TypingService {
+
+    public static final String TYPING_TOPIC_PREFIX = "/topic/typing/";
+
+    @Autowired
+    private SimpMessagingTemplate messagingTemplate;
+
+    @Value("${app.chat.typing.interval-ms:3000}")
+    private long intervalMs;
+
+    @Value("${app.chat.typing.expiry-ms:6000}")
+    private long expiryMs;
+
+    private final Map<Key, Typist> typists = new ConcurrentHashMap<>();
+
+    /**
+     * A user is typing in a channel
+     */
+    public void typing(String channelType, Long channelId, ChatAuthorizationService.Grant user) {
+        long now = System.currentTimeMillis();
+        boolean[] announce = new boolean[1];
+        typists.compute(new Key(channelType, channelId, user.userId()), (key, typist) -> {
+            if (typist == null || now - typist.announcedAt() >= intervalMs) {
+                announce[0] = true;
+                return new Typist(user, now, now + expiryMs);
+            }
+            return new Typist(user, typist.announcedAt(), now + expiryMs);
+        });
+        if (announce[0]) {
+            broadcast(channelType, channelId, user, true);
+        }
+    }
+
+    /**
+     * A user stopped typing in a channel
+     * @param announce Whether to broadcast the stop (not needed when the user just sent a message)
+     */
+    public void stopped(String channelType, Long channelId, ChatAuthorizationService.Grant user, boolean announce) {
+        if (typists.remove(new Key(channelType, channelId, user.userId())) != null && announce) {
+            broadcast(channelType, channelId, user, false);
+        }
+    }
+
+    /**
+     * Announce users who stopped reporting as no longer typing
+     */
+    @Scheduled(fixedDelayString = "${app.chat.typing.sweep-interval-ms:1000}")
+    public void expireTypists() {
+        long now = System.currentTimeMillis();
+        typists.forEach((key, typist) -> {
+            if (typist.expiresAt() <= now && typists.remove(key, typist)) {
+                broadcast(key.channelType(), key.channelId(), typist.user(), false);
+            }
+        });
+    }
+
+    public int getTypingCount() {
+        return typists.size();
+    }
+
+    private void broadcast(String channelType, Long channelId, ChatAuthorizationService.Grant user, boolean typing) {
+        try {
+            messagingTemplate.convertAndSend(TYPING_TOPIC_PREFIX + channelType + "/" + channelId,
+                    TypingResponse.builder()
+                            .channelType(channelType)
+                            .channelId(String.valueOf(channelId))
+                            .userId(String.valueOf(user.userId()))
+                            .userEmail(user.email())
+                            .userName(user.name())
+                            .typing(typing)
+                            .ttlMs(typing ? expiryMs : null)
+                            .build());
+        } catch (Exception e) {
+            log.warn("Failed to broadcast typing for {}/{}: {}", channelType, channelId, e.getMessage());
+        }
+    }
+
+    private record Key(String channelType, Long channelId, Long userId) {
+    }
+
+    private record Typist(ChatAuthorizationService.Grant user, long announcedAt, long expiresAt) {
+    }
+}
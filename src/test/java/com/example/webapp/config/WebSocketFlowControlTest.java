@@ -0,0 +1,241 @@
+package com.example.webapp.config;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketHandler;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Outbound flow control: ordered buffered writes, dropping droppable frames, closing
+ * slow consumers with a resume token, and not letting one stuck client hold the
+ * outbound threads
+ */
+class WebSocketFlowControlTest {
+
+    private static final long TIMEOUT_MS = 10_000;
+
+    private static final int BUFFER_LIMIT = 10_000;
+
+    private final WebSocketHandler handler = mock(WebSocketHandler.class);
+    private final CountDownLatch unblock = new CountDownLatch(1);
+    private ThreadPoolTaskExecutor outboundExecutor;
+    private WebSocketFlowControl flowControl;
+
+    @BeforeEach
+    void startFlowControl() {
+        // One outbound thread, so a write that holds it shows up at once
+        outboundExecutor = new ThreadPoolTaskExecutor();
+        outboundExecutor.setCorePoolSize(1);
+        outboundExecutor.setMaxPoolSize(1);
+        outboundExecutor.setWaitForTasksToCompleteOnShutdown(true);
+        outboundExecutor.setAwaitTerminationMillis(TIMEOUT_MS);
+        outboundExecutor.initialize();
+
+        flowControl = new WebSocketFlowControl();
+        ReflectionTestUtils.setField(flowControl, "sendTimeLimitMs", 500);
+        ReflectionTestUtils.setField(flowControl, "sendBufferSizeLimit", BUFFER_LIMIT);
+        ReflectionTestUtils.setField(flowControl, "dropThreshold", 0.25);
+        ReflectionTestUtils.setField(flowControl, "droppableDestinations", List.of("/topic/presence/**", "/topic/typing/**"));
+        ReflectionTestUtils.setField(flowControl, "closeThreads", 1);
+        ReflectionTestUtils.setField(flowControl, "flushTimeSliceMs", 50L);
+        ReflectionTestUtils.setField(flowControl, "outboundExecutor", outboundExecutor);
+        flowControl.start();
+    }
+
+    @AfterEach
+    void stopFlowControl() {
+        unblock.countDown();
+        flowControl.stop();
+        outboundExecutor.shutdown();
+    }
+
+    @Test
+    void writesBufferedFramesInOrder() throws Exception {
+        List<String> written = new CopyOnWriteArrayList<>();
+        WebSocketSession session = connect(session("s1", written, 0, 0));
+
+        for (int i = 0; i < 200; i++) {
+            session.sendMessage(frame("/topic/chat/team/1", i, 10));
+        }
+
+        await(() -> written.size() == 200);
+        for (int i = 0; i < 200; i++) {
+            assertTrue(written.get(i).contains("chat-message-id:" + i + "\n"), "frame " + i + " out of order");
+        }
+        await(() -> flowControl.getBufferedBytes() == 0);
+    }
+
+    @Test
+    void stopsSendingDroppableFramesPastTheDropThreshold() throws Exception {
+        List<String> written = new CopyOnWriteArrayList<>();
+        WebSocketSession session = connect(session("s1", written, 1, 0));
+        session.sendMessage(frame("/topic/chat/team/1", 1, 10));
+        session.sendMessage(frame("/topic/chat/team/1", 2, 10));
+        await(() -> written.size() == 1);
+        // Waits behind the blocked write of frame 2
+        session.sendMessage(frame("/topic/chat/team/1", 3, BUFFER_LIMIT / 2));
+
+        assertNull(flowControl.preSend(outbound("s1", "/topic/presence/team/1"), null));
+        assertNull(flowControl.preSend(outbound("s1", "/topic/typing/team/1"), null));
+        assertNotNull(flowControl.preSend(outbound("s1", "/topic/chat/team/1"), null));
+        assertEquals(2, flowControl.getDroppedFrames());
+        assertEquals(0, flowControl.getSlowConsumerDisconnects());
+    }
+
+    @Test
+    void closesAFullSessionWithTheLastWrittenIdsAsResumeToken() throws Exception {
+        List<String> written = new CopyOnWriteArrayList<>();
+        WebSocketSession raw = session("s1", written, 3, 0);
+        WebSocketSession session = connect(raw);
+        session.sendMessage(frame("/topic/chat/team/1", 10, 10));
+        session.sendMessage(frame("/topic/chat/task/7", 11, 10));
+        session.sendMessage(frame("/topic/chat/team/1", 12, 10));
+        session.sendMessage(frame("/topic/chat/team/1", 13, 10));
+        await(() -> written.size() == 3);
+        session.sendMessage(frame("/topic/chat/team/1", 14, BUFFER_LIMIT));
+
+        assertNull(flowControl.preSend(outbound("s1", "/topic/chat/team/1"), null));
+
+        ArgumentCaptor<CloseStatus> status = ArgumentCaptor.forClass(CloseStatus.class);
+        verify(raw, timeout(TIMEOUT_MS)).close(status.capture());
+        assertEquals(WebSocketFlowControl.SLOW_CONSUMER_CLOSE_CODE, status.getValue().getCode());
+        assertEquals("slow-consumer chat=team/1:12,task/7:11", status.getValue().getReason());
+        assertEquals(1, flowControl.getSlowConsumerDisconnects());
+        assertEquals(0, flowControl.getBufferedBytes());
+        // Once closing, nothing more is accepted for the session
+        assertNull(flowControl.preSend(outbound("s1", "/topic/chat/team/1"), null));
+    }
+
+    @Test
+    void closesASessionStuckInOneWriteWhileTheOutboundThreadIsHeld() throws Exception {
+        List<String> written = new CopyOnWriteArrayList<>();
+        WebSocketSession raw = session("s1", written, 0, Long.MAX_VALUE);
+        WebSocketSession session = connect(raw);
+        session.sendMessage(frame("/topic/chat/team/1", 1, 10));
+        Thread.sleep(600);
+
+        flowControl.closeBlockedSessions();
+
+        // The only outbound thread is still inside the stuck write; the close must not queue behind it
+        ArgumentCaptor<CloseStatus> status = ArgumentCaptor.forClass(CloseStatus.class);
+        verify(raw, timeout(TIMEOUT_MS)).close(status.capture());
+        assertEquals(WebSocketFlowControl.SLOW_CONSUMER_CLOSE_CODE, status.getValue().getCode());
+        assertTrue(written.isEmpty());
+    }
+
+    @Test
+    void aBusySessionGivesItsThreadBackAfterItsTimeSlice() throws Exception {
+        List<String> writtenA = new CopyOnWriteArrayList<>();
+        List<String> writtenB = new CopyOnWriteArrayList<>();
+        WebSocketSession sessionA = connect(session("a", writtenA, 0, 10));
+        WebSocketSession sessionB = connect(session("b", writtenB, 0, 0));
+
+        for (int i = 0; i < 30; i++) {
+            sessionA.sendMessage(frame("/topic/chat/team/1", i, 10));
+        }
+        sessionB.sendMessage(frame("/topic/chat/team/2", 1, 10));
+
+        await(() -> writtenB.size() == 1);
+        assertTrue(writtenA.size() < 30, "session b waited for all of session a's frames");
+        await(() -> writtenA.size() == 30);
+    }
+
+    @Test
+    void closeRequestedByTheStompHandlerWaitsForEarlierFrames() throws Exception {
+        List<String> written = new CopyOnWriteArrayList<>();
+        WebSocketSession raw = session("s1", written, 0, 20);
+        WebSocketSession session = connect(raw);
+        session.sendMessage(frame("/topic/chat/team/1", 1, 10));
+        session.sendMessage(frame("/topic/chat/team/1", 2, 10));
+        session.close(CloseStatus.PROTOCOL_ERROR);
+        verify(raw, never()).close(any());
+
+        verify(raw, timeout(TIMEOUT_MS)).close(CloseStatus.PROTOCOL_ERROR);
+        assertEquals(2, written.size());
+    }
+
+    /**
+     * Run the session through the decorated handler and return what the STOMP handler would see
+     */
+    private WebSocketSession connect(WebSocketSession raw) throws Exception {
+        ArgumentCaptor<WebSocketSession> decorated = ArgumentCaptor.forClass(WebSocketSession.class);
+        flowControl.decorate(handler).afterConnectionEstablished(raw);
+        verify(handler, timeout(TIMEOUT_MS).atLeastOnce()).afterConnectionEstablished(decorated.capture());
+        return decorated.getAllValues().stream()
+                .filter(s -> s.getId().equals(raw.getId()))
+                .findFirst()
+                .orElseThrow();
+    }
+
+    /**
+     * A client connection that writes the first writesBeforeBlocking frames (all when 0)
+     * and then blocks until the test ends; each write takes writeMillis
+     */
+    private WebSocketSession session(String id, List<String> written, int writesBeforeBlocking, long writeMillis)
+            throws Exception {
+        WebSocketSession session = mock(WebSocketSession.class);
+        when(session.getId()).thenReturn(id);
+        when(session.isOpen()).thenReturn(true);
+        when(session.getAttributes()).thenReturn(new HashMap<>());
+        doAnswer(invocation -> {
+            if (writeMillis == Long.MAX_VALUE
+                    || (writesBeforeBlocking > 0 && written.size() >= writesBeforeBlocking)) {
+                unblock.await(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+                return null;
+            }
+            if (writeMillis > 0) {
+                Thread.sleep(writeMillis);
+            }
+            written.add(((TextMessage) invocation.getArgument(0)).getPayload());
+            return null;
+        }).when(session).sendMessage(any(WebSocketMessage.class));
+        return session;
+    }
+
+    private static TextMessage frame(String destination, long chatMessageId, int bodyLength) {
+        return new TextMessage("MESSAGE\ndestination:" + destination + "\n"
+                + "chat-message-id:" + chatMessageId + "\n\n" + "x".repeat(bodyLength) + "\u0000");
+    }
+
+    private static Message<byte[]> outbound(String sessionId, String destination) {
+        SimpMessageHeaderAccessor headers = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+        headers.setSessionId(sessionId);
+        headers.setDestination(destination);
+        return MessageBuilder.createMessage(new byte[0], headers.getMessageHeaders());
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < deadline, "timed out waiting for outbound frames");
+            Thread.sleep(10);
+        }
+    }
+}
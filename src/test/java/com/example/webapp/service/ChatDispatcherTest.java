@@ -0,0 +1,180 @@
+package com.example.webapp.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Dispatch lanes: per-channel order, full lanes, call timeouts and draining on stop
+ */
+class ChatDispatcherTest {
+
+    private static final long TIMEOUT_MS = 10_000;
+
+    private final List<ChatDispatcher> dispatchers = new ArrayList<>();
+
+    @AfterEach
+    void stopDispatchers() throws InterruptedException {
+        for (ChatDispatcher dispatcher : dispatchers) {
+            dispatcher.stop();
+        }
+    }
+
+    @Test
+    void runsEachChannelInSubmissionOrder() throws Exception {
+        ChatDispatcher dispatcher = start(4, 100_000, 1_000);
+        int channels = 16;
+        int perChannel = 500;
+        Map<Long, List<Integer>> ran = new ConcurrentHashMap<>();
+        for (long channel = 0; channel < channels; channel++) {
+            ran.put(channel, new CopyOnWriteArrayList<>());
+        }
+
+        // One submitter per channel, all running at once
+        ExecutorService submitters = Executors.newFixedThreadPool(channels);
+        try {
+            List<Future<?>> submitted = new ArrayList<>();
+            for (long channel = 0; channel < channels; channel++) {
+                long id = channel;
+                submitted.add(submitters.submit(() -> {
+                    for (int i = 0; i < perChannel; i++) {
+                        int sequence = i;
+                        dispatcher.dispatch("team", id, () -> ran.get(id).add(sequence));
+                    }
+                }));
+            }
+            for (Future<?> future : submitted) {
+                future.get();
+            }
+        } finally {
+            submitters.shutdown();
+        }
+
+        await(() -> dispatcher.getCompletedTasks() == (long) channels * perChannel);
+        for (List<Integer> sequence : ran.values()) {
+            assertEquals(perChannel, sequence.size());
+            for (int i = 0; i < perChannel; i++) {
+                assertEquals(i, sequence.get(i));
+            }
+        }
+    }
+
+    @Test
+    void rejectsWorkWhenTheLaneIsFull() throws Exception {
+        ChatDispatcher dispatcher = start(1, 2, 1_000);
+        CountDownLatch release = block(dispatcher);
+
+        dispatcher.dispatch("team", 1L, () -> { });
+        dispatcher.dispatch("team", 1L, () -> { });
+        assertThrows(IllegalStateException.class, () -> dispatcher.dispatch("task", 2L, () -> { }));
+        assertEquals(1, dispatcher.getRejectedTasks());
+        assertEquals(2, dispatcher.getMaxLaneDepth());
+
+        release.countDown();
+        await(() -> dispatcher.getCompletedTasks() == 3);
+    }
+
+    @Test
+    void callGivesUpWhenItsTurnDoesNotComeAndNeverRunsLater() throws Exception {
+        ChatDispatcher dispatcher = start(1, 100, 200);
+        CountDownLatch release = block(dispatcher);
+
+        AtomicBoolean ran = new AtomicBoolean();
+        long startedAt = System.currentTimeMillis();
+        assertThrows(IllegalStateException.class, () -> dispatcher.call("team", 1L, () -> ran.getAndSet(true)));
+        assertTrue(System.currentTimeMillis() - startedAt < TIMEOUT_MS);
+
+        release.countDown();
+        await(() -> dispatcher.getQueuedTasks() == 0);
+        dispatcher.dispatch("team", 1L, () -> { });
+        await(() -> dispatcher.getQueuedTasks() == 0);
+        assertFalse(ran.get(), "timed-out call ran after its caller gave up");
+        assertEquals(1, dispatcher.getRejectedTasks());
+    }
+
+    @Test
+    void callReturnsTheResultAndRethrowsFailures() {
+        ChatDispatcher dispatcher = start(2, 100, 1_000);
+
+        assertEquals("done", dispatcher.call("team", 1L, () -> "done"));
+        IllegalArgumentException failure = assertThrows(IllegalArgumentException.class,
+                () -> dispatcher.call("team", 1L, () -> {
+                    throw new IllegalArgumentException("Access denied");
+                }));
+        assertEquals("Access denied", failure.getMessage());
+        // Nested calls on the lane's own thread run in place instead of waiting on themselves
+        assertEquals("nested", dispatcher.call("team", 1L, () -> dispatcher.call("team", 1L, () -> "nested")));
+    }
+
+    @Test
+    void stopRunsWhatIsQueued() throws Exception {
+        ChatDispatcher dispatcher = start(1, 100, 1_000);
+        CountDownLatch release = block(dispatcher);
+        AtomicInteger ran = new AtomicInteger();
+        for (int i = 0; i < 20; i++) {
+            dispatcher.dispatch("team", 1L, ran::incrementAndGet);
+        }
+
+        release.countDown();
+        dispatcher.stop();
+        dispatchers.remove(dispatcher);
+        assertEquals(20, ran.get());
+
+        // Work arriving after stop runs on the caller's thread
+        dispatcher.dispatch("team", 1L, ran::incrementAndGet);
+        assertEquals(21, ran.get());
+    }
+
+    private ChatDispatcher start(int lanes, int queueCapacity, long callTimeoutMs) {
+        ChatDispatcher dispatcher = new ChatDispatcher();
+        ReflectionTestUtils.setField(dispatcher, "laneCount", lanes);
+        ReflectionTestUtils.setField(dispatcher, "queueCapacity", queueCapacity);
+        ReflectionTestUtils.setField(dispatcher, "callTimeoutMs", callTimeoutMs);
+        ReflectionTestUtils.setField(dispatcher, "shutdownTimeoutMs", TIMEOUT_MS);
+        dispatcher.start();
+        dispatchers.add(dispatcher);
+        return dispatcher;
+    }
+
+    /**
+     * Occupy the lane of team/1 until the returned latch is released
+     */
+    private static CountDownLatch block(ChatDispatcher dispatcher) throws InterruptedException {
+        CountDownLatch running = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        dispatcher.dispatch("team", 1L, () -> {
+            running.countDown();
+            try {
+                release.await(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        assertTrue(running.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        return release;
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < deadline, "timed out waiting for the lanes");
+            Thread.sleep(10);
+        }
+    }
+}
@@ -0,0 +1,216 @@
+package com.example.webapp.service;
+
+import com.example.webapp.dto.MessageResponse;
+import com.example.webapp.entity.Message;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.SliceImpl;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.support.ExecutorSubscribableChannel;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Recent-message cache: warm-up from the database, merging with broadcasts, the ring's
+ * gap paging, retractions and eviction
+ */
+class ChatHistoryCacheTest {
+
+    private static final int CAPACITY = 5;
+
+    private final ChatService chatService = mock(ChatService.class);
+    private final ObjectMapper objectMapper = new ObjectMapper().findAndRegisterModules();
+    private final ExecutorSubscribableChannel brokerChannel = new ExecutorSubscribableChannel();
+    private ChatHistoryCache cache;
+
+    @BeforeEach
+    void createCache() {
+        cache = new ChatHistoryCache();
+        ReflectionTestUtils.setField(cache, "chatService", chatService);
+        ReflectionTestUtils.setField(cache, "objectMapper", objectMapper);
+        ReflectionTestUtils.setField(cache, "brokerChannel", brokerChannel);
+        ReflectionTestUtils.setField(cache, "enabled", true);
+        ReflectionTestUtils.setField(cache, "capacity", CAPACITY);
+        ReflectionTestUtils.setField(cache, "maxBytes", 1_000_000L);
+        ReflectionTestUtils.setField(cache, "idleMinutes", 30L);
+        cache.init();
+    }
+
+    @Test
+    void warmsOnceFromTheDatabase() {
+        database(List.of(3L, 2L, 1L), false);
+
+        ChatHistoryCache.Recent first = cache.getRecent("team", 1L, 5);
+        ChatHistoryCache.Recent second = cache.getRecent("team", 1L, 5);
+
+        assertEquals(List.of("1", "2", "3"), ids(first));
+        assertFalse(first.hasMore());
+        assertEquals(ids(first), ids(second));
+        verify(chatService, times(1)).getHistoryBefore(eq("team"), eq(1L), isNull(), anyInt());
+    }
+
+    @Test
+    void concurrentColdJoinsShareOneLoad() throws Exception {
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        when(chatService.getHistoryBefore(eq("team"), eq(1L), isNull(), anyInt())).thenAnswer(invocation -> {
+            loading.countDown();
+            assertTrue(release.await(10, TimeUnit.SECONDS));
+            return new SliceImpl<>(messages(List.of(2L, 1L)), PageRequest.of(0, CAPACITY), false);
+        });
+
+        CompletableFuture<ChatHistoryCache.Recent> first = CompletableFuture.supplyAsync(() -> cache.getRecent("team", 1L, 5));
+        assertTrue(loading.await(10, TimeUnit.SECONDS));
+        CompletableFuture<ChatHistoryCache.Recent> second = CompletableFuture.supplyAsync(() -> cache.getRecent("team", 1L, 5));
+        Thread.sleep(100);
+        assertFalse(second.isDone(), "second join did not wait for the running load");
+        release.countDown();
+
+        assertEquals(List.of("1", "2"), ids(first.get(10, TimeUnit.SECONDS)));
+        assertEquals(List.of("1", "2"), ids(second.get(10, TimeUnit.SECONDS)));
+        verify(chatService, times(1)).getHistoryBefore(eq("team"), eq(1L), isNull(), anyInt());
+    }
+
+    @Test
+    void mergesBroadcastsThatArrivedBeforeTheWarmUp() {
+        // Sent while nobody had joined yet (and, with write-behind, perhaps not yet in the database)
+        broadcast("team", 1L, 4L);
+        broadcast("team", 1L, 3L);
+        database(List.of(3L, 2L, 1L), false);
+
+        assertEquals(List.of("1", "2", "3", "4"), ids(cache.getRecent("team", 1L, 5)));
+    }
+
+    @Test
+    void keepsTheNewestMessagesAndPagesALongGap() {
+        database(List.of(5L, 4L, 3L, 2L, 1L), true);
+        cache.getRecent("team", 1L, 5);
+        for (long id = 6; id <= 8; id++) {
+            broadcast("team", 1L, id);
+        }
+
+        ChatHistoryCache.Recent newest = cache.getRecent("team", 1L, 3);
+        assertEquals(List.of("6", "7", "8"), ids(newest));
+        assertTrue(newest.hasMore());
+        assertEquals("6", newest.nextBeforeId());
+
+        // The client has 5, which is still in the ring: the gap is complete
+        ChatHistoryCache.Recent gap = cache.getSince("team", 1L, 5L, 5);
+        assertEquals(List.of("6", "7", "8"), ids(gap));
+        assertFalse(gap.hasMore());
+
+        // The client has 2, which the ring no longer holds: older gap messages are paged
+        ChatHistoryCache.Recent longGap = cache.getSince("team", 1L, 2L, 5);
+        assertEquals(List.of("4", "5", "6", "7", "8"), ids(longGap));
+        assertTrue(longGap.hasMore());
+        assertEquals("4", longGap.nextBeforeId());
+
+        assertNull(cache.getRecent("team", 1L, CAPACITY + 1), "limits beyond the ring go to the database");
+    }
+
+    @Test
+    void dropsRetractedMessagesEvenWhenTheRetractionComesFirst() {
+        database(List.of(2L, 1L), false);
+        cache.getRecent("team", 1L, 5);
+        broadcast("team", 1L, 3L);
+
+        retract("team", 1L, 3L);
+        retract("team", 1L, 4L);
+        broadcast("team", 1L, 4L);
+        broadcast("team", 1L, 5L);
+
+        assertEquals(List.of("1", "2", "5"), ids(cache.getRecent("team", 1L, 5)));
+    }
+
+    @Test
+    void evictsIdleChannelsAndTheLeastRecentlyUsedOverBudget() throws InterruptedException {
+        database(List.of(1L), false);
+        cache.getRecent("team", 1L, 5);
+        cache.getRecent("team", 2L, 5);
+        assertEquals(2, cache.getChannelCount());
+
+        ReflectionTestUtils.setField(cache, "idleMinutes", 0L);
+        Thread.sleep(5);
+        cache.evictIdle();
+        assertEquals(0, cache.getChannelCount());
+        assertEquals(0, cache.getTotalBytes());
+
+        ReflectionTestUtils.setField(cache, "idleMinutes", 30L);
+        ReflectionTestUtils.setField(cache, "maxBytes", 1L);
+        cache.getRecent("team", 1L, 5);
+        assertEquals(0, cache.getChannelCount(), "a channel over the memory budget was kept");
+    }
+
+    private void database(List<Long> newestFirst, boolean hasNext) {
+        when(chatService.getHistoryBefore(any(), any(), isNull(), anyInt())).thenAnswer(invocation ->
+                new SliceImpl<>(messages(newestFirst), PageRequest.of(0, CAPACITY), hasNext));
+    }
+
+    private static List<Message> messages(List<Long> ids) {
+        List<Message> messages = new ArrayList<>();
+        for (Long id : ids) {
+            messages.add(Message.builder()
+                    .id(id)
+                    .senderId(7L)
+                    .content("message " + id)
+                    .createdAt(LocalDateTime.now())
+                    .build());
+        }
+        return messages;
+    }
+
+    private void broadcast(String channelType, Long channelId, Long id) {
+        send(channelType, channelId, MessageResponse.builder()
+                .id(String.valueOf(id))
+                .channelType(channelType)
+                .channelId(String.valueOf(channelId))
+                .senderId("7")
+                .text("message " + id)
+                .createdAt(LocalDateTime.now())
+                .build());
+    }
+
+    private void retract(String channelType, Long channelId, Long id) {
+        send(channelType, channelId, MessageResponse.builder()
+                .id(String.valueOf(id))
+                .channelType(channelType)
+                .channelId(String.valueOf(channelId))
+                .retracted(true)
+                .build());
+    }
+
+    private void send(String channelType, Long channelId, MessageResponse payload) {
+        SimpMessageHeaderAccessor headers = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+        headers.setDestination("/topic/chat/" + channelType + "/" + channelId);
+        try {
+            brokerChannel.send(MessageBuilder.createMessage(objectMapper.writeValueAsBytes(payload),
+                    headers.getMessageHeaders()));
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static List<String> ids(ChatHistoryCache.Recent recent) {
+        return recent.messages().stream().map(MessageResponse::getId).toList();
+    }
+}
@@ -0,0 +1,222 @@
+package com.example.webapp.service;
+
+import com.example.webapp.entity.Message;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.messaging.converter.MappingJackson2MessageConverter;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.support.ExecutorSubscribableChannel;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.testcontainers.DockerClientFactory;
+import org.testcontainers.containers.PostgreSQLContainer;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.Statement;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Write-behind chat persistence on PostgreSQL: batched draining, task counters,
+ * a full queue, rows that cannot be stored, and writing everything queued on stop.
+ * Skipped when Docker is not available.
+ */
+class ChatMessageWriterTest {
+
+    private static final long TIMEOUT_MS = 10_000;
+
+    private static PostgreSQLContainer<?> postgres;
+    private static DriverManagerDataSource dataSource;
+    private static JdbcTemplate jdbcTemplate;
+
+    private final List<String> broadcasts = new CopyOnWriteArrayList<>();
+    private ChatMessageWriter writer;
+
+    @BeforeAll
+    static void startDatabase() {
+        assumeTrue(DockerClientFactory.instance().isDockerAvailable(), "Docker is not available");
+        postgres = new PostgreSQLContainer<>("postgres:16-alpine");
+        postgres.start();
+        dataSource = new DriverManagerDataSource(postgres.getJdbcUrl(), postgres.getUsername(), postgres.getPassword());
+        jdbcTemplate = new JdbcTemplate(dataSource);
+        jdbcTemplate.execute("CREATE TABLE users (id BIGINT PRIMARY KEY)");
+        jdbcTemplate.execute("CREATE TABLE messages (id BIGSERIAL PRIMARY KEY, " +
+                "sender_id BIGINT NOT NULL REFERENCES users (id), content TEXT NOT NULL, " +
+                "channel_type VARCHAR(255) NOT NULL, channel_id BIGINT NOT NULL, created_at TIMESTAMP NOT NULL)");
+        jdbcTemplate.execute("CREATE TABLE tasks (id BIGINT PRIMARY KEY, message_count BIGINT NOT NULL, " +
+                "last_activity_at TIMESTAMP)");
+        jdbcTemplate.update("INSERT INTO users (id) VALUES (1)");
+        jdbcTemplate.update("INSERT INTO tasks (id, message_count, last_activity_at) VALUES (7, 0, now())");
+    }
+
+    @AfterAll
+    static void stopDatabase() {
+        if (postgres != null) {
+            postgres.stop();
+        }
+    }
+
+    @BeforeEach
+    void clearMessages() {
+        jdbcTemplate.update("DELETE FROM messages");
+        jdbcTemplate.update("UPDATE tasks SET message_count = 0");
+    }
+
+    @AfterEach
+    void stopWriter() throws InterruptedException {
+        if (writer != null) {
+            writer.stop();
+        }
+    }
+
+    @Test
+    void writesQueuedMessagesInBatchesInSendOrder() throws Exception {
+        writer = start(10_000, 200);
+        List<Long> ids = new ArrayList<>();
+        for (int i = 0; i < 1_000; i++) {
+            ids.add(writer.submit(message(1L, i % 2 == 0 ? "team" : "task", i % 2 == 0 ? 3L : 7L, "m" + i)).getId());
+        }
+
+        await(() -> writer.getWrittenMessages() == 1_000);
+        assertEquals(ids.stream().sorted().toList(), ids, "ids do not follow send order");
+        assertEquals(ids, jdbcTemplate.queryForList("SELECT id FROM messages ORDER BY id", Long.class));
+        assertEquals(List.of("m0", "m1", "m2"),
+                jdbcTemplate.queryForList("SELECT content FROM messages ORDER BY id LIMIT 3", String.class));
+        assertTrue(writer.getFlushCount() < 1_000, "messages were not batched");
+        assertEquals(500L, jdbcTemplate.queryForObject("SELECT message_count FROM tasks WHERE id = 7", Long.class));
+        assertEquals(0, writer.getQueueDepth());
+    }
+
+    @Test
+    void stopWritesEverythingQueued() throws Exception {
+        writer = start(10_000, 50);
+        for (int i = 0; i < 2_000; i++) {
+            writer.submit(message(1L, "team", 3L, "m" + i));
+        }
+        writer.stop();
+
+        assertEquals(2_000L, count());
+        // Sent while shutting down: written directly instead of queued
+        writer.submit(message(1L, "team", 3L, "late"));
+        assertEquals(2_001L, count());
+        writer = null;
+    }
+
+    @Test
+    void rejectsMessagesWhileTheQueueStaysFull() throws Exception {
+        writer = start(2, 200);
+        ReflectionTestUtils.setField(writer, "offerTimeoutMs", 100L);
+        reserveIds();
+
+        // Hold the writer's insert on a table lock so the queue fills up behind it
+        try (Connection blocker = dataSource.getConnection(); Statement statement = blocker.createStatement()) {
+            blocker.setAutoCommit(false);
+            statement.execute("LOCK TABLE messages IN ACCESS EXCLUSIVE MODE");
+            writer.submit(message(1L, "team", 3L, "in flight"));
+            await(() -> writer.getQueueDepth() == 0);
+            writer.submit(message(1L, "team", 3L, "queued 1"));
+            writer.submit(message(1L, "team", 3L, "queued 2"));
+
+            assertThrows(IllegalStateException.class, () -> writer.submit(message(1L, "team", 3L, "rejected")));
+            assertEquals(1, writer.getRejectedMessages());
+            blocker.rollback();
+        }
+
+        await(() -> writer.getWrittenMessages() == 4);
+        assertEquals(0L, jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM messages WHERE content = 'rejected'", Long.class));
+    }
+
+    @Test
+    void retractsAMessageThatCannotBeStoredAndKeepsTheRestOfItsBatch() throws Exception {
+        writer = start(10_000, 200);
+        reserveIds();
+        try (Connection blocker = dataSource.getConnection(); Statement statement = blocker.createStatement()) {
+            // Queue all three behind a lock so they are written as one batch
+            blocker.setAutoCommit(false);
+            statement.execute("LOCK TABLE messages IN ACCESS EXCLUSIVE MODE");
+            writer.submit(message(1L, "team", 3L, "first"));
+            await(() -> writer.getQueueDepth() == 0);
+            writer.submit(message(1L, "team", 3L, "before"));
+            Message orphan = writer.submit(message(99L, "team", 3L, "unknown sender"));
+            writer.submit(message(1L, "team", 3L, "after"));
+            blocker.rollback();
+
+            await(() -> writer.getWrittenMessages() + writer.getFailedMessages() == 5);
+            assertEquals(1, writer.getFailedMessages());
+            assertEquals(List.of("warm-up", "first", "before", "after"),
+                    jdbcTemplate.queryForList("SELECT content FROM messages ORDER BY id", String.class));
+            assertEquals(1, broadcasts.size());
+            assertTrue(broadcasts.get(0).startsWith("/topic/chat/team/3 "));
+            assertTrue(broadcasts.get(0).contains("\"id\":\"" + orphan.getId() + "\""));
+            assertTrue(broadcasts.get(0).contains("\"retracted\":true"));
+        }
+    }
+
+    private ChatMessageWriter start(int queueCapacity, int batchSize) {
+        ExecutorSubscribableChannel brokerChannel = new ExecutorSubscribableChannel();
+        brokerChannel.subscribe(message -> broadcasts.add(SimpMessageHeaderAccessor.getDestination(message.getHeaders())
+                + " " + new String((byte[]) message.getPayload(), StandardCharsets.UTF_8)));
+        SimpMessagingTemplate messagingTemplate = new SimpMessagingTemplate(brokerChannel);
+        MappingJackson2MessageConverter converter = new MappingJackson2MessageConverter();
+        converter.setObjectMapper(new ObjectMapper().findAndRegisterModules());
+        messagingTemplate.setMessageConverter(converter);
+
+        ChatMessageWriter chatMessageWriter = new ChatMessageWriter();
+        ReflectionTestUtils.setField(chatMessageWriter, "jdbcTemplate", jdbcTemplate);
+        ReflectionTestUtils.setField(chatMessageWriter, "messagingTemplate", messagingTemplate);
+        ReflectionTestUtils.setField(chatMessageWriter, "enabled", true);
+        ReflectionTestUtils.setField(chatMessageWriter, "queueCapacity", queueCapacity);
+        ReflectionTestUtils.setField(chatMessageWriter, "batchSize", batchSize);
+        ReflectionTestUtils.setField(chatMessageWriter, "idBlockSize", 100);
+        ReflectionTestUtils.setField(chatMessageWriter, "brokerMode", "simple");
+        ReflectionTestUtils.setField(chatMessageWriter, "offerTimeoutMs", 500L);
+        ReflectionTestUtils.setField(chatMessageWriter, "shutdownTimeoutMs", TIMEOUT_MS);
+        ReflectionTestUtils.setField(chatMessageWriter, "jdbcTimeZone", "");
+        chatMessageWriter.start();
+        return chatMessageWriter;
+    }
+
+    /**
+     * Write one message so the writer holds a block of ids before the table gets locked
+     */
+    private void reserveIds() throws InterruptedException {
+        writer.submit(message(1L, "team", 3L, "warm-up"));
+        await(() -> writer.getWrittenMessages() == 1);
+    }
+
+    private static Message message(Long senderId, String channelType, Long channelId, String content) {
+        return Message.builder()
+                .senderId(senderId)
+                .channelType(channelType)
+                .channelId(channelId)
+                .content(content)
+                .createdAt(LocalDateTime.now())
+                .build();
+    }
+
+    private static long count() {
+        return jdbcTemplate.queryForObject("SELECT COUNT(*) FROM messages", Long.class);
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < deadline, "timed out waiting for the chat writer");
+            Thread.sleep(10);
+        }
+    }
+}
@@ -0,0 +1,245 @@
+package com.example.webapp.service;
+
+import com.example.webapp.entity.Notification;
+import com.example.webapp.entity.Project;
+import com.example.webapp.entity.Team;
+import com.example.webapp.entity.User;
+import com.example.webapp.repository.NotificationRepository;
+import com.example.webapp.repository.TeamNotificationEventRepository;
+import com.example.webapp.repository.TeamRepository;
+import com.example.webapp.repository.UserRepository;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.testcontainers.DockerClientFactory;
+import org.testcontainers.containers.PostgreSQLContainer;
+
+import java.time.LocalDateTime;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Unread counters and the read watermark on PostgreSQL: counter deltas of personal
+ * notifications and team events, mark-all-read racing a notification insert, and
+ * reconciliation of a drifted counter.
+ * Skipped when Docker is not available.
+ */
+@SpringBootTest(properties = {
+        "jwt.secret=test-secret-key-for-integration-tests-must-be-long-enough-for-security",
+        "spring.jpa.hibernate.ddl-auto=update",
+        "app.notifications.unread-reconcile-initial-delay-ms=3600000"
+})
+class NotificationCounterServiceTest {
+
+    private static final long TIMEOUT_MS = 10_000;
+
+    private static final AtomicLong names = new AtomicLong();
+
+    private static PostgreSQLContainer<?> postgres;
+
+    @Autowired
+    private NotificationService notificationService;
+
+    @Autowired
+    private NotificationCounterService counterService;
+
+    @Autowired
+    private NotificationRepository notificationRepository;
+
+    @Autowired
+    private TeamNotificationEventRepository teamEventRepository;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private TeamRepository teamRepository;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @BeforeAll
+    static void startDatabase() {
+        assumeTrue(DockerClientFactory.instance().isDockerAvailable(), "Docker is not available");
+        postgres = new PostgreSQLContainer<>("postgres:16-alpine");
+        postgres.start();
+    }
+
+    @AfterAll
+    static void stopDatabase() {
+        if (postgres != null) {
+            postgres.stop();
+        }
+    }
+
+    @DynamicPropertySource
+    static void database(DynamicPropertyRegistry registry) {
+        registry.add("spring.datasource.url", () -> postgres.getJdbcUrl());
+        registry.add("spring.datasource.username", () -> postgres.getUsername());
+        registry.add("spring.datasource.password", () -> postgres.getPassword());
+    }
+
+    @Test
+    void countsPersonalNotificationsUntilReadOrMarkedAll() {
+        User member = user("member");
+        User owner = user("owner");
+        Project project = project(null);
+
+        notificationService.notifyMemberAddedToProject(project, member.getId(), owner.getId());
+        notificationService.notifyMemberAddedToProject(project, member.getId(), owner.getId());
+        notificationService.notifyMemberAddedToProject(project, member.getId(), owner.getId());
+        assertEquals(3, counterService.getUnreadCount(member.getId()));
+
+        Long first = newestNotificationId(member);
+        notificationService.markAsRead(first, member.getId());
+        notificationService.markAsRead(first, member.getId());
+        assertEquals(2, counterService.getUnreadCount(member.getId()));
+
+        notificationService.markAllAsRead(member.getId());
+        assertEquals(0, counterService.getUnreadCount(member.getId()));
+        assertEquals(newestNotificationId(member), counterService.getReadUpToId(member.getId()));
+
+        notificationService.notifyMemberAddedToProject(project, member.getId(), owner.getId());
+        assertEquals(1, counterService.getUnreadCount(member.getId()));
+        assertEquals(1, notificationService.getUnreadNotifications(member.getId()).size());
+    }
+
+    @Test
+    void countsTeamEventsForEachRecipientUntilTheirCursorPassesThem() {
+        User manager = user("manager");
+        User leader = user("leader");
+        User creator = user("creator");
+        Team team = team(manager, leader);
+
+        notificationService.notifyProjectCreated(project(team.getId()), creator.getId());
+        notificationService.notifyProjectCreated(project(team.getId()), creator.getId());
+        assertEquals(2, counterService.getUnreadCount(manager.getId()));
+        assertEquals(2, counterService.getUnreadCount(leader.getId()));
+        assertEquals(0, counterService.getUnreadCount(creator.getId()));
+
+        // Reading the newer event moves the leader's cursor past both
+        Long newest = teamEventRepository.findLatestIdForUser(leader.getId()).orElseThrow();
+        notificationService.markAsRead(newest, leader.getId());
+        assertEquals(0, counterService.getUnreadCount(leader.getId()));
+        assertEquals(2, counterService.getUnreadCount(manager.getId()));
+
+        notificationService.markAllAsRead(manager.getId());
+        assertEquals(0, counterService.getUnreadCount(manager.getId()));
+        assertEquals(newest, counterService.getReadUpToId(manager.getId()));
+    }
+
+    @Test
+    void markAllReadWaitsForANotificationBeingWritten() throws Exception {
+        User member = user("racer");
+        User owner = user("racer-owner");
+        Project project = project(null);
+        notificationService.notifyMemberAddedToProject(project, member.getId(), owner.getId());
+
+        CountDownLatch written = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<Void> writer = CompletableFuture.runAsync(() -> transactionTemplate.executeWithoutResult(status -> {
+            notificationService.notifyMemberAddedToProject(project, member.getId(), owner.getId());
+            written.countDown();
+            await(release);
+        }));
+        assertTrue(written.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+
+        CompletableFuture<Void> markAll = CompletableFuture.runAsync(() -> notificationService.markAllAsRead(member.getId()));
+        Thread.sleep(300);
+        assertFalse(markAll.isDone(), "mark all read did not wait for the uncommitted notification");
+        release.countDown();
+        writer.get(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        markAll.get(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+
+        // The watermark covers the notification that was being written, and the counter agrees
+        assertEquals(newestNotificationId(member), counterService.getReadUpToId(member.getId()));
+        assertEquals(0, counterService.getUnreadCount(member.getId()));
+        assertTrue(notificationService.getUnreadNotifications(member.getId()).isEmpty());
+    }
+
+    @Test
+    void reconcileRepairsADriftedCounter() {
+        User member = user("drift");
+        User owner = user("drift-owner");
+        Project project = project(null);
+        notificationService.notifyMemberAddedToProject(project, member.getId(), owner.getId());
+        notificationService.notifyMemberAddedToProject(project, member.getId(), owner.getId());
+        assertEquals(2, counterService.getUnreadCount(member.getId()));
+
+        // Rows removed behind the service's back
+        jdbcTemplate.update("DELETE FROM notifications WHERE id = ?", newestNotificationId(member));
+        jdbcTemplate.update("UPDATE notification_user_state SET unread_count = 7 WHERE user_id = ?", member.getId());
+        counterService.evictAll();
+        assertEquals(7, counterService.getUnreadCount(member.getId()));
+
+        counterService.reconcile();
+        assertEquals(1, counterService.getUnreadCount(member.getId()));
+    }
+
+    private User user(String name) {
+        String unique = name + "-" + names.incrementAndGet();
+        return userRepository.save(User.builder()
+                .email(unique + "@example.com")
+                .username(unique)
+                .name(unique)
+                .passwordHash("x")
+                .createdAt(LocalDateTime.now())
+                .build());
+    }
+
+    private Team team(User manager, User leader) {
+        return teamRepository.save(Team.builder()
+                .name("team-" + names.incrementAndGet())
+                .managerId(manager.getId())
+                .members(new HashSet<>(Set.of(manager, leader)))
+                .leaders(new HashSet<>(Set.of(leader)))
+                .inviteEmails(new HashSet<>())
+                .createdAt(LocalDateTime.now())
+                .build());
+    }
+
+    /**
+     * Notifications only read the project's id, name and team
+     */
+    private static Project project(Long teamId) {
+        long id = names.incrementAndGet();
+        return Project.builder()
+                .id(id)
+                .name("project-" + id)
+                .teamId(teamId)
+                .members(new HashSet<>())
+                .build();
+    }
+
+    private Long newestNotificationId(User user) {
+        Notification newest = notificationRepository.findByUserIdAndIdGreaterThanOrderByIdDesc(
+                user.getId(), 0L, PageRequest.of(0, 1)).get(0);
+        return newest.getId();
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            assertTrue(latch.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,225 @@
+package com.example.webapp.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.support.DefaultListableBeanFactory;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.util.MimeTypeUtils;
+import org.testcontainers.DockerClientFactory;
+import org.testcontainers.containers.PostgreSQLContainer;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Two message bus nodes on one PostgreSQL database: both deliver every relayed message,
+ * in the same order per channel, whichever node published it.
+ * Skipped when Docker is not available.
+ */
+class PostgresMessageBusTest {
+
+    private static final long TIMEOUT_MS = 10_000;
+
+    private static PostgreSQLContainer<?> postgres;
+    private static DriverManagerDataSource dataSource;
+
+    private final ClusterUserRegistry userRegistry = mock(ClusterUserRegistry.class);
+    private final List<PostgresMessageBus> nodes = new ArrayList<>();
+
+    @BeforeAll
+    static void startDatabase() {
+        assumeTrue(DockerClientFactory.instance().isDockerAvailable(), "Docker is not available");
+        postgres = new PostgreSQLContainer<>("postgres:16-alpine");
+        postgres.start();
+        dataSource = new DriverManagerDataSource(postgres.getJdbcUrl(), postgres.getUsername(), postgres.getPassword());
+        new JdbcTemplate(dataSource).execute("CREATE TABLE broker_relay_payloads (" +
+                "id BIGSERIAL PRIMARY KEY, payload TEXT NOT NULL, created_at TIMESTAMP NOT NULL)");
+    }
+
+    @AfterAll
+    static void stopDatabase() {
+        if (postgres != null) {
+            postgres.stop();
+        }
+    }
+
+    @BeforeEach
+    void registerUsers() {
+        when(userRegistry.isOnline("alice@example.com")).thenReturn(true);
+    }
+
+    @AfterEach
+    void stopNodes() throws InterruptedException {
+        for (PostgresMessageBus node : nodes) {
+            node.stop();
+        }
+    }
+
+    @Test
+    void nodesDeliverEachChannelInTheSameOrder() throws Exception {
+        List<Message<?>> receivedA = new CopyOnWriteArrayList<>();
+        List<Message<?>> receivedB = new CopyOnWriteArrayList<>();
+        PostgresMessageBus nodeA = startNode("node-a", receivedA);
+        PostgresMessageBus nodeB = startNode("node-b", receivedB);
+        awaitListening(nodeA, nodeB);
+
+        int perChannel = 100;
+        ExecutorService senders = Executors.newFixedThreadPool(2);
+        try {
+            Future<?> fromA = senders.submit(() -> publishAll(nodeA, "a", perChannel));
+            Future<?> fromB = senders.submit(() -> publishAll(nodeB, "b", perChannel));
+            fromA.get();
+            fromB.get();
+        } finally {
+            senders.shutdown();
+        }
+
+        // Each node publishes perChannel messages to each of the two channels
+        await(() -> receivedA.size() == 4 * perChannel && receivedB.size() == 4 * perChannel);
+        for (String destination : List.of("/topic/chat/team/1", "/topic/chat/team/2")) {
+            List<String> orderA = payloads(receivedA, destination);
+            List<String> orderB = payloads(receivedB, destination);
+            assertEquals(2 * perChannel, orderA.size());
+            assertEquals(orderA, orderB, "nodes delivered " + destination + " in different orders");
+            assertInSendOrder(orderA, "a", perChannel);
+            assertInSendOrder(orderA, "b", perChannel);
+        }
+    }
+
+    @Test
+    void userDestinationsReachOtherNodes() throws Exception {
+        List<Message<?>> receivedA = new CopyOnWriteArrayList<>();
+        List<Message<?>> receivedB = new CopyOnWriteArrayList<>();
+        PostgresMessageBus nodeA = startNode("node-a", receivedA);
+        PostgresMessageBus nodeB = startNode("node-b", receivedB);
+        awaitListening(nodeA, nodeB);
+
+        // Nobody is connected for bob, so his message is dropped instead of published
+        Message<?> toBob = nodeA.relay(message("/user/bob@example.com/queue/notifications", "{\"n\":\"bob\"}"));
+        assertEquals("/relayed", SimpMessageHeaderAccessor.getDestination(toBob.getHeaders()));
+
+        String large = "{\"n\":\"" + "x".repeat(20_000) + "\"}";
+        nodeA.relay(message("/user/alice@example.com/queue/notifications", "{\"n\":\"alice\"}"));
+        nodeA.relay(message("/user/alice@example.com/queue/notifications", large));
+
+        await(() -> receivedB.size() == 2);
+        assertEquals(List.of("{\"n\":\"alice\"}", large),
+                payloads(receivedB, "/user/alice@example.com/queue/notifications"));
+        assertTrue(receivedB.stream().allMatch(m -> m.getHeaders().containsKey(PostgresMessageBus.RELAYED_HEADER)));
+        assertEquals(MimeTypeUtils.APPLICATION_JSON.toString(),
+                String.valueOf(receivedB.get(0).getHeaders().get("contentType")));
+        await(() -> receivedA.size() == 2);
+    }
+
+    private PostgresMessageBus startNode(String nodeId, List<Message<?>> received) {
+        DefaultListableBeanFactory beanFactory = new DefaultListableBeanFactory();
+        beanFactory.registerSingleton("clusterUserRegistry", userRegistry);
+
+        DataSourceProperties dataSourceProperties = new DataSourceProperties();
+        dataSourceProperties.setUrl(postgres.getJdbcUrl());
+        dataSourceProperties.setUsername(postgres.getUsername());
+        dataSourceProperties.setPassword(postgres.getPassword());
+
+        PostgresMessageBus node = new PostgresMessageBus();
+        ReflectionTestUtils.setField(node, "dataSource", dataSource);
+        ReflectionTestUtils.setField(node, "dataSourceProperties", dataSourceProperties);
+        ReflectionTestUtils.setField(node, "objectMapper", new ObjectMapper());
+        ReflectionTestUtils.setField(node, "brokerChannel", (MessageChannel) (message, timeout) -> received.add(message));
+        ReflectionTestUtils.setField(node, "userRegistry", beanFactory.getBeanProvider(ClusterUserRegistry.class));
+        ReflectionTestUtils.setField(node, "channel", "ws_relay_test");
+        ReflectionTestUtils.setField(node, "nodeId", nodeId);
+        ReflectionTestUtils.setField(node, "relayDestinations", List.of("/topic/chat/**", "/user/**"));
+        ReflectionTestUtils.setField(node, "pollTimeoutMs", 100);
+        ReflectionTestUtils.setField(node, "reconnectDelayMs", 200L);
+        ReflectionTestUtils.setField(node, "payloadRetentionMinutes", 5);
+        node.start();
+        nodes.add(node);
+        return node;
+    }
+
+    /**
+     * Listeners connect in the background; publish probe events until every node hears them
+     */
+    private void awaitListening(PostgresMessageBus... busNodes) throws InterruptedException {
+        AtomicInteger heard = new AtomicInteger();
+        for (PostgresMessageBus node : busNodes) {
+            AtomicInteger heardHere = new AtomicInteger();
+            node.onEvent("probe", (from, body) -> {
+                if (heardHere.getAndIncrement() == 0) {
+                    heard.incrementAndGet();
+                }
+            });
+        }
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (heard.get() < busNodes.length) {
+            assertTrue(System.currentTimeMillis() < deadline, "bus listeners did not start");
+            busNodes[0].publishEvent("probe", Map.of());
+            Thread.sleep(50);
+        }
+    }
+
+    private static void publishAll(PostgresMessageBus node, String sender, int count) {
+        for (int i = 0; i < count; i++) {
+            for (String destination : List.of("/topic/chat/team/1", "/topic/chat/team/2")) {
+                Message<?> local = node.relay(message(destination, sender + "-" + i));
+                assertEquals("/relayed", SimpMessageHeaderAccessor.getDestination(local.getHeaders()));
+            }
+        }
+    }
+
+    private static Message<byte[]> message(String destination, String payload) {
+        SimpMessageHeaderAccessor headers = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+        headers.setDestination(destination);
+        headers.setContentType(MimeTypeUtils.APPLICATION_JSON);
+        return MessageBuilder.createMessage(payload.getBytes(StandardCharsets.UTF_8), headers.getMessageHeaders());
+    }
+
+    private static List<String> payloads(List<Message<?>> received, String destination) {
+        return received.stream()
+                .filter(m -> destination.equals(SimpMessageHeaderAccessor.getDestination(m.getHeaders())))
+                .map(m -> new String((byte[]) m.getPayload(), StandardCharsets.UTF_8))
+                .toList();
+    }
+
+    private static void assertInSendOrder(List<String> delivered, String sender, int count) {
+        List<String> fromSender = delivered.stream().filter(p -> p.startsWith(sender + "-")).toList();
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            expected.add(sender + "-" + i);
+        }
+        assertEquals(expected, fromSender);
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < deadline, "timed out waiting for relayed messages");
+            Thread.sleep(20);
+        }
+    }
+}